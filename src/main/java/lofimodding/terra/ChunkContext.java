@@ -0,0 +1,344 @@
+package lofimodding.terra;
+
+import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import net.minecraft.block.BlockState;
+import net.minecraft.block.Blocks;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.math.ChunkPos;
+import net.minecraft.world.IWorld;
+import net.minecraft.world.biome.Biome;
+import net.minecraft.world.chunk.ChunkSection;
+import net.minecraft.world.chunk.IChunk;
+import net.minecraft.world.server.ServerWorld;
+
+import javax.annotation.Nullable;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Facts about the chunk being decorated, shared by every Terra vein and by {@link DeferredGenerator} for that chunk.
+ * Contexts are kept per thread for the world and chunk last decorated on it, so each is computed once per decoration.
+ * Values that are costly to find are computed on first use and are safe to read from traces running in parallel.
+ */
+public class ChunkContext {
+  private static final ThreadLocal<ChunkContext> CURRENT = new ThreadLocal<>();
+
+  public static ChunkContext get(final IWorld world, final ChunkPos pos) {
+    final ChunkContext current = CURRENT.get();
+
+    if(current != null && current.world == world && current.pos.equals(pos)) {
+      return current;
+    }
+
+    final ChunkContext context = new ChunkContext(world, pos);
+    CURRENT.set(context);
+    return context;
+  }
+
+  /**
+   * Drops the thread's context once the chunk is fully decorated, so a later visit to the same chunk never sees stale
+   * values
+   */
+  public static void release() {
+    CURRENT.remove();
+  }
+
+  public final ChunkPos pos;
+  private final IWorld world;
+  private final Biome biome;
+  /** Bit n is set when section n has blocks */
+  private int sections;
+  private final ChunkSection[] chunkSections;
+  /** The states each section may hold, null until read and an empty list when the palette can't be read */
+  @SuppressWarnings("unchecked")
+  private final List<BlockState>[] palettes = new List[16];
+  /** For each replacer list, a bitmask of the sections that were checked and a bitmask of those that may host it */
+  private final Map<List<TerraOreVeinConfig.Replacer>, int[]> hosts = new HashMap<>();
+  private final SectionPalettes.Snapshot[] snapshots = new SectionPalettes.Snapshot[16];
+  /** Bit n is set once a snapshot of section n was attempted */
+  private int snapshotsTaken;
+  private final int[] surface = new int[256];
+  private final BlockState[] hostRock = new BlockState[16];
+  /** One bit per block Terra has placed in the chunk, 64 longs per section, allocated when a section is first written */
+  private final long[][] claimed = new long[16][];
+  /** What Terra placed at each claimed block, keyed by {@link #localIndex} */
+  private final Int2ObjectMap<BlockState> claimedStates = new Int2ObjectOpenHashMap<>();
+  private DeferredGenerationStorage deferred;
+  private RetrogenStorage retrogen;
+  private VeinIndex veinIndex;
+
+  private ChunkContext(final IWorld world, final ChunkPos pos) {
+    this.world = world;
+    this.pos = pos;
+    this.biome = world.getBiome(TerraFeatures.getBiomePos(pos));
+
+    final IChunk chunk = world.getChunk(pos.x, pos.z);
+    this.chunkSections = chunk.getSections();
+    this.sections = this.findSections();
+    Arrays.fill(this.surface, -1);
+  }
+
+  private int findSections() {
+    int sections = 0;
+
+    for(final ChunkSection section : this.chunkSections) {
+      if(!ChunkSection.isEmpty(section)) {
+        sections |= 1 << (section.getYLocation() >> 4);
+      }
+    }
+
+    return sections;
+  }
+
+  /**
+   * @return the biome the chunk is decorated with
+   */
+  public Biome getBiome() {
+    return this.biome;
+  }
+
+  public boolean isSectionEmpty(final int sectionY) {
+    return sectionY < 0 || sectionY >= 16 || (this.sections & 1 << sectionY) == 0;
+  }
+
+  /**
+   * Checks a section's palette, or its empty flag, against a replacer list once and remembers the answer
+   *
+   * @return false only if no block in the section can be replaced by any of <code>replacers</code>
+   */
+  public synchronized boolean mayHost(final VeinWorld world, final int sectionY, final List<TerraOreVeinConfig.Replacer> replacers) {
+    if(sectionY < 0 || sectionY >= 16) {
+      return false;
+    }
+
+    final int[] masks = this.hosts.computeIfAbsent(replacers, key -> new int[2]);
+    final int bit = 1 << sectionY;
+
+    if((masks[0] & bit) == 0) {
+      masks[0] |= bit;
+
+      if(this.canHost(world, sectionY, replacers)) {
+        masks[1] |= bit;
+      }
+    }
+
+    return (masks[1] & bit) != 0;
+  }
+
+  private boolean canHost(final VeinWorld world, final int sectionY, final List<TerraOreVeinConfig.Replacer> replacers) {
+    final List<BlockState> states = this.getPalette(sectionY);
+
+    if(states.isEmpty()) {
+      return true;
+    }
+
+    final BlockPos pos = new BlockPos(this.pos.getXStart(), sectionY << 4, this.pos.getZStart());
+
+    for(final BlockState state : states) {
+      for(final TerraOreVeinConfig.Replacer replacer : replacers) {
+        if(world.isReplaceable(state, pos, replacer)) {
+          return true;
+        }
+      }
+    }
+
+    return false;
+  }
+
+  private List<BlockState> getPalette(final int sectionY) {
+    if(this.palettes[sectionY] == null) {
+      final ChunkSection section = this.chunkSections[sectionY];
+
+      if(section == null) {
+        this.palettes[sectionY] = Collections.singletonList(Blocks.AIR.getDefaultState());
+      } else if(this.isSectionEmpty(sectionY)) {
+        // Empty sections may still hold the other kinds of air
+        this.palettes[sectionY] = Arrays.asList(Blocks.AIR.getDefaultState(), Blocks.CAVE_AIR.getDefaultState(), Blocks.VOID_AIR.getDefaultState());
+      } else {
+        final List<BlockState> palette = SectionPalettes.get(section);
+        this.palettes[sectionY] = palette == null ? Collections.emptyList() : palette;
+      }
+    }
+
+    return this.palettes[sectionY];
+  }
+
+  /**
+   * @return the Y a pebble in the column would rest at, see {@link TerraOreVein#findSurface}
+   */
+  public synchronized int getSurface(final VeinWorld world, final int x, final int z) {
+    final int index = (z & 15) << 4 | x & 15;
+
+    if(this.surface[index] == -1) {
+      this.surface[index] = TerraOreVein.findSurface(world, x, z).getY();
+    }
+
+    return this.surface[index];
+  }
+
+  private static int localIndex(final BlockPos pos) {
+    return pos.getY() << 8 | (pos.getZ() & 15) << 4 | pos.getX() & 15;
+  }
+
+  /**
+   * Looks up a block Terra placed earlier in this decoration, so veins that overlap it don't have to read the chunk
+   *
+   * @return the block Terra placed at <code>pos</code>, or null if it hasn't placed one there
+   */
+  @Nullable
+  public synchronized BlockState getClaimed(final BlockPos pos) {
+    final int y = pos.getY();
+
+    if(y < 0 || y >= 256) {
+      return null;
+    }
+
+    final long[] bits = this.claimed[y >> 4];
+    final int index = localIndex(pos);
+
+    if(bits == null || (bits[(index & 4095) >> 6] & 1L << index) == 0) {
+      return null;
+    }
+
+    return this.claimedStates.get(index);
+  }
+
+  /**
+   * Reads a block from the section's palette indices without going through the world.  Blocks Terra placed are
+   * answered by {@link #getClaimed} first, so snapshots never need to be updated.
+   *
+   * @return the block at <code>pos</code>, or null if it has to be read from the world
+   */
+  @Nullable
+  public synchronized BlockState getSnapshotted(final BlockPos pos) {
+    final int y = pos.getY();
+
+    if(y < 0 || y >= 256) {
+      return null;
+    }
+
+    final int sectionY = y >> 4;
+
+    if((this.snapshotsTaken & 1 << sectionY) == 0) {
+      this.snapshotsTaken |= 1 << sectionY;
+
+      final ChunkSection section = this.chunkSections[sectionY];
+      this.snapshots[sectionY] = section == null ? null : SectionPalettes.snapshot(section);
+    }
+
+    final SectionPalettes.Snapshot snapshot = this.snapshots[sectionY];
+    return snapshot == null ? null : snapshot.get(localIndex(pos) & 4095);
+  }
+
+  /**
+   * Drops everything learned from the chunk's blocks once Terra's veins are written, as lazy veins and retrogen may
+   * visit the chunk again after other code has changed its blocks.  Only the biome and the storage handles are kept.
+   */
+  public synchronized void forgetBlocks() {
+    Arrays.fill(this.snapshots, null);
+    this.snapshotsTaken = 0;
+    Arrays.fill(this.claimed, null);
+    this.claimedStates.clear();
+    Arrays.fill(this.palettes, null);
+    this.hosts.clear();
+    Arrays.fill(this.surface, -1);
+    Arrays.fill(this.hostRock, null);
+    this.sections = this.findSections();
+  }
+
+  /**
+   * Records a block Terra placed in the chunk and forgets the surface of its column when it is near or above it
+   */
+  synchronized void blockChanged(final BlockPos pos, final BlockState state) {
+    final int column = (pos.getZ() & 15) << 4 | pos.getX() & 15;
+
+    if(this.surface[column] != -1 && pos.getY() >= this.surface[column] - 1) {
+      this.surface[column] = -1;
+    }
+
+    final int y = pos.getY();
+
+    if(y < 0 || y >= 256) {
+      return;
+    }
+
+    if(this.claimed[y >> 4] == null) {
+      this.claimed[y >> 4] = new long[64];
+    }
+
+    final int index = localIndex(pos);
+    this.claimed[y >> 4][(index & 4095) >> 6] |= 1L << index;
+    this.claimedStates.put(index, state);
+
+    // The new block may be one a replacer list accepts, so sections found not to host one are checked again
+    final int bit = 1 << (y >> 4);
+
+    for(final int[] masks : this.hosts.values()) {
+      if((masks[1] & bit) == 0) {
+        masks[0] &= ~bit;
+        this.palettes[y >> 4] = null;
+      }
+    }
+  }
+
+  /**
+   * @return the most common solid block in a section, sampled every fourth block on each axis, or air if it has none
+   */
+  public synchronized BlockState getHostRock(final int sectionY) {
+    if(this.isSectionEmpty(sectionY)) {
+      return Blocks.AIR.getDefaultState();
+    }
+
+    if(this.hostRock[sectionY] == null) {
+      final Map<BlockState, Integer> counts = new HashMap<>();
+      final BlockPos.Mutable pos = new BlockPos.Mutable();
+
+      for(int y = 0; y < 16; y += 4) {
+        for(int z = 0; z < 16; z += 4) {
+          for(int x = 0; x < 16; x += 4) {
+            final BlockState state = this.world.getBlockState(pos.setPos(this.pos.getXStart() + x, (sectionY << 4) + y, this.pos.getZStart() + z));
+
+            if(state.isSolid()) {
+              counts.merge(state, 1, Integer::sum);
+            }
+          }
+        }
+      }
+
+      this.hostRock[sectionY] = counts.entrySet().stream()
+        .max(Map.Entry.comparingByValue())
+        .map(Map.Entry::getKey)
+        .orElse(Blocks.AIR.getDefaultState());
+    }
+
+    return this.hostRock[sectionY];
+  }
+
+  public synchronized DeferredGenerationStorage getDeferred() {
+    if(this.deferred == null) {
+      this.deferred = DeferredGenerationStorage.get((ServerWorld)this.world.getWorld());
+    }
+
+    return this.deferred;
+  }
+
+  public synchronized VeinIndex getVeinIndex() {
+    if(this.veinIndex == null) {
+      this.veinIndex = VeinIndex.get((ServerWorld)this.world.getWorld());
+    }
+
+    return this.veinIndex;
+  }
+
+  public synchronized RetrogenStorage getRetrogen() {
+    if(this.retrogen == null) {
+      this.retrogen = RetrogenStorage.get((ServerWorld)this.world.getWorld());
+    }
+
+    return this.retrogen;
+  }
+}
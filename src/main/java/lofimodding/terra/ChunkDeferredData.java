@@ -0,0 +1,85 @@
+package lofimodding.terra;
+
+import net.minecraft.nbt.CompoundNBT;
+import net.minecraft.world.chunk.ChunkStatus;
+import net.minecraft.world.chunk.IChunk;
+import net.minecraft.world.server.ServerWorld;
+import net.minecraftforge.common.util.Constants;
+import net.minecraftforge.event.world.ChunkDataEvent;
+
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Keeps blocks deferred to a chunk that already exists on disk in that chunk's own data instead of in
+ * {@link DeferredGenerationStorage}, when {@link TerraConfig#deferredInChunks} is enabled.  The blocks then load and
+ * unload with the chunk, and the global store only holds chunks that haven't been generated yet.
+ *
+ * Entries move from the global store into a proto-chunk when it is saved, and back into the store just before Terra
+ * decorates the chunk.  Proto-chunks read from disk don't know their world yet, so their entries are kept by chunk
+ * until either happens.
+ */
+public final class ChunkDeferredData {
+  private static final String TAG = TerraMod.MOD_ID + "_deferred";
+  /** Marks a chunk Terra has started decorating, whose entries must stay in the global store */
+  private static final DeferredGenerationStorage.Deferred DECORATING = new DeferredGenerationStorage.Deferred();
+
+  /** Entries read from or written to each proto-chunk's data; chunks are compared by identity */
+  private static final Map<IChunk, DeferredGenerationStorage.Deferred> CHUNKS = new WeakHashMap<>();
+
+  private ChunkDeferredData() { }
+
+  static void onLoad(final ChunkDataEvent.Load event) {
+    final CompoundNBT data = event.getData();
+
+    if(data.contains(TAG, Constants.NBT.TAG_COMPOUND)) {
+      final DeferredGenerationStorage.Deferred deferred = DeferredGenerationStorage.readChunk(data.getCompound(TAG));
+
+      synchronized(CHUNKS) {
+        CHUNKS.put(event.getChunk(), deferred);
+      }
+    }
+  }
+
+  static void onSave(final ChunkDataEvent.Save event) {
+    final IChunk chunk = event.getChunk();
+    DeferredGenerationStorage.Deferred deferred;
+
+    synchronized(CHUNKS) {
+      deferred = CHUNKS.get(chunk);
+
+      if(deferred == DECORATING) {
+        return;
+      }
+
+      if(TerraConfig.deferredInChunks && event.getWorld() instanceof ServerWorld && chunk.getStatus().getType() == ChunkStatus.Type.PROTOCHUNK) {
+        final DeferredGenerationStorage.Deferred global = DeferredGenerationStorage.get((ServerWorld)event.getWorld()).take(chunk.getPos());
+
+        if(global != null) {
+          deferred = deferred == null ? global : deferred.with(global);
+          CHUNKS.put(chunk, deferred);
+        }
+      }
+    }
+
+    if(deferred != null) {
+      event.getData().put(TAG, DeferredGenerationStorage.writeChunk(deferred, new CompoundNBT()));
+    }
+  }
+
+  /**
+   * Moves the entries kept with a chunk into the world's store, so {@link DeferredGenerator} finds them.  Called before
+   * Terra decorates the chunk, whether or not it generates anything.
+   */
+  static void adopt(final ServerWorld world, final IChunk chunk) {
+    final DeferredGenerationStorage.Deferred deferred;
+
+    synchronized(CHUNKS) {
+      deferred = TerraConfig.deferredInChunks ? CHUNKS.put(chunk, DECORATING) : CHUNKS.remove(chunk);
+    }
+
+    if(deferred != null && deferred != DECORATING) {
+      DeferredGenerationStorage.get(world).merge(chunk.getPos(), deferred);
+    }
+  }
+}
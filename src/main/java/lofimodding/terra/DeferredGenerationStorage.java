@@ -11,149 +11,266 @@ import net.minecraft.world.server.ServerWorld;
 import net.minecraft.world.storage.WorldSavedData;
 import net.minecraftforge.common.util.Constants;
 
+import javax.annotation.Nullable;
+import java.io.File;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+/**
+ * Blocks veins deferred to chunks that weren't writable yet.  World-gen threads add and take entries concurrently, so
+ * every access is synchronized.
+ *
+ * Saves are copy-on-write: {@link #save} only copies the map of chunks and hands serialization and compression to
+ * {@link SavedDataIO}'s I/O pool.  The per-chunk entries stay shared with the snapshot until a chunk is next changed,
+ * at which point that chunk's entry is copied first.
+ */
 public class DeferredGenerationStorage extends WorldSavedData {
-  private static final String DATA_NAME = TerraMod.MOD_ID + "_deferred_ore";
+  static final String DATA_NAME = TerraMod.MOD_ID + "_deferred_ore";
 
   public static DeferredGenerationStorage get(final ServerWorld world) {
-    final DeferredGenerationStorage storage = world.getSavedData().get(DeferredGenerationStorage::new, DATA_NAME);
-
-    if(storage == null) {
-      final DeferredGenerationStorage newStorage = new DeferredGenerationStorage();
-      world.getSavedData().set(newStorage);
-      return newStorage;
-    }
-
-    return storage;
+    return SavedDataIO.get(world, DeferredGenerationStorage::new, DATA_NAME);
   }
 
   private final Map<ChunkPos, Deferred> deferred = new HashMap<>();
+  /** Bumped by every snapshot; entries from an earlier generation may be shared with a snapshot */
+  private int generation;
 
   public DeferredGenerationStorage() {
     super(DATA_NAME);
   }
 
-  public boolean has(final ChunkPos pos) {
+  public synchronized boolean has(final ChunkPos pos) {
     return this.deferred.containsKey(pos);
   }
 
-  public Map<BlockPos, List<TerraOreVeinConfig.Replacer>> getOres(final ChunkPos pos) {
-    if(!this.deferred.containsKey(pos)) {
-      final Deferred deferred = new Deferred();
+  /**
+   * @return the chunk's entry, copied first if a snapshot may still be reading it
+   */
+  private Deferred forWrite(final ChunkPos pos) {
+    Deferred deferred = this.deferred.get(pos);
+
+    if(deferred == null) {
+      deferred = new Deferred(this.generation);
+      this.deferred.put(pos, deferred);
+    } else if(deferred.generation != this.generation) {
+      deferred = deferred.copy(this.generation);
       this.deferred.put(pos, deferred);
-      return deferred.ores;
     }
 
-    return this.deferred.get(pos).ores;
+    return deferred;
   }
 
-  public Map<BlockPos, BlockState> getPebbles(final ChunkPos pos) {
-    if(!this.deferred.containsKey(pos)) {
-      final Deferred deferred = new Deferred();
-      this.deferred.put(pos, deferred);
-      return deferred.pebbles;
+  public synchronized void addOre(final ChunkPos chunkPos, final BlockPos pos, final List<TerraOreVeinConfig.Replacer> replacers) {
+    this.forWrite(chunkPos).ores.put(pos, replacers);
+    this.markDirty();
+  }
+
+  public synchronized void addPebble(final ChunkPos chunkPos, final BlockPos pos, final BlockState pebble) {
+    this.forWrite(chunkPos).pebbles.put(pos, pebble);
+    this.markDirty();
+  }
+
+  /**
+   * Removes and returns the blocks deferred to a chunk.  The returned entry is no longer part of the storage, so it
+   * can be read without holding any lock.
+   */
+  @Nullable
+  public synchronized Deferred take(final ChunkPos pos) {
+    final Deferred deferred = this.deferred.remove(pos);
+
+    if(deferred != null) {
+      this.markDirty();
     }
 
-    return this.deferred.get(pos).pebbles;
+    return deferred;
+  }
+
+  /**
+   * Gives direct access to a chunk's ores for single-threaded users such as the offline tools; the map must not be
+   * changed while a save may be running
+   */
+  public synchronized Map<BlockPos, List<TerraOreVeinConfig.Replacer>> getOres(final ChunkPos pos) {
+    return this.forWrite(pos).ores;
+  }
+
+  /**
+   * @see #getOres
+   */
+  public synchronized Map<BlockPos, BlockState> getPebbles(final ChunkPos pos) {
+    return this.forWrite(pos).pebbles;
   }
 
-  public void remove(final ChunkPos pos) {
+  public synchronized void remove(final ChunkPos pos) {
     this.deferred.remove(pos);
   }
 
   @Override
-  public void read(final CompoundNBT nbt) {
+  public void save(final File file) {
+    final Map<ChunkPos, Deferred> snapshot;
+
+    synchronized(this) {
+      if(!this.isDirty()) {
+        return;
+      }
+
+      snapshot = new HashMap<>(this.deferred);
+      this.generation++;
+      this.setDirty(false);
+    }
+
+    SavedDataIO.saveAsync(file, () -> write(snapshot, new CompoundNBT()));
+  }
+
+  /**
+   * Adds blocks deferred to a chunk that were kept elsewhere, such as in the chunk's own data
+   */
+  public synchronized void merge(final ChunkPos chunkPos, final Deferred other) {
+    final Deferred deferred = this.forWrite(chunkPos);
+    deferred.ores.putAll(other.ores);
+    deferred.pebbles.putAll(other.pebbles);
+    this.markDirty();
+  }
+
+  @Override
+  public synchronized void read(final CompoundNBT nbt) {
     this.deferred.clear();
 
     final ListNBT chunkList = nbt.getList("chunks", Constants.NBT.TAG_COMPOUND);
 
     for(final INBT chunkBase : chunkList) {
       final CompoundNBT chunkNbt = (CompoundNBT)chunkBase;
-
       final ChunkPos chunkPos = new ChunkPos(chunkNbt.getInt("x"), chunkNbt.getInt("z"));
+      this.deferred.put(chunkPos, readChunk(chunkNbt, this.generation));
+    }
+  }
 
-      final Map<BlockPos, List<TerraOreVeinConfig.Replacer>> ores = this.getOres(chunkPos);
-      final ListNBT oreList = chunkNbt.getList("ores", Constants.NBT.TAG_COMPOUND);
+  /**
+   * Reads one chunk's ores and pebbles, as written by {@link #writeChunk}
+   */
+  static Deferred readChunk(final CompoundNBT chunkNbt) {
+    return readChunk(chunkNbt, 0);
+  }
 
-      for(final INBT oreBase : oreList) {
-        final CompoundNBT oreNbt = (CompoundNBT)oreBase;
+  private static Deferred readChunk(final CompoundNBT chunkNbt, final int generation) {
+    final Deferred deferred = new Deferred(generation);
+    final ListNBT oreList = chunkNbt.getList("ores", Constants.NBT.TAG_COMPOUND);
 
-        final BlockPos blockPos = NBTUtil.readBlockPos(oreNbt.getCompound("pos"));
+    for(final INBT oreBase : oreList) {
+      final CompoundNBT oreNbt = (CompoundNBT)oreBase;
 
-        final ListNBT replacerListNbt = oreNbt.getList("replacers", Constants.NBT.TAG_COMPOUND);
-        final List<TerraOreVeinConfig.Replacer> replacers = new ArrayList<>();
-        for(int i = 0; i < replacerListNbt.size(); i++) {
-          final CompoundNBT replacerNbt = replacerListNbt.getCompound(i);
-          replacers.add(TerraOreVeinConfig.Replacer.read(replacerNbt));
-        }
+      final BlockPos blockPos = NBTUtil.readBlockPos(oreNbt.getCompound("pos"));
 
-        ores.put(blockPos, replacers);
+      final ListNBT replacerListNbt = oreNbt.getList("replacers", Constants.NBT.TAG_COMPOUND);
+      final List<TerraOreVeinConfig.Replacer> replacers = new ArrayList<>();
+      for(int i = 0; i < replacerListNbt.size(); i++) {
+        final CompoundNBT replacerNbt = replacerListNbt.getCompound(i);
+        replacers.add(TerraOreVeinConfig.Replacer.read(replacerNbt));
       }
 
-      final Map<BlockPos, BlockState> pebbles = this.getPebbles(chunkPos);
-      final ListNBT pebbleList = chunkNbt.getList("pebbles", Constants.NBT.TAG_COMPOUND);
+      deferred.ores.put(blockPos, replacers);
+    }
+
+    final ListNBT pebbleList = chunkNbt.getList("pebbles", Constants.NBT.TAG_COMPOUND);
 
-      for(final INBT pebbleBase : pebbleList) {
-        final CompoundNBT pebbleNbt = (CompoundNBT)pebbleBase;
+    for(final INBT pebbleBase : pebbleList) {
+      final CompoundNBT pebbleNbt = (CompoundNBT)pebbleBase;
 
-        final BlockPos blockPos = NBTUtil.readBlockPos(pebbleNbt.getCompound("pos"));
-        final BlockState pebble = NBTUtil.readBlockState(pebbleNbt.getCompound("pebble"));
+      final BlockPos blockPos = NBTUtil.readBlockPos(pebbleNbt.getCompound("pos"));
+      final BlockState pebble = NBTUtil.readBlockState(pebbleNbt.getCompound("pebble"));
 
-        pebbles.put(blockPos, pebble);
-      }
+      deferred.pebbles.put(blockPos, pebble);
     }
+
+    return deferred;
   }
 
   @Override
-  public CompoundNBT write(final CompoundNBT compound) {
+  public synchronized CompoundNBT write(final CompoundNBT compound) {
+    return write(this.deferred, compound);
+  }
+
+  private static CompoundNBT write(final Map<ChunkPos, Deferred> chunks, final CompoundNBT compound) {
     final ListNBT chunkList = new ListNBT();
     compound.put("chunks", chunkList);
 
-    this.deferred.forEach((chunkPos, deferred) -> {
-      final CompoundNBT chunkNbt = new CompoundNBT();
-      chunkList.add(chunkNbt);
-
+    chunks.forEach((chunkPos, deferred) -> {
+      final CompoundNBT chunkNbt = writeChunk(deferred, new CompoundNBT());
       chunkNbt.putInt("x", chunkPos.x);
       chunkNbt.putInt("z", chunkPos.z);
+      chunkList.add(chunkNbt);
+    });
 
-      final ListNBT oreList = new ListNBT();
-      chunkNbt.put("ores", oreList);
+    return compound;
+  }
 
-      deferred.ores.forEach((blockPos, replacers) -> {
-        final CompoundNBT oreNbt = new CompoundNBT();
-        oreList.add(oreNbt);
+  /**
+   * Writes one chunk's ores and pebbles
+   */
+  static CompoundNBT writeChunk(final Deferred deferred, final CompoundNBT chunkNbt) {
+    final ListNBT oreList = new ListNBT();
+    chunkNbt.put("ores", oreList);
 
-        oreNbt.put("pos", NBTUtil.writeBlockPos(blockPos));
+    deferred.ores.forEach((blockPos, replacers) -> {
+      final CompoundNBT oreNbt = new CompoundNBT();
+      oreList.add(oreNbt);
 
-        final ListNBT replacerList = new ListNBT();
-        for(final TerraOreVeinConfig.Replacer replacer : replacers) {
-          replacerList.add(replacer.write(new CompoundNBT()));
-        }
+      oreNbt.put("pos", NBTUtil.writeBlockPos(blockPos));
 
-        oreNbt.put("replacers", replacerList);
-      });
+      final ListNBT replacerList = new ListNBT();
+      for(final TerraOreVeinConfig.Replacer replacer : replacers) {
+        replacerList.add(replacer.write(new CompoundNBT()));
+      }
 
-      final ListNBT pebbleList = new ListNBT();
-      chunkNbt.put("pebbles", pebbleList);
+      oreNbt.put("replacers", replacerList);
+    });
+
+    final ListNBT pebbleList = new ListNBT();
+    chunkNbt.put("pebbles", pebbleList);
 
-      deferred.pebbles.forEach((blockPos, pebble) -> {
-        final CompoundNBT pebbleNbt = new CompoundNBT();
-        pebbleList.add(pebbleNbt);
+    deferred.pebbles.forEach((blockPos, pebble) -> {
+      final CompoundNBT pebbleNbt = new CompoundNBT();
+      pebbleList.add(pebbleNbt);
 
-        pebbleNbt.put("pos", NBTUtil.writeBlockPos(blockPos));
-        pebbleNbt.put("pebble", NBTUtil.writeBlockState(pebble));
-      });
+      pebbleNbt.put("pos", NBTUtil.writeBlockPos(blockPos));
+      pebbleNbt.put("pebble", NBTUtil.writeBlockState(pebble));
     });
 
-    return compound;
+    return chunkNbt;
   }
 
-  private static class Deferred {
-    private final Map<BlockPos, List<TerraOreVeinConfig.Replacer>> ores = new HashMap<>();
-    private final Map<BlockPos, BlockState> pebbles = new HashMap<>();
+  public static final class Deferred {
+    public final Map<BlockPos, List<TerraOreVeinConfig.Replacer>> ores;
+    public final Map<BlockPos, BlockState> pebbles;
+    private final int generation;
+
+    Deferred() {
+      this(0);
+    }
+
+    private Deferred(final int generation) {
+      this(new HashMap<>(), new HashMap<>(), generation);
+    }
+
+    private Deferred(final Map<BlockPos, List<TerraOreVeinConfig.Replacer>> ores, final Map<BlockPos, BlockState> pebbles, final int generation) {
+      this.ores = ores;
+      this.pebbles = pebbles;
+      this.generation = generation;
+    }
+
+    private Deferred copy(final int generation) {
+      return new Deferred(new HashMap<>(this.ores), new HashMap<>(this.pebbles), generation);
+    }
+
+    /**
+     * @return a new entry holding both entries' blocks, <code>other</code>'s winning where both have one
+     */
+    Deferred with(final Deferred other) {
+      final Deferred merged = this.copy(this.generation);
+      merged.ores.putAll(other.ores);
+      merged.pebbles.putAll(other.pebbles);
+      return merged;
+    }
   }
 }
@@ -1,64 +1,81 @@
 package lofimodding.terra;
 
-import com.mojang.datafixers.Dynamic;
+import net.minecraft.block.Block;
 import net.minecraft.block.BlockState;
-import net.minecraft.tags.BlockTags;
-import net.minecraft.util.Direction;
 import net.minecraft.util.math.BlockPos;
 import net.minecraft.util.math.ChunkPos;
 import net.minecraft.world.IWorld;
-import net.minecraft.world.gen.ChunkGenerator;
-import net.minecraft.world.gen.GenerationSettings;
-import net.minecraft.world.gen.feature.Feature;
-import net.minecraft.world.gen.feature.NoFeatureConfig;
-import net.minecraft.world.server.ServerWorld;
 
-import java.util.Random;
-import java.util.function.Function;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
-public class DeferredGenerator extends Feature<NoFeatureConfig> {
-  public static final DeferredGenerator INSTANCE = new DeferredGenerator(NoFeatureConfig::deserialize);
+/**
+ * Places the blocks other chunks' veins deferred to a chunk.  Runs as the last step of {@link TerraVeinBatch} for every
+ * chunk decorated in a dimension Terra is enabled in.
+ */
+public final class DeferredGenerator {
+  private DeferredGenerator() { }
 
-  public DeferredGenerator(final Function<Dynamic<?>, ? extends NoFeatureConfig> configFactory) {
-    super(configFactory);
-  }
+  /**
+   * Applies and forgets the chunk's deferred blocks, marks it done for retrogen and releases its {@link ChunkContext}
+   *
+   * @return true if there were deferred blocks to apply
+   */
+  public static boolean place(final IWorld world, final ChunkPos chunkPos) {
+    final ChunkContext context = ChunkContext.get(world, chunkPos);
+    context.getRetrogen().markDone(chunkPos);
 
-  @Override
-  public boolean place(final IWorld world, final ChunkGenerator<? extends GenerationSettings> generator, final Random rand, final BlockPos start, final NoFeatureConfig config) {
-    final DeferredGenerationStorage deferred = DeferredGenerationStorage.get((ServerWorld)world.getWorld());
+    final DeferredGenerationStorage.Deferred taken = context.getDeferred().take(chunkPos);
 
-    final ChunkPos chunkPos = new ChunkPos(start);
+    if(taken != null) {
+      final long startTime = WorkloadRecorder.isRecording() ? System.nanoTime() : 0L;
+      apply(new LiveVeinWorld(world, context), taken.ores, taken.pebbles);
+      WorkloadRecorder.recordDeferred(chunkPos, taken.ores, taken.pebbles, startTime);
+    }
 
-    if(deferred.has(chunkPos)) {
-      deferred.getOres(chunkPos).forEach((pos, replacers) -> {
-        final BlockState oldState = world.getBlockState(pos);
+    // Always the last Terra work for a chunk
+    ChunkContext.release();
+    return taken != null;
+  }
 
-        for(final TerraOreVeinConfig.Replacer replacer : replacers) {
-          if(oldState.getBlock().isReplaceableOreGen(oldState, world.getWorld(), pos, replacer)) {
-            this.setBlockState(world, pos, replacer.blockToPlace);
-            break;
-          }
-        }
-      });
+  /**
+   * Places deferred blocks, adding the ores placed to the world's {@link VeinIndex} with one entry per ore
+   */
+  public static void apply(final VeinWorld world, final Map<BlockPos, List<TerraOreVeinConfig.Replacer>> ores, final Map<BlockPos, BlockState> pebbles) {
+    final VeinIndex index = world.getVeinIndex();
+    final Map<Block, VeinIndex.Tracker> trackers = index == null ? null : new HashMap<>();
 
-      deferred.getPebbles(chunkPos).forEach((pos, pebble) -> {
-        final BlockPos.Mutable pebblePos = new BlockPos.Mutable(pos.getX(), 128, pos.getZ());
+    ores.forEach((pos, replacers) -> {
+      if(!world.mayHost(pos, replacers)) {
+        return;
+      }
 
-        for(BlockState iblockstate = world.getBlockState(pebblePos); pebblePos.getY() > 0 && (iblockstate.getMaterial().isReplaceable() || iblockstate.isIn(BlockTags.LOGS)); iblockstate = world.getBlockState(pebblePos)) {
-          pebblePos.move(Direction.DOWN);
-        }
+      final BlockState oldState = world.getBlockState(pos);
+
+      for(final TerraOreVeinConfig.Replacer replacer : replacers) {
+        if(world.isReplaceable(oldState, pos, replacer)) {
+          world.setBlockState(pos, replacer.blockToPlace);
 
-        pebblePos.move(Direction.UP);
+          if(trackers != null) {
+            trackers.computeIfAbsent(replacer.blockToPlace.getBlock(), block -> new VeinIndex.Tracker()).add(pos, replacer.blockToPlace.getBlock());
+          }
 
-        if(pebble.isValidPosition(world, pebblePos)) {
-          this.setBlockState(world, pebblePos, pebble);
+          break;
         }
-      });
+      }
+    });
 
-      deferred.remove(chunkPos);
-      deferred.markDirty();
+    if(trackers != null) {
+      trackers.values().forEach(tracker -> index.add(VeinIndex.DEFERRED, tracker));
     }
 
-    return true;
+    pebbles.forEach((pos, pebble) -> {
+      final BlockPos pebblePos = world.findSurface(pos.getX(), pos.getZ());
+
+      if(world.canPlacePebble(pebble, pebblePos)) {
+        world.setBlockState(pebblePos, pebble);
+      }
+    });
   }
 }
@@ -0,0 +1,313 @@
+package lofimodding.terra;
+
+import com.mojang.datafixers.Dynamic;
+import com.mojang.datafixers.types.DynamicOps;
+import com.mojang.datafixers.util.Pair;
+import net.minecraft.nbt.CompoundNBT;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+/**
+ * Depth-indexed lookup tables backing data-driven {@link TerraOreVeinConfig.StateFunction}s.
+ *
+ * In data form a function is either a constant, a list of <code>[depth, value]</code> points that are linearly
+ * interpolated and clamped at both ends, or an {@link Expression} string.  Java functions are serialized by sampling
+ * them at every depth and emitting the fewest points that reproduce the samples.
+ */
+public final class DepthTable {
+  public static final int SIZE = 256;
+
+  private DepthTable() { }
+
+  private static int index(final int depth) {
+    return depth < 0 ? 0 : depth >= SIZE ? SIZE - 1 : depth;
+  }
+
+  public static Ints ofInts(final int[] values) {
+    if(values.length != SIZE) {
+      throw new IllegalArgumentException("Depth tables need " + SIZE + " values");
+    }
+
+    return new Ints(values);
+  }
+
+  public static Floats ofFloats(final float[] values) {
+    if(values.length != SIZE) {
+      throw new IllegalArgumentException("Depth tables need " + SIZE + " values");
+    }
+
+    return new Floats(values);
+  }
+
+  public static Ints bakeInt(final TerraOreVeinConfig.StateFunction<Integer> function) {
+    if(function instanceof Ints) {
+      return (Ints)function;
+    }
+
+    final OreGenState state = new OreGenState();
+    final int[] values = new int[SIZE];
+
+    for(int depth = 0; depth < SIZE; depth++) {
+      state.setDepth(depth);
+      values[depth] = function.apply(state);
+    }
+
+    return new Ints(values);
+  }
+
+  public static Floats bakeFloat(final TerraOreVeinConfig.StateFunction<Float> function) {
+    if(function instanceof Floats) {
+      return (Floats)function;
+    }
+
+    final OreGenState state = new OreGenState();
+    final float[] values = new float[SIZE];
+
+    for(int depth = 0; depth < SIZE; depth++) {
+      state.setDepth(depth);
+      values[depth] = function.apply(state);
+    }
+
+    return new Floats(values);
+  }
+
+  public static <T> T serializeInt(final DynamicOps<T> ops, final TerraOreVeinConfig.StateFunction<Integer> function) {
+    final Ints table = bakeInt(function);
+    final float[] values = new float[SIZE];
+
+    for(int depth = 0; depth < SIZE; depth++) {
+      values[depth] = table.values[depth];
+    }
+
+    return serialize(ops, values, true);
+  }
+
+  public static <T> T serializeFloat(final DynamicOps<T> ops, final TerraOreVeinConfig.StateFunction<Float> function) {
+    return serialize(ops, bakeFloat(function).values, false);
+  }
+
+  private static <T> T serialize(final DynamicOps<T> ops, final float[] values, final boolean integral) {
+    final List<Pair<Integer, Float>> points = simplify(values, integral);
+
+    if(points.size() == 1) {
+      return integral ? ops.createInt(Math.round(points.get(0).getSecond())) : ops.createFloat(points.get(0).getSecond());
+    }
+
+    return ops.createList(points.stream().map(point -> ops.createList(Stream.of(
+      ops.createInt(point.getFirst()),
+      integral ? ops.createInt(Math.round(point.getSecond())) : ops.createFloat(point.getSecond())
+    ))));
+  }
+
+  /**
+   * Greedily finds the fewest points whose interpolation reproduces every sample
+   */
+  private static List<Pair<Integer, Float>> simplify(final float[] values, final boolean integral) {
+    final List<Pair<Integer, Float>> points = new ArrayList<>();
+
+    int start = 0;
+    points.add(Pair.of(0, values[0]));
+
+    while(start < SIZE - 1) {
+      int end = start + 1;
+
+      while(end + 1 < SIZE && reproduces(values, start, end + 1, integral)) {
+        end++;
+      }
+
+      points.add(Pair.of(end, values[end]));
+      start = end;
+    }
+
+    // A flat tail collapses onto the previous point since values are clamped past the last point
+    while(points.size() > 1 && points.get(points.size() - 1).getSecond().equals(points.get(points.size() - 2).getSecond()) && reproducesTail(values, points.get(points.size() - 2).getFirst())) {
+      points.remove(points.size() - 1);
+    }
+
+    return points;
+  }
+
+  private static boolean reproduces(final float[] values, final int start, final int end, final boolean integral) {
+    for(int depth = start + 1; depth < end; depth++) {
+      final float value = lerp(start, values[start], end, values[end], depth);
+
+      if(integral ? Math.round(value) != (int)values[depth] : Math.abs(value - values[depth]) > 1.0e-6f * Math.max(1.0f, Math.abs(values[depth]))) {
+        return false;
+      }
+    }
+
+    return true;
+  }
+
+  private static boolean reproducesTail(final float[] values, final int from) {
+    for(int depth = from + 1; depth < SIZE; depth++) {
+      if(values[depth] != values[from]) {
+        return false;
+      }
+    }
+
+    return true;
+  }
+
+  private static float lerp(final int startDepth, final float startValue, final int endDepth, final float endValue, final int depth) {
+    return startValue + (endValue - startValue) * (depth - startDepth) / (float)(endDepth - startDepth);
+  }
+
+  public static <T> Ints deserializeInt(final Dynamic<T> function, final int fallback) {
+    final Optional<String> expression = asExpression(function);
+    if(expression.isPresent()) {
+      return Expression.compileInt(expression.get());
+    }
+
+    final float[] values = deserialize(function, fallback);
+    final int[] ints = new int[SIZE];
+
+    for(int depth = 0; depth < SIZE; depth++) {
+      ints[depth] = Math.round(values[depth]);
+    }
+
+    return new Ints(ints);
+  }
+
+  public static <T> Floats deserializeFloat(final Dynamic<T> function, final float fallback) {
+    final Optional<String> expression = asExpression(function);
+    if(expression.isPresent()) {
+      return Expression.compileFloat(expression.get());
+    }
+
+    return new Floats(deserialize(function, fallback));
+  }
+
+  private static <T> Optional<String> asExpression(final Dynamic<T> function) {
+    if(function.asNumber().isPresent()) {
+      return Optional.empty();
+    }
+
+    return function.getOps().getStringValue(function.getValue());
+  }
+
+  private static <T> float[] deserialize(final Dynamic<T> function, final float fallback) {
+    final float[] values = new float[SIZE];
+
+    final Optional<Number> constant = function.asNumber();
+    if(constant.isPresent()) {
+      Arrays.fill(values, constant.get().floatValue());
+      return values;
+    }
+
+    final List<Pair<Integer, Float>> points = new ArrayList<>();
+    for(final Dynamic<T> point : function.asList(Function.identity())) {
+      final List<Dynamic<T>> pair = point.asList(Function.identity());
+
+      if(pair.size() != 2) {
+        throw new IllegalArgumentException("Curve points must be [depth, value] pairs: " + point.getValue());
+      }
+
+      points.add(Pair.of(pair.get(0).asInt(0), pair.get(1).asFloat(0.0f)));
+    }
+
+    if(points.isEmpty()) {
+      Arrays.fill(values, fallback);
+      return values;
+    }
+
+    points.sort((a, b) -> Integer.compare(a.getFirst(), b.getFirst()));
+
+    int point = 0;
+    for(int depth = 0; depth < SIZE; depth++) {
+      while(point < points.size() - 1 && points.get(point + 1).getFirst() <= depth) {
+        point++;
+      }
+
+      final Pair<Integer, Float> from = points.get(point);
+
+      if(depth <= from.getFirst() || point == points.size() - 1) {
+        values[depth] = from.getSecond();
+      } else {
+        final Pair<Integer, Float> to = points.get(point + 1);
+        values[depth] = lerp(from.getFirst(), from.getSecond(), to.getFirst(), to.getSecond(), depth);
+      }
+    }
+
+    return values;
+  }
+
+  public static void writeInt(final CompoundNBT nbt, final String key, final TerraOreVeinConfig.StateFunction<Integer> function) {
+    nbt.putIntArray(key, bakeInt(function).values.clone());
+  }
+
+  public static void writeFloat(final CompoundNBT nbt, final String key, final TerraOreVeinConfig.StateFunction<Float> function) {
+    final float[] values = bakeFloat(function).values;
+    final int[] bits = new int[SIZE];
+
+    for(int depth = 0; depth < SIZE; depth++) {
+      bits[depth] = Float.floatToRawIntBits(values[depth]);
+    }
+
+    nbt.putIntArray(key, bits);
+  }
+
+  public static Ints readInt(final CompoundNBT nbt, final String key) {
+    final int[] values = nbt.getIntArray(key);
+
+    if(values.length != SIZE) {
+      throw new IllegalArgumentException("Corrupt depth table " + key);
+    }
+
+    return new Ints(values);
+  }
+
+  public static Floats readFloat(final CompoundNBT nbt, final String key) {
+    final int[] bits = nbt.getIntArray(key);
+
+    if(bits.length != SIZE) {
+      throw new IllegalArgumentException("Corrupt depth table " + key);
+    }
+
+    final float[] values = new float[SIZE];
+    for(int depth = 0; depth < SIZE; depth++) {
+      values[depth] = Float.intBitsToFloat(bits[depth]);
+    }
+
+    return new Floats(values);
+  }
+
+  public static final class Ints implements TerraOreVeinConfig.IntStateFunction {
+    private final int[] values;
+
+    private Ints(final int[] values) {
+      this.values = values;
+    }
+
+    public int get(final int depth) {
+      return this.values[index(depth)];
+    }
+
+    @Override
+    public int applyInt(final OreGenState state) {
+      return this.values[index(state.getDepth())];
+    }
+  }
+
+  public static final class Floats implements TerraOreVeinConfig.FloatStateFunction {
+    private final float[] values;
+
+    private Floats(final float[] values) {
+      this.values = values;
+    }
+
+    public float get(final int depth) {
+      return this.values[index(depth)];
+    }
+
+    @Override
+    public float applyFloat(final OreGenState state) {
+      return this.values[index(state.getDepth())];
+    }
+  }
+}
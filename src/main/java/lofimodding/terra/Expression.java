@@ -0,0 +1,434 @@
+package lofimodding.terra;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * A small expression language for data-driven {@link TerraOreVeinConfig.StateFunction}s, for example
+ * <code>"clamp(lerp(2, 8, depth / 64), 2, 6)"</code>.
+ *
+ * Expressions support numbers, <code>depth</code>, <code>+ - * / % ^</code>, parentheses and the functions
+ * <code>min</code>, <code>max</code>, <code>clamp(x, low, high)</code>, <code>lerp(a, b, t)</code>,
+ * <code>smoothstep(edge0, edge1, x)</code>, <code>curve(x, x0, y0, x1, y1, ...)</code> (piecewise linear, clamped at
+ * both ends), <code>abs</code>, <code>floor</code>, <code>ceil</code>, <code>round</code> and <code>sqrt</code>.
+ *
+ * Constant subexpressions are folded while parsing.  Expressions can only read the depth, so every expression compiles
+ * to a {@link DepthTable} and is evaluated without boxing.  {@link OreGenState} also carries the chunk's
+ * {@link ChunkContext}, but values that depend on it could not be baked, so they are left to Java functions.
+ */
+public final class Expression {
+  private final String source;
+  private int pos;
+
+  private Expression(final String source) {
+    this.source = source;
+  }
+
+  /**
+   * Values are rounded and clamped to the int range
+   *
+   * @throws IllegalArgumentException if the expression is malformed or isn't finite at some depth
+   */
+  public static DepthTable.Ints compileInt(final String source) {
+    final Node node = parse(source);
+    final int[] values = new int[DepthTable.SIZE];
+
+    for(int depth = 0; depth < DepthTable.SIZE; depth++) {
+      values[depth] = (int)Math.max(Integer.MIN_VALUE, Math.min(Integer.MAX_VALUE, Math.round(evalFinite(node, source, depth))));
+    }
+
+    return DepthTable.ofInts(values);
+  }
+
+  /**
+   * Values are clamped to the float range
+   *
+   * @throws IllegalArgumentException if the expression is malformed or isn't finite at some depth
+   */
+  public static DepthTable.Floats compileFloat(final String source) {
+    final Node node = parse(source);
+    final float[] values = new float[DepthTable.SIZE];
+
+    for(int depth = 0; depth < DepthTable.SIZE; depth++) {
+      values[depth] = (float)Math.max(-Float.MAX_VALUE, Math.min(Float.MAX_VALUE, evalFinite(node, source, depth)));
+    }
+
+    return DepthTable.ofFloats(values);
+  }
+
+  /**
+   * Division by zero, <code>sqrt</code> of a negative number and overflowing powers all end up here rather than as
+   * silently wrapped values
+   */
+  private static double evalFinite(final Node node, final String source, final int depth) {
+    final double value = node.eval(depth);
+
+    if(Double.isNaN(value) || Double.isInfinite(value)) {
+      throw new IllegalArgumentException("Expression \"" + source + "\" evaluates to " + value + " at depth " + depth);
+    }
+
+    return value;
+  }
+
+  private static Node parse(final String source) {
+    final Expression parser = new Expression(source);
+    final Node node = parser.parseSum();
+    parser.skipSpace();
+
+    if(parser.pos != source.length()) {
+      throw parser.error("Unexpected '" + source.charAt(parser.pos) + "'");
+    }
+
+    return node;
+  }
+
+  private IllegalArgumentException error(final String message) {
+    return new IllegalArgumentException(message + " at position " + this.pos + " in expression \"" + this.source + '"');
+  }
+
+  private void skipSpace() {
+    while(this.pos < this.source.length() && Character.isWhitespace(this.source.charAt(this.pos))) {
+      this.pos++;
+    }
+  }
+
+  private boolean accept(final char c) {
+    this.skipSpace();
+
+    if(this.pos < this.source.length() && this.source.charAt(this.pos) == c) {
+      this.pos++;
+      return true;
+    }
+
+    return false;
+  }
+
+  private void expect(final char c) {
+    if(!this.accept(c)) {
+      throw this.error("Expected '" + c + '\'');
+    }
+  }
+
+  private Node parseSum() {
+    Node node = this.parseProduct();
+
+    while(true) {
+      if(this.accept('+')) {
+        node = fold(node, this.parseProduct(), Op.ADD);
+      } else if(this.accept('-')) {
+        node = fold(node, this.parseProduct(), Op.SUBTRACT);
+      } else {
+        return node;
+      }
+    }
+  }
+
+  private Node parseProduct() {
+    Node node = this.parseUnary();
+
+    while(true) {
+      if(this.accept('*')) {
+        node = fold(node, this.parseUnary(), Op.MULTIPLY);
+      } else if(this.accept('/')) {
+        node = fold(node, this.parseUnary(), Op.DIVIDE);
+      } else if(this.accept('%')) {
+        node = fold(node, this.parseUnary(), Op.MODULO);
+      } else {
+        return node;
+      }
+    }
+  }
+
+  private Node parseUnary() {
+    if(this.accept('-')) {
+      return fold(new Constant(0.0), this.parseUnary(), Op.SUBTRACT);
+    }
+
+    if(this.accept('+')) {
+      return this.parseUnary();
+    }
+
+    final Node base = this.parsePrimary();
+
+    // Right associative, and binds tighter than a leading minus on its exponent
+    if(this.accept('^')) {
+      return fold(base, this.parseUnary(), Op.POWER);
+    }
+
+    return base;
+  }
+
+  private Node parsePrimary() {
+    this.skipSpace();
+
+    if(this.accept('(')) {
+      final Node node = this.parseSum();
+      this.expect(')');
+      return node;
+    }
+
+    final int start = this.pos;
+
+    if(this.pos < this.source.length() && (Character.isDigit(this.source.charAt(this.pos)) || this.source.charAt(this.pos) == '.')) {
+      while(this.pos < this.source.length() && (Character.isDigit(this.source.charAt(this.pos)) || this.source.charAt(this.pos) == '.')) {
+        this.pos++;
+      }
+
+      try {
+        return new Constant(Double.parseDouble(this.source.substring(start, this.pos)));
+      } catch(final NumberFormatException e) {
+        this.pos = start;
+        throw this.error("Malformed number");
+      }
+    }
+
+    while(this.pos < this.source.length() && Character.isLetter(this.source.charAt(this.pos))) {
+      this.pos++;
+    }
+
+    if(start == this.pos) {
+      throw this.error(this.pos < this.source.length() ? "Unexpected '" + this.source.charAt(this.pos) + '\'' : "Unexpected end");
+    }
+
+    final String name = this.source.substring(start, this.pos).toLowerCase(Locale.ROOT);
+
+    if(!this.accept('(')) {
+      if("depth".equals(name)) {
+        return Depth.INSTANCE;
+      }
+
+      this.pos = start;
+      throw this.error("Unknown variable " + name);
+    }
+
+    final List<Node> args = new ArrayList<>();
+
+    if(!this.accept(')')) {
+      do {
+        args.add(this.parseSum());
+      } while(this.accept(','));
+
+      this.expect(')');
+    }
+
+    final Function function = Function.get(name, args.size());
+
+    if(function == null) {
+      this.pos = start;
+      throw this.error("Unknown function " + name + " with " + args.size() + " arguments");
+    }
+
+    final Call call = new Call(function, args.toArray(new Node[0]));
+
+    for(final Node arg : call.args) {
+      if(!(arg instanceof Constant)) {
+        return call;
+      }
+    }
+
+    return new Constant(call.eval(0));
+  }
+
+  private static Node fold(final Node left, final Node right, final Op op) {
+    final Binary binary = new Binary(left, right, op);
+
+    if(left instanceof Constant && right instanceof Constant) {
+      return new Constant(binary.eval(0));
+    }
+
+    return binary;
+  }
+
+  private interface Node {
+    double eval(double depth);
+  }
+
+  private static final class Constant implements Node {
+    private final double value;
+
+    private Constant(final double value) {
+      this.value = value;
+    }
+
+    @Override
+    public double eval(final double depth) {
+      return this.value;
+    }
+  }
+
+  private enum Depth implements Node {
+    INSTANCE;
+
+    @Override
+    public double eval(final double depth) {
+      return depth;
+    }
+  }
+
+  private enum Op {
+    ADD, SUBTRACT, MULTIPLY, DIVIDE, MODULO, POWER
+  }
+
+  private static final class Binary implements Node {
+    private final Node left;
+    private final Node right;
+    private final Op op;
+
+    private Binary(final Node left, final Node right, final Op op) {
+      this.left = left;
+      this.right = right;
+      this.op = op;
+    }
+
+    @Override
+    public double eval(final double depth) {
+      final double a = this.left.eval(depth);
+      final double b = this.right.eval(depth);
+
+      switch(this.op) {
+        case ADD:
+          return a + b;
+
+        case SUBTRACT:
+          return a - b;
+
+        case MULTIPLY:
+          return a * b;
+
+        case DIVIDE:
+          return a / b;
+
+        case MODULO:
+          return a % b;
+
+        default:
+          return Math.pow(a, b);
+      }
+    }
+  }
+
+  private enum Function {
+    MIN, MAX, CLAMP, LERP, SMOOTHSTEP, CURVE, ABS, FLOOR, CEIL, ROUND, SQRT;
+
+    private static Function get(final String name, final int args) {
+      final Function function;
+
+      try {
+        function = valueOf(name.toUpperCase(Locale.ROOT));
+      } catch(final IllegalArgumentException e) {
+        return null;
+      }
+
+      switch(function) {
+        case MIN:
+        case MAX:
+          return args >= 2 ? function : null;
+
+        case CLAMP:
+        case LERP:
+        case SMOOTHSTEP:
+          return args == 3 ? function : null;
+
+        case CURVE:
+          return args >= 3 && args % 2 == 1 ? function : null;
+
+        default:
+          return args == 1 ? function : null;
+      }
+    }
+  }
+
+  private static final class Call implements Node {
+    private final Function function;
+    private final Node[] args;
+
+    private Call(final Function function, final Node[] args) {
+      this.function = function;
+      this.args = args;
+    }
+
+    @Override
+    public double eval(final double depth) {
+      final Node[] args = this.args;
+
+      switch(this.function) {
+        case MIN: {
+          double value = args[0].eval(depth);
+          for(int i = 1; i < args.length; i++) {
+            value = Math.min(value, args[i].eval(depth));
+          }
+          return value;
+        }
+
+        case MAX: {
+          double value = args[0].eval(depth);
+          for(int i = 1; i < args.length; i++) {
+            value = Math.max(value, args[i].eval(depth));
+          }
+          return value;
+        }
+
+        case CLAMP:
+          return Math.max(args[1].eval(depth), Math.min(args[2].eval(depth), args[0].eval(depth)));
+
+        case LERP: {
+          final double a = args[0].eval(depth);
+          return a + (args[1].eval(depth) - a) * args[2].eval(depth);
+        }
+
+        case SMOOTHSTEP: {
+          final double edge0 = args[0].eval(depth);
+          final double edge1 = args[1].eval(depth);
+          final double t = Math.max(0.0, Math.min(1.0, (args[2].eval(depth) - edge0) / (edge1 - edge0)));
+          return t * t * (3.0 - 2.0 * t);
+        }
+
+        case CURVE:
+          return curve(args, depth);
+
+        case ABS:
+          return Math.abs(args[0].eval(depth));
+
+        case FLOOR:
+          return Math.floor(args[0].eval(depth));
+
+        case CEIL:
+          return Math.ceil(args[0].eval(depth));
+
+        case ROUND:
+          return Math.round(args[0].eval(depth));
+
+        default:
+          return Math.sqrt(args[0].eval(depth));
+      }
+    }
+
+    /**
+     * Points are expected in increasing x, as with depth curves
+     */
+    private static double curve(final Node[] args, final double depth) {
+      final double x = args[0].eval(depth);
+      double previousX = args[1].eval(depth);
+      double previousY = args[2].eval(depth);
+
+      if(x <= previousX) {
+        return previousY;
+      }
+
+      for(int i = 3; i < args.length; i += 2) {
+        final double nextX = args[i].eval(depth);
+        final double nextY = args[i + 1].eval(depth);
+
+        if(x <= nextX) {
+          return previousY + (nextY - previousY) * (x - previousX) / (nextX - previousX);
+        }
+
+        previousX = nextX;
+        previousY = nextY;
+      }
+
+      return previousY;
+    }
+  }
+}
@@ -0,0 +1,189 @@
+package lofimodding.terra;
+
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongRBTreeSet;
+import it.unimi.dsi.fastutil.longs.LongSortedSet;
+import net.minecraft.nbt.CompoundNBT;
+import net.minecraft.nbt.INBT;
+import net.minecraft.nbt.ListNBT;
+import net.minecraft.nbt.NBTUtil;
+import net.minecraft.util.ResourceLocation;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.math.ChunkPos;
+import net.minecraft.world.server.ServerWorld;
+import net.minecraft.world.storage.WorldSavedData;
+import net.minecraftforge.common.util.Constants;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * Veins that were placed but not generated yet, indexed by every chunk they can reach
+ */
+public class LazyVeinStorage extends WorldSavedData {
+  private static final String DATA_NAME = TerraMod.MOD_ID + "_lazy_veins";
+
+  public static LazyVeinStorage get(final ServerWorld world) {
+    return SavedDataIO.get(world, LazyVeinStorage::new, DATA_NAME);
+  }
+
+  private final Long2ObjectMap<Descriptor> veins = new Long2ObjectOpenHashMap<>();
+  /** Chunk to the IDs of the veins that reach it, in the order they were placed */
+  private final Long2ObjectMap<LongSortedSet> byChunk = new Long2ObjectOpenHashMap<>();
+  /** Chunk to the IDs of the veins that start in it, in the order they were placed */
+  private final Long2ObjectMap<LongSortedSet> byOrigin = new Long2ObjectOpenHashMap<>();
+  private long nextId;
+
+  public LazyVeinStorage() {
+    super(DATA_NAME);
+  }
+
+  public synchronized void add(final ResourceLocation vein, final BlockPos origin, final long seed, final int reach) {
+    final Descriptor descriptor = new Descriptor(this.nextId++, vein, origin.toImmutable(), seed, origin.getX() - reach >> 4, origin.getZ() - reach >> 4, origin.getX() + reach >> 4, origin.getZ() + reach >> 4);
+    this.index(descriptor);
+    this.markDirty();
+  }
+
+  private void index(final Descriptor descriptor) {
+    this.veins.put(descriptor.id, descriptor);
+    this.byOrigin.computeIfAbsent(ChunkPos.asLong(descriptor.origin.getX() >> 4, descriptor.origin.getZ() >> 4), key -> new LongRBTreeSet()).add(descriptor.id);
+
+    for(int x = descriptor.minX; x <= descriptor.maxX; x++) {
+      for(int z = descriptor.minZ; z <= descriptor.maxZ; z++) {
+        this.byChunk.computeIfAbsent(ChunkPos.asLong(x, z), key -> new LongRBTreeSet()).add(descriptor.id);
+      }
+    }
+  }
+
+  /**
+   * Removes and returns every vein of each chunk that a vein reaching <code>pos</code> starts in, grouped by that chunk
+   * and in the order they were placed.  A chunk's veins are taken together so they share its budget as they would have
+   * during decoration.
+   *
+   * @param canGenerate whether the veins of a chunk can be generated now; those of chunks it rejects are left for a later
+   *                    call
+   */
+  public synchronized Map<ChunkPos, List<Descriptor>> take(final ChunkPos pos, final Predicate<ChunkPos> canGenerate) {
+    final LongSortedSet ids = this.byChunk.get(pos.asLong());
+    final Map<ChunkPos, List<Descriptor>> taken = new LinkedHashMap<>();
+
+    if(ids == null) {
+      return taken;
+    }
+
+    // Copied, as taking a chunk's veins removes them from the set
+    for(final long id : ids.toLongArray()) {
+      final Descriptor descriptor = this.veins.get(id);
+
+      if(descriptor == null) {
+        continue;
+      }
+
+      final ChunkPos origin = new ChunkPos(descriptor.origin);
+
+      if(!canGenerate.test(origin)) {
+        continue;
+      }
+
+      final List<Descriptor> chunkVeins = new ArrayList<>();
+
+      for(final long originId : this.byOrigin.remove(origin.asLong())) {
+        chunkVeins.add(this.remove(originId));
+      }
+
+      taken.put(origin, chunkVeins);
+    }
+
+    if(!taken.isEmpty()) {
+      this.markDirty();
+    }
+
+    return taken;
+  }
+
+  private Descriptor remove(final long id) {
+    final Descriptor descriptor = this.veins.remove(id);
+
+    for(int x = descriptor.minX; x <= descriptor.maxX; x++) {
+      for(int z = descriptor.minZ; z <= descriptor.maxZ; z++) {
+        final long key = ChunkPos.asLong(x, z);
+        final LongSortedSet others = this.byChunk.get(key);
+
+        if(others != null) {
+          others.remove(id);
+
+          if(others.isEmpty()) {
+            this.byChunk.remove(key);
+          }
+        }
+      }
+    }
+
+    return descriptor;
+  }
+
+  @Override
+  public synchronized void read(final CompoundNBT nbt) {
+    this.veins.clear();
+    this.byChunk.clear();
+    this.byOrigin.clear();
+    this.nextId = 0;
+
+    for(final INBT veinBase : nbt.getList("veins", Constants.NBT.TAG_COMPOUND)) {
+      final CompoundNBT veinNbt = (CompoundNBT)veinBase;
+      final int[] bounds = veinNbt.getIntArray("chunks");
+
+      if(bounds.length != 4) {
+        continue;
+      }
+
+      final Descriptor descriptor = new Descriptor(this.nextId++, new ResourceLocation(veinNbt.getString("vein")), NBTUtil.readBlockPos(veinNbt.getCompound("origin")), veinNbt.getLong("seed"), bounds[0], bounds[1], bounds[2], bounds[3]);
+      this.index(descriptor);
+    }
+  }
+
+  @Override
+  public synchronized CompoundNBT write(final CompoundNBT compound) {
+    final ListNBT veinList = new ListNBT();
+
+    // Written in placement order so IDs keep their order when read back
+    this.veins.values().stream().sorted((a, b) -> Long.compare(a.id, b.id)).forEach(descriptor -> {
+      final CompoundNBT veinNbt = new CompoundNBT();
+      veinNbt.putString("vein", descriptor.vein.toString());
+      veinNbt.put("origin", NBTUtil.writeBlockPos(descriptor.origin));
+      veinNbt.putLong("seed", descriptor.seed);
+      veinNbt.putIntArray("chunks", new int[] {descriptor.minX, descriptor.minZ, descriptor.maxX, descriptor.maxZ});
+      veinList.add(veinNbt);
+    });
+
+    compound.put("veins", veinList);
+    return compound;
+  }
+
+  public static final class Descriptor {
+    private final long id;
+    public final ResourceLocation vein;
+    public final BlockPos origin;
+    /** The vein's {@link VeinRandom} seed */
+    public final long seed;
+    public final int minX;
+    public final int minZ;
+    public final int maxX;
+    public final int maxZ;
+
+    private Descriptor(final long id, final ResourceLocation vein, final BlockPos origin, final long seed, final int minX, final int minZ, final int maxX, final int maxZ) {
+      this.id = id;
+      this.vein = vein;
+      this.origin = origin;
+      this.seed = seed;
+      this.minX = minX;
+      this.minZ = minZ;
+      this.maxX = maxX;
+      this.maxZ = maxZ;
+    }
+  }
+}
@@ -0,0 +1,99 @@
+package lofimodding.terra;
+
+import net.minecraft.util.math.ChunkPos;
+import net.minecraft.world.server.ServerWorld;
+import net.minecraftforge.common.util.Constants;
+import net.minecraftforge.event.world.ChunkWatchEvent;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Generates the veins recorded in {@link LazyVeinStorage} once a player first watches a chunk they reach.  Veins are
+ * generated in the order they were placed, from the same seeds and under the same per-chunk budget as during
+ * decoration.  Ores are tested against the terrain as it is now, so they differ from eager generation where blocks
+ * placed later in decoration, or by players, overlap them.
+ *
+ * A chunk's veins wait until the chunk is loaded, so watching never loads chunks from disk.  {@link LiveVeinWorld}
+ * defers every block for another chunk outside of a generation region, and deferred blocks are only applied to chunks
+ * loaded at full status.  The rest stay in {@link DeferredGenerationStorage} until a player first watches them.
+ */
+public final class LazyVeins {
+  /** Clients are told about lazy blocks, but neighbours aren't updated, as the blocks only replace rock */
+  private static final int FLAGS = Constants.BlockFlags.BLOCK_UPDATE;
+
+  private LazyVeins() { }
+
+  static void onWatch(final ChunkWatchEvent.Watch event) {
+    final ServerWorld world = event.getWorld();
+    final ChunkPos watched = event.getPos();
+
+    // Whatever the server thread decorated last may have changed since
+    ChunkContext.release();
+    final Map<ChunkPos, List<LazyVeinStorage.Descriptor>> veins = LazyVeinStorage.get(world).take(watched, origin -> isLoaded(world, origin));
+
+    // The watched chunk was decorated long ago, so anything deferred to it since then is waiting for a watch like this
+    final Set<ChunkPos> targets = new LinkedHashSet<>();
+    targets.add(watched);
+
+    veins.forEach((origin, descriptors) -> {
+      generate(world, origin, descriptors);
+
+      for(final LazyVeinStorage.Descriptor descriptor : descriptors) {
+        for(int x = descriptor.minX; x <= descriptor.maxX; x++) {
+          for(int z = descriptor.minZ; z <= descriptor.maxZ; z++) {
+            targets.add(new ChunkPos(x, z));
+          }
+        }
+      }
+    });
+
+    ChunkContext.release();
+
+    final DeferredGenerationStorage deferred = DeferredGenerationStorage.get(world);
+
+    for(final ChunkPos chunkPos : targets) {
+      if(deferred.has(chunkPos) && isLoaded(world, chunkPos)) {
+        final DeferredGenerationStorage.Deferred taken = deferred.take(chunkPos);
+
+        if(taken != null) {
+          DeferredGenerator.apply(new LiveVeinWorld(world, ChunkContext.get(world, chunkPos), FLAGS), taken.ores, taken.pebbles);
+        }
+      }
+    }
+
+    ChunkContext.release();
+  }
+
+  /**
+   * @return whether the chunk is loaded at full status, which is the only status this lookup returns without loading
+   */
+  private static boolean isLoaded(final ServerWorld world, final ChunkPos pos) {
+    return world.getChunkProvider().getChunk(pos.x, pos.z, false) != null;
+  }
+
+  /**
+   * Generates the veins that start in a chunk as {@link TerraVeinBatch} would have
+   */
+  private static void generate(final ServerWorld world, final ChunkPos origin, final List<LazyVeinStorage.Descriptor> descriptors) {
+    final LiveVeinWorld veinWorld = new LiveVeinWorld(world, ChunkContext.get(world, origin), FLAGS);
+    final List<TerraOreVein.Shape> shapes = new ArrayList<>();
+
+    for(final LazyVeinStorage.Descriptor descriptor : descriptors) {
+      final VeinDefinition vein = VeinRegistry.get(descriptor.vein);
+
+      if(vein == null) {
+        TerraMod.LOGGER.warn("Dropping lazy vein {} at {}; it is no longer configured", descriptor.vein, descriptor.origin);
+        continue;
+      }
+
+      shapes.add(TerraOreVein.INSTANCE.begin(new VeinRandom(descriptor.seed), descriptor.origin, vein.config, veinWorld.getContext()));
+    }
+
+    new TerraVeinBatch.Writer(veinWorld, origin, shapes, TerraConfig.parallelVeins).writeAll();
+    veinWorld.getContext().forgetBlocks();
+  }
+}
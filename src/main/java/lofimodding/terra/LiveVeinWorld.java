@@ -0,0 +1,144 @@
+package lofimodding.terra;
+
+import net.minecraft.block.BlockState;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.math.ChunkPos;
+import net.minecraft.world.IWorld;
+import net.minecraft.world.chunk.ChunkStatus;
+import net.minecraft.world.chunk.IChunk;
+import net.minecraft.world.gen.WorldGenRegion;
+import net.minecraftforge.common.util.Constants;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Generates into a world during decoration.  Blocks for the chunks around the decorated one are written straight into
+ * the generation region while those chunks have not been lit yet, and anything further out is deferred to
+ * {@link DeferredGenerationStorage}.  Outside of a generation region, as in retrogen and lazy veins, every block for
+ * another chunk is deferred.
+ */
+public class LiveVeinWorld implements VeinWorld {
+  private final IWorld world;
+  private final ChunkContext context;
+  private final int flags;
+
+  public LiveVeinWorld(final IWorld world, final ChunkContext context) {
+    this(world, context, Constants.BlockFlags.DEFAULT);
+  }
+
+  /**
+   * @param flags the block flags every write uses
+   */
+  public LiveVeinWorld(final IWorld world, final ChunkContext context, final int flags) {
+    this.world = world;
+    this.context = context;
+    this.flags = flags;
+  }
+
+  private boolean inContext(final int x, final int z) {
+    return x >> 4 == this.context.pos.x && z >> 4 == this.context.pos.z;
+  }
+
+  /**
+   * Only the decorated chunk's direct neighbours are guaranteed to be generated and not being decorated by another
+   * thread, as with vanilla features.  Neighbours that are already lit are left to deferred generation so light and
+   * heightmaps stay correct.  On a {@link net.minecraft.world.server.ServerWorld} a read or write would load the
+   * neighbour up to full status on the spot, generating it and its own neighbours if needed, so nothing is writable
+   * there.
+   */
+  private boolean isWritable(final ChunkPos chunkPos) {
+    if(!(this.world instanceof WorldGenRegion)) {
+      return false;
+    }
+
+    if(Math.abs(chunkPos.x - this.context.pos.x) > 1 || Math.abs(chunkPos.z - this.context.pos.z) > 1) {
+      return false;
+    }
+
+    final IChunk chunk = this.world.getChunk(chunkPos.x, chunkPos.z, ChunkStatus.LIQUID_CARVERS, false);
+    return chunk != null && !chunk.getStatus().isAtLeast(ChunkStatus.LIGHT);
+  }
+
+  @Override
+  public BlockState getBlockState(final BlockPos pos) {
+    if(this.inContext(pos.getX(), pos.getZ())) {
+      final BlockState claimed = this.context.getClaimed(pos);
+
+      if(claimed != null) {
+        return claimed;
+      }
+
+      final BlockState snapshotted = this.context.getSnapshotted(pos);
+
+      if(snapshotted != null) {
+        return snapshotted;
+      }
+    }
+
+    return this.world.getBlockState(pos);
+  }
+
+  @Override
+  public void setBlockState(final BlockPos pos, final BlockState state) {
+    this.world.setBlockState(pos, state, this.flags);
+
+    if(this.inContext(pos.getX(), pos.getZ())) {
+      this.context.blockChanged(pos, state);
+    }
+  }
+
+  @Override
+  public boolean isReplaceable(final BlockState state, final BlockPos pos, final TerraOreVeinConfig.Replacer replacer) {
+    return state.isReplaceableOreGen(this.world, pos, replacer);
+  }
+
+  @Override
+  public boolean canPlacePebble(final BlockState pebble, final BlockPos pos) {
+    return pebble.isValidPosition(this.world, pos);
+  }
+
+  @Override
+  public void deferOre(final ChunkPos chunkPos, final BlockPos pos, final List<TerraOreVeinConfig.Replacer> replacers) {
+    if(this.isWritable(chunkPos)) {
+      DeferredGenerator.apply(this, Collections.singletonMap(pos, replacers), Collections.emptyMap());
+      return;
+    }
+
+    this.context.getDeferred().addOre(chunkPos, pos, replacers);
+  }
+
+  @Override
+  public void deferPebble(final ChunkPos chunkPos, final BlockPos pos, final BlockState pebble) {
+    if(this.isWritable(chunkPos)) {
+      DeferredGenerator.apply(this, Collections.emptyMap(), Collections.singletonMap(pos, pebble));
+      return;
+    }
+
+    this.context.getDeferred().addPebble(chunkPos, pos, pebble);
+  }
+
+  @Override
+  public boolean mayHost(final BlockPos pos, final List<TerraOreVeinConfig.Replacer> replacers) {
+    return !this.inContext(pos.getX(), pos.getZ()) || this.context.mayHost(this, pos.getY() >> 4, replacers);
+  }
+
+  @Override
+  public BlockPos findSurface(final int x, final int z) {
+    if(this.inContext(x, z)) {
+      return new BlockPos(x, this.context.getSurface(this, x, z), z);
+    }
+
+    return TerraOreVein.findSurface(this, x, z);
+  }
+
+  @Override
+  public VeinIndex getVeinIndex() {
+    return this.context.getVeinIndex();
+  }
+
+  @Override
+  public ChunkContext getContext() {
+    return this.context;
+  }
+}
@@ -0,0 +1,128 @@
+package lofimodding.terra;
+
+import net.minecraft.util.math.MathHelper;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Low-frequency density multipliers for vein placement.  Values are smoothly interpolated between random points on a
+ * grid of districts and average out to 1.  Each region's 32x32 chunks are computed at once and kept in a small LRU
+ * cache, so world-gen threads only read an array per chunk.
+ */
+public final class OreField {
+  private static final int CACHE_SIZE = 256;
+
+  private static final Map<Key, float[]> CACHE = new LinkedHashMap<Key, float[]>(CACHE_SIZE, 0.75f, true) {
+    @Override
+    protected boolean removeEldestEntry(final Map.Entry<Key, float[]> eldest) {
+      return this.size() > CACHE_SIZE;
+    }
+  };
+
+  private OreField() { }
+
+  /**
+   * @return the density multiplier for a chunk
+   */
+  public static float get(final long worldSeed, final TerraPlacementConfig config, final int chunkX, final int chunkZ) {
+    final Key key = new Key(worldSeed, config.districtSize, config.districtContrast, config.districtSeed, chunkX >> 5, chunkZ >> 5);
+
+    float[] region;
+    synchronized(CACHE) {
+      region = CACHE.get(key);
+    }
+
+    // Computing outside of the lock may occasionally duplicate work, but never blocks other threads on it
+    if(region == null) {
+      region = compute(key);
+
+      synchronized(CACHE) {
+        CACHE.put(key, region);
+      }
+    }
+
+    return region[RegionFiles.index(chunkX, chunkZ)];
+  }
+
+  private static float[] compute(final Key key) {
+    final float[] region = new float[RegionFiles.CHUNKS * RegionFiles.CHUNKS];
+    final int size = key.size;
+
+    for(int z = 0; z < RegionFiles.CHUNKS; z++) {
+      for(int x = 0; x < RegionFiles.CHUNKS; x++) {
+        final int chunkX = (key.regionX << 5) + x;
+        final int chunkZ = (key.regionZ << 5) + z;
+
+        final int cellX = Math.floorDiv(chunkX, size);
+        final int cellZ = Math.floorDiv(chunkZ, size);
+        final float fx = smooth((float)Math.floorMod(chunkX, size) / size);
+        final float fz = smooth((float)Math.floorMod(chunkZ, size) / size);
+
+        final float noise = MathHelper.lerp(fz,
+          MathHelper.lerp(fx, lattice(key, cellX, cellZ), lattice(key, cellX + 1, cellZ)),
+          MathHelper.lerp(fx, lattice(key, cellX, cellZ + 1), lattice(key, cellX + 1, cellZ + 1))
+        );
+
+        region[z * RegionFiles.CHUNKS + x] = 1.0f + key.contrast * (noise * 2.0f - 1.0f);
+      }
+    }
+
+    return region;
+  }
+
+  private static float smooth(final float t) {
+    return t * t * (3.0f - 2.0f * t);
+  }
+
+  /**
+   * @return a value in [0, 1) for a district corner
+   */
+  private static float lattice(final Key key, final int x, final int z) {
+    long hash = key.worldSeed ^ (long)key.seed * 0x9e3779b97f4a7c15L;
+    hash ^= (long)x * 0x632be59bd9b4e019L;
+    hash ^= (long)z * 0x85157af5L;
+    hash = (hash ^ hash >>> 30) * 0xbf58476d1ce4e5b9L;
+    hash = (hash ^ hash >>> 27) * 0x94d049bb133111ebL;
+    hash ^= hash >>> 31;
+    return (hash >>> 40) / (float)(1 << 24);
+  }
+
+  private static final class Key {
+    private final long worldSeed;
+    private final int size;
+    private final float contrast;
+    private final int seed;
+    private final int regionX;
+    private final int regionZ;
+
+    private Key(final long worldSeed, final int size, final float contrast, final int seed, final int regionX, final int regionZ) {
+      this.worldSeed = worldSeed;
+      this.size = size;
+      this.contrast = contrast;
+      this.seed = seed;
+      this.regionX = regionX;
+      this.regionZ = regionZ;
+    }
+
+    @Override
+    public boolean equals(final Object obj) {
+      if(this == obj) {
+        return true;
+      }
+
+      if(!(obj instanceof Key)) {
+        return false;
+      }
+
+      final Key other = (Key)obj;
+      return this.worldSeed == other.worldSeed && this.size == other.size && this.contrast == other.contrast && this.seed == other.seed && this.regionX == other.regionX && this.regionZ == other.regionZ;
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(this.worldSeed, this.size, this.contrast, this.seed, this.regionX, this.regionZ);
+    }
+  }
+}
@@ -1,7 +1,11 @@
 package lofimodding.terra;
 
+import javax.annotation.Nullable;
+
 public class OreGenState {
   private int depth;
+  @Nullable
+  private ChunkContext context;
 
   public int getDepth() {
     return this.depth;
@@ -10,4 +14,16 @@ public class OreGenState {
   void setDepth(final int depth) {
     this.depth = depth;
   }
+
+  /**
+   * @return the chunk being decorated, or null when generating offline or building templates
+   */
+  @Nullable
+  public ChunkContext getContext() {
+    return this.context;
+  }
+
+  void setContext(@Nullable final ChunkContext context) {
+    this.context = context;
+  }
 }
@@ -0,0 +1,72 @@
+package lofimodding.terra;
+
+import net.minecraft.block.Block;
+import net.minecraft.block.BlockState;
+import net.minecraft.block.Blocks;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.math.ChunkPos;
+import net.minecraft.world.IWorld;
+import net.minecraft.world.chunk.ChunkSection;
+import net.minecraft.world.dimension.DimensionType;
+
+import java.util.Set;
+
+/**
+ * Replaces ores removed through the <code>remove_ore</code> IMC with the dimension's host rock, whichever feature placed
+ * them.  {@link TerraVeinBatch} runs it before placing any Terra blocks when {@link TerraConfig#scrubRemovedOres} is
+ * enabled, so it catches the ore features ahead of Terra's without touching Terra's own veins.  Retrogen runs it the
+ * same way, before adding veins.
+ *
+ * Each section's palette is checked first, so sections that never held a removed ore are skipped without reading their
+ * blocks.  Sections using the global palette, or whose palette can't be read, are scanned block by block.
+ */
+public class OreScrubber {
+  private final Set<Block> ores;
+
+  public OreScrubber(final Set<Block> ores) {
+    this.ores = ores;
+  }
+
+  /**
+   * @return the number of blocks replaced
+   */
+  public int scrub(final IWorld world, final ChunkPos chunkPos, final int flags) {
+    if(this.ores.isEmpty()) {
+      return 0;
+    }
+
+    final BlockState host = world.getDimension().getType() == DimensionType.THE_NETHER ? Blocks.NETHERRACK.getDefaultState() : Blocks.STONE.getDefaultState();
+    final BlockPos.Mutable pos = new BlockPos.Mutable();
+    final int startX = chunkPos.getXStart();
+    final int startZ = chunkPos.getZStart();
+    int replaced = 0;
+
+    for(final ChunkSection section : world.getChunk(chunkPos.x, chunkPos.z).getSections()) {
+      if(ChunkSection.isEmpty(section)) {
+        continue;
+      }
+
+      final SectionPalettes.Snapshot snapshot = SectionPalettes.snapshot(section);
+
+      if(snapshot != null && !snapshot.mayContain(state -> this.ores.contains(state.getBlock()))) {
+        continue;
+      }
+
+      // Replacing a block never changes the indices still to be visited, so the snapshot stays valid for them
+      for(int index = 0; index < 4096; index++) {
+        final int x = index & 15;
+        final int z = index >> 4 & 15;
+        final int y = index >> 8;
+        final BlockState state = snapshot != null ? snapshot.get(index) : section.getBlockState(x, y, z);
+
+        if(state != null && this.ores.contains(state.getBlock())) {
+          pos.setPos(startX + x, section.getYLocation() + y, startZ + z);
+          world.setBlockState(pos, host, flags);
+          replaced++;
+        }
+      }
+    }
+
+    return replaced;
+  }
+}
@@ -0,0 +1,69 @@
+package lofimodding.terra;
+
+import net.minecraft.util.math.ChunkPos;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Reads the layout of anvil region files without going through the chunk manager
+ */
+public final class RegionFiles {
+  public static final int CHUNKS = 32;
+
+  private static final Pattern NAME = Pattern.compile("^r\\.(-?\\d+)\\.(-?\\d+)\\.mca$");
+
+  private RegionFiles() { }
+
+  public static File getFile(final File regionDir, final int regionX, final int regionZ) {
+    return new File(regionDir, "r." + regionX + '.' + regionZ + ".mca");
+  }
+
+  /**
+   * @return the coordinates of every region file in the directory
+   */
+  public static List<ChunkPos> listRegions(final File regionDir) {
+    final List<ChunkPos> regions = new ArrayList<>();
+    final File[] files = regionDir.listFiles();
+
+    if(files != null) {
+      for(final File file : files) {
+        final Matcher matcher = NAME.matcher(file.getName());
+
+        if(matcher.matches() && file.length() >= 4096) {
+          regions.add(new ChunkPos(Integer.parseInt(matcher.group(1)), Integer.parseInt(matcher.group(2))));
+        }
+      }
+    }
+
+    return regions;
+  }
+
+  public static int index(final int chunkX, final int chunkZ) {
+    return (chunkX & CHUNKS - 1) + (chunkZ & CHUNKS - 1) * CHUNKS;
+  }
+
+  /**
+   * @return the chunks present in the region, indexed by {@link #index}
+   */
+  public static BitSet readPresentChunks(final File regionFile) throws IOException {
+    final BitSet present = new BitSet(CHUNKS * CHUNKS);
+
+    try(final DataInputStream input = new DataInputStream(new FileInputStream(regionFile))) {
+      for(int i = 0; i < CHUNKS * CHUNKS; i++) {
+        if(input.readInt() != 0) {
+          present.set(i);
+        }
+      }
+    }
+
+    return present;
+  }
+}
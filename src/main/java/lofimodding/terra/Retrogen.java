@@ -0,0 +1,322 @@
+package lofimodding.terra;
+
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.math.ChunkPos;
+import net.minecraft.world.chunk.Chunk;
+import net.minecraft.world.dimension.DimensionType;
+import net.minecraft.world.server.ServerWorld;
+import net.minecraft.world.server.TicketType;
+import net.minecraftforge.common.util.Constants;
+import net.minecraftforge.event.TickEvent;
+import net.minecraftforge.fml.event.server.FMLServerStoppedEvent;
+import net.minecraftforge.fml.server.ServerLifecycleHooks;
+
+import javax.annotation.Nullable;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Adds Terra veins to chunks that were generated before Terra was installed.
+ *
+ * Chunks are loaded through tickets so that disk reads stay off the server thread, and loaded chunks are processed
+ * until the tick's time budget runs out.  The budget is checked between veins, and a chunk cut off mid-way keeps its
+ * ticket and carries on from the next vein on a later tick.  Each tick starts with the next dimension, so one busy
+ * dimension can't starve the others.  Progress is tracked in {@link RetrogenStorage}, which also records every chunk
+ * decorated during normal generation, so restarts resume where they left off.  Dimensions Terra decorated before that
+ * record existed are left alone, see {@link RetrogenStorage}.
+ */
+public class Retrogen {
+  private static final TicketType<ChunkPos> TICKET = TicketType.create(TerraMod.MOD_ID + ":retrogen", Comparator.comparingLong(ChunkPos::asLong));
+
+  private final OreScrubber scrubber;
+  private final Map<DimensionType, Task> tasks = new HashMap<>();
+  /** The index of the dimension the next tick starts with */
+  private int nextWorld;
+
+  public Retrogen(final OreScrubber scrubber) {
+    this.scrubber = scrubber;
+  }
+
+  void onServerTick(final TickEvent.ServerTickEvent event) {
+    if(event.phase != TickEvent.Phase.END || !TerraConfig.retrogenEnabled || !TerraConfig.generationEnabled) {
+      return;
+    }
+
+    final MinecraftServer server = ServerLifecycleHooks.getCurrentServer();
+
+    if(server == null || averageTickMillis(server) > TerraConfig.retrogenMaxTickMillis) {
+      return;
+    }
+
+    final long deadline = System.nanoTime() + TerraConfig.retrogenBudgetMicros * 1000L;
+    final List<ServerWorld> worlds = new ArrayList<>();
+    server.getWorlds().forEach(worlds::add);
+
+    if(worlds.isEmpty()) {
+      return;
+    }
+
+    final int first = this.nextWorld++ % worlds.size();
+
+    for(int i = 0; i < worlds.size(); i++) {
+      final ServerWorld world = worlds.get((first + i) % worlds.size());
+
+      if(!VeinRegistry.isEnabled(world.getDimension().getType())) {
+        continue;
+      }
+
+      final Task task = this.tasks.computeIfAbsent(world.getDimension().getType(), type -> new Task(world));
+
+      if(!task.tick(world, deadline)) {
+        return;
+      }
+    }
+  }
+
+  void onServerStopped(final FMLServerStoppedEvent event) {
+    this.tasks.clear();
+  }
+
+  private static double averageTickMillis(final MinecraftServer server) {
+    long total = 0;
+    for(final long time : server.tickTimeArray) {
+      total += time;
+    }
+
+    return total / (double)server.tickTimeArray.length / 1.0e6;
+  }
+
+  /**
+   * Scrubs the chunk and lays out the veins its biome's {@link TerraVeinBatch} would have placed, seeded exactly as
+   * decoration would have.  In lazy mode the veins are only recorded.
+   *
+   * @return the veins to write, or null if there are none
+   */
+  @Nullable
+  private TerraVeinBatch.Writer begin(final ServerWorld world, final Chunk chunk) {
+    // A context left on the server thread may describe this chunk as it was before players changed it
+    ChunkContext.release();
+    ChunkDeferredData.adopt(world, chunk);
+
+    if(TerraConfig.retrogenStripOres) {
+      this.scrubber.scrub(world, chunk.getPos(), Constants.BlockFlags.BLOCK_UPDATE | Constants.BlockFlags.UPDATE_NEIGHBORS);
+    }
+
+    final ChunkPos chunkPos = chunk.getPos();
+    final BlockPos start = new BlockPos(chunkPos.getXStart(), 0, chunkPos.getZStart());
+    final TerraVeinBatchConfig config = TerraFeatures.getVeins(world.getBiome(TerraFeatures.getBiomePos(chunkPos)));
+
+    if(config == null || config.veins.isEmpty()) {
+      return null;
+    }
+
+    if(TerraConfig.lazyVeins) {
+      TerraVeinBatch.INSTANCE.record(LazyVeinStorage.get(world), world.getSeed(), start, config);
+      return null;
+    }
+
+    // Traced serially so the deadline can be checked between veins
+    return TerraVeinBatch.INSTANCE.begin(world, chunkPos, start, config, false);
+  }
+
+  private void applyDeferred(final ServerWorld world, final Chunk chunk) {
+    DeferredGenerator.place(world, chunk.getPos());
+  }
+
+  private final class Task {
+    private final Deque<ChunkPos> regions = new ArrayDeque<>();
+    private final Deque<Work> queue = new ArrayDeque<>();
+    private final List<Work> pending = new ArrayList<>();
+    private final File regionDir;
+    private final ChunkPos spawn;
+    private boolean finished;
+
+    private Task(final ServerWorld world) {
+      this.regionDir = new File(world.getDimension().getType().getDirectory(world.getSaveHandler().getWorldDirectory()), "region");
+      this.spawn = new ChunkPos(world.getSpawnPoint());
+
+      final int radius = TerraConfig.retrogenRadius;
+      final List<ChunkPos> regions = RegionFiles.listRegions(this.regionDir);
+      regions.removeIf(region -> !this.intersects(region, radius));
+      regions.sort(Comparator.comparingLong(region -> {
+        final long dx = (region.x << 5) + 16 - this.spawn.x;
+        final long dz = (region.z << 5) + 16 - this.spawn.z;
+        return dx * dx + dz * dz;
+      }));
+
+      this.regions.addAll(regions);
+    }
+
+    private boolean intersects(final ChunkPos region, final int radius) {
+      return (region.x << 5) + RegionFiles.CHUNKS > this.spawn.x - radius && region.x << 5 <= this.spawn.x + radius &&
+             (region.z << 5) + RegionFiles.CHUNKS > this.spawn.z - radius && region.z << 5 <= this.spawn.z + radius;
+    }
+
+    /**
+     * @return false if the deadline has passed
+     */
+    private boolean tick(final ServerWorld world, final long deadline) {
+      if(this.finished) {
+        return true;
+      }
+
+      final RetrogenStorage storage = RetrogenStorage.get(world);
+
+      // Chunks decorated before Terra recorded them would get a second set of veins
+      if(storage.isPreTracking()) {
+        TerraMod.LOGGER.warn("Not retrogenerating {}, which Terra decorated before it recorded decorated chunks", world.getDimension().getType());
+        this.finished = true;
+        return true;
+      }
+
+      final Iterator<Work> it = this.pending.iterator();
+      while(it.hasNext()) {
+        if(System.nanoTime() >= deadline) {
+          return false;
+        }
+
+        final Work work = it.next();
+        final Chunk chunk = world.getChunkProvider().getChunk(work.pos.x, work.pos.z, false);
+
+        if(chunk != null) {
+          if(!this.process(world, storage, chunk, work, deadline)) {
+            return false;
+          }
+
+          world.getChunkProvider().releaseTicket(TICKET, work.pos, 0, work.pos);
+          it.remove();
+        }
+      }
+
+      while(this.pending.size() < TerraConfig.retrogenMaxPending) {
+        if(System.nanoTime() >= deadline) {
+          return false;
+        }
+
+        if(this.queue.isEmpty()) {
+          if(this.regions.isEmpty()) {
+            if(this.pending.isEmpty()) {
+              TerraMod.LOGGER.info("Retrogen finished for {}", world.getDimension().getType());
+              this.finished = true;
+            }
+
+            return true;
+          }
+
+          this.queueRegion(storage, this.regions.poll());
+          continue;
+        }
+
+        final Work work = this.queue.poll();
+
+        if(work.retrogen && storage.isDone(work.pos)) {
+          continue;
+        }
+
+        world.getChunkProvider().registerTicket(TICKET, work.pos, 0, work.pos);
+        this.pending.add(work);
+      }
+
+      return true;
+    }
+
+    private void queueRegion(final RetrogenStorage storage, final ChunkPos region) {
+      final BitSet present;
+
+      try {
+        present = RegionFiles.readPresentChunks(RegionFiles.getFile(this.regionDir, region.x, region.z));
+      } catch(final IOException e) {
+        TerraMod.LOGGER.warn("Skipping unreadable region {} {}", region.x, region.z, e);
+        return;
+      }
+
+      final int radius = TerraConfig.retrogenRadius;
+
+      for(int z = 0; z < RegionFiles.CHUNKS; z++) {
+        for(int x = 0; x < RegionFiles.CHUNKS; x++) {
+          final ChunkPos pos = new ChunkPos((region.x << 5) + x, (region.z << 5) + z);
+
+          if(present.get(RegionFiles.index(pos.x, pos.z)) && Math.abs(pos.x - this.spawn.x) <= radius && Math.abs(pos.z - this.spawn.z) <= radius && !storage.isDone(pos)) {
+            this.queue.add(new Work(pos, true));
+          }
+        }
+      }
+    }
+
+    /**
+     * @return false if the deadline passed before the chunk was finished; its progress is kept in <code>work</code>
+     */
+    private boolean process(final ServerWorld world, final RetrogenStorage storage, final Chunk chunk, final Work work, final long deadline) {
+      if(!work.retrogen) {
+        Retrogen.this.applyDeferred(world, chunk);
+        return true;
+      }
+
+      if(work.writer == null) {
+        // Proto chunks on disk were decorated by Terra when the ticket brought them to full status
+        if(storage.isDone(work.pos)) {
+          return true;
+        }
+
+        work.writer = Retrogen.this.begin(world, chunk);
+      } else {
+        // Players may have changed the chunk since the last tick
+        work.writer.getContext().forgetBlocks();
+      }
+
+      if(work.writer != null) {
+        while(work.writer.hasNext()) {
+          if(System.nanoTime() >= deadline) {
+            return false;
+          }
+
+          work.writer.writeNext();
+        }
+
+        work.writer.getContext().forgetBlocks();
+        work.writer = null;
+      }
+
+      // Marks the chunk done and releases its context
+      DeferredGenerator.place(world, work.pos);
+
+      // Spills into neighbours that were already decorated would otherwise never be applied
+      final DeferredGenerationStorage deferred = DeferredGenerationStorage.get(world);
+
+      for(int x = -1; x <= 1; x++) {
+        for(int z = -1; z <= 1; z++) {
+          final ChunkPos neighbour = new ChunkPos(work.pos.x + x, work.pos.z + z);
+
+          if((x != 0 || z != 0) && storage.isDone(neighbour) && deferred.has(neighbour)) {
+            this.queue.addFirst(new Work(neighbour, false));
+          }
+        }
+      }
+
+      return true;
+    }
+  }
+
+  private static final class Work {
+    private final ChunkPos pos;
+    private final boolean retrogen;
+    /** The veins still to write while the chunk's retrogen spans ticks */
+    @Nullable
+    private TerraVeinBatch.Writer writer;
+
+    private Work(final ChunkPos pos, final boolean retrogen) {
+      this.pos = pos;
+      this.retrogen = retrogen;
+    }
+  }
+}
@@ -0,0 +1,129 @@
+package lofimodding.terra;
+
+import net.minecraft.nbt.CompoundNBT;
+import net.minecraft.nbt.INBT;
+import net.minecraft.nbt.ListNBT;
+import net.minecraft.util.math.ChunkPos;
+import net.minecraft.world.server.ServerWorld;
+import net.minecraft.world.storage.WorldSavedData;
+import net.minecraftforge.common.util.Constants;
+import net.minecraftforge.event.world.WorldEvent;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Per-region bitsets of the chunks that Terra has decorated, either during normal generation or through retrogen.
+ *
+ * Worlds that Terra decorated before it kept this record are marked the first time they load, because nothing tells
+ * their decorated chunks apart from the ones Terra never saw.  Retrogen refuses to run in a marked world.
+ */
+public class RetrogenStorage extends WorldSavedData {
+  private static final String DATA_NAME = TerraMod.MOD_ID + "_retrogen";
+  private static final int WORDS = RegionFiles.CHUNKS * RegionFiles.CHUNKS / 64;
+
+  public static RetrogenStorage get(final ServerWorld world) {
+    return SavedDataIO.get(world, RetrogenStorage::new, DATA_NAME);
+  }
+
+  /**
+   * Marks worlds that Terra decorated before it kept this record.  Runs after {@link SavedDataIO#onWorldLoad}, so the
+   * marked storage is the one the world goes on to use.
+   */
+  static void onWorldLoad(final WorldEvent.Load event) {
+    if(!(event.getWorld() instanceof ServerWorld)) {
+      return;
+    }
+
+    final ServerWorld world = (ServerWorld)event.getWorld();
+
+    if(isUntracked(SavedDataIO.getDataDir(world))) {
+      TerraMod.LOGGER.warn("{} was decorated by Terra before Terra recorded decorated chunks; retrogen is disabled for it", world.getDimension().getType());
+      get(world).markPreTracking();
+    }
+  }
+
+  /**
+   * @return true if the dimension has Terra's deferred blocks, so Terra has decorated it, but no record of which chunks
+   */
+  public static boolean isUntracked(final File dataDir) {
+    return !new File(dataDir, DATA_NAME + ".dat").exists() && new File(dataDir, DeferredGenerationStorage.DATA_NAME + ".dat").exists();
+  }
+
+  private final Map<Long, long[]> regions = new HashMap<>();
+  /** Set in worlds Terra decorated before this record existed, which retrogen would give a second set of veins */
+  private boolean preTracking;
+
+  public RetrogenStorage() {
+    super(DATA_NAME);
+  }
+
+  private static long regionKey(final ChunkPos pos) {
+    return ChunkPos.asLong(pos.x >> 5, pos.z >> 5);
+  }
+
+  public synchronized boolean isPreTracking() {
+    return this.preTracking;
+  }
+
+  public synchronized void markPreTracking() {
+    if(!this.preTracking) {
+      this.preTracking = true;
+      this.markDirty();
+    }
+  }
+
+  public synchronized boolean isDone(final ChunkPos pos) {
+    final long[] bits = this.regions.get(regionKey(pos));
+
+    if(bits == null) {
+      return false;
+    }
+
+    final int index = RegionFiles.index(pos.x, pos.z);
+    return (bits[index >> 6] & 1L << index) != 0;
+  }
+
+  public synchronized void markDone(final ChunkPos pos) {
+    final long[] bits = this.regions.computeIfAbsent(regionKey(pos), key -> new long[WORDS]);
+    final int index = RegionFiles.index(pos.x, pos.z);
+
+    if((bits[index >> 6] & 1L << index) == 0) {
+      bits[index >> 6] |= 1L << index;
+      this.markDirty();
+    }
+  }
+
+  @Override
+  public synchronized void read(final CompoundNBT nbt) {
+    this.regions.clear();
+    this.preTracking = nbt.getBoolean("preTracking");
+
+    for(final INBT regionBase : nbt.getList("regions", Constants.NBT.TAG_COMPOUND)) {
+      final CompoundNBT regionNbt = (CompoundNBT)regionBase;
+      final long[] bits = regionNbt.getLongArray("done");
+
+      if(bits.length == WORDS) {
+        this.regions.put(ChunkPos.asLong(regionNbt.getInt("x"), regionNbt.getInt("z")), bits);
+      }
+    }
+  }
+
+  @Override
+  public synchronized CompoundNBT write(final CompoundNBT compound) {
+    final ListNBT regionList = new ListNBT();
+
+    this.regions.forEach((key, bits) -> {
+      final CompoundNBT regionNbt = new CompoundNBT();
+      regionNbt.putInt("x", ChunkPos.getX(key));
+      regionNbt.putInt("z", ChunkPos.getZ(key));
+      regionNbt.putLongArray("done", bits.clone());
+      regionList.add(regionNbt);
+    });
+
+    compound.put("regions", regionList);
+    compound.putBoolean("preTracking", this.preTracking);
+    return compound;
+  }
+}
@@ -0,0 +1,190 @@
+package lofimodding.terra;
+
+import net.minecraft.SharedConstants;
+import net.minecraft.nbt.CompoundNBT;
+import net.minecraft.nbt.CompressedStreamTools;
+import net.minecraft.world.server.ServerWorld;
+import net.minecraft.world.storage.DimensionSavedDataManager;
+import net.minecraft.world.storage.WorldSavedData;
+import net.minecraftforge.event.world.WorldEvent;
+import net.minecraftforge.fml.event.server.FMLServerStoppedEvent;
+
+import javax.annotation.Nullable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Supplier;
+
+/**
+ * Loads Terra's saved data.  Each store is one file that world-gen threads would otherwise read and parse the first
+ * time they decorate a chunk, so the files are read on a small I/O pool as soon as their world loads and handed to the
+ * world's saved data once the first caller needs them.
+ *
+ * Stores can also be saved on the same pool through {@link #saveAsync}.
+ */
+public final class SavedDataIO {
+  static final ExecutorService IO = Executors.newFixedThreadPool(2, runnable -> {
+    final Thread thread = new Thread(runnable, "Terra I/O");
+    thread.setDaemon(true);
+    return thread;
+  });
+
+  /** Reads started for each world, by data name.  Futures complete with null when the file doesn't exist. */
+  private static final Map<ServerWorld, Map<String, CompletableFuture<WorldSavedData>>> PENDING = new WeakHashMap<>();
+  /** The last save queued for each file */
+  private static final Map<File, CompletableFuture<Void>> SAVES = new HashMap<>();
+
+  private SavedDataIO() { }
+
+  static void onWorldLoad(final WorldEvent.Load event) {
+    if(!(event.getWorld() instanceof ServerWorld)) {
+      return;
+    }
+
+    final ServerWorld world = (ServerWorld)event.getWorld();
+    prefetch(world, DeferredGenerationStorage::new);
+    prefetch(world, RetrogenStorage::new);
+    prefetch(world, LazyVeinStorage::new);
+    prefetch(world, VeinIndex::new);
+  }
+
+  static void onWorldUnload(final WorldEvent.Unload event) {
+    synchronized(PENDING) {
+      PENDING.remove(event.getWorld());
+    }
+  }
+
+  /**
+   * Waits for queued saves, as the I/O threads won't keep the server from exiting
+   */
+  static void onServerStopped(final FMLServerStoppedEvent event) {
+    final List<CompletableFuture<Void>> saves;
+
+    synchronized(SAVES) {
+      saves = new ArrayList<>(SAVES.values());
+    }
+
+    CompletableFuture.allOf(saves.toArray(new CompletableFuture[0])).join();
+  }
+
+  /**
+   * Builds and writes a store's NBT on the I/O pool.  Saves of the same file run in the order they were queued, and
+   * each is written to a temporary file that is then moved over the old one, so a crash mid-save leaves the previous
+   * save intact.
+   *
+   * @param data builds the store's NBT, from a snapshot that nothing else changes
+   */
+  static void saveAsync(final File file, final Supplier<CompoundNBT> data) {
+    synchronized(SAVES) {
+      final CompletableFuture<Void> previous = SAVES.getOrDefault(file, CompletableFuture.completedFuture(null));
+
+      SAVES.put(file, previous.thenRunAsync(() -> {
+        try {
+          write(file, data.get());
+        } catch(final IOException | RuntimeException e) {
+          TerraMod.LOGGER.error("Failed to save {}", file, e);
+        }
+      }, IO));
+    }
+  }
+
+  private static void write(final File file, final CompoundNBT data) throws IOException {
+    final CompoundNBT root = new CompoundNBT();
+    root.put("data", data);
+    root.putInt("DataVersion", SharedConstants.getVersion().getWorldVersion());
+
+    final File temp = new File(file.getPath() + ".tmp");
+
+    try(final OutputStream output = Files.newOutputStream(temp.toPath())) {
+      CompressedStreamTools.writeCompressed(root, output);
+    }
+
+    Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  public static File getDataDir(final ServerWorld world) {
+    return new File(world.getDimension().getType().getDirectory(world.getSaveHandler().getWorldDirectory()), "data");
+  }
+
+  private static void prefetch(final ServerWorld world, final Supplier<? extends WorldSavedData> factory) {
+    final File dataDir = getDataDir(world);
+    final String name = factory.get().getName();
+
+    final CompletableFuture<WorldSavedData> future = CompletableFuture.supplyAsync(() -> {
+      try {
+        return read(dataDir, factory);
+      } catch(final IOException e) {
+        TerraMod.LOGGER.warn("Failed to prefetch {}, it will be loaded when first used", name, e);
+        return null;
+      }
+    }, IO);
+
+    synchronized(PENDING) {
+      PENDING.computeIfAbsent(world, key -> new HashMap<>()).put(name, future);
+    }
+  }
+
+  @Nullable
+  private static WorldSavedData read(final File dataDir, final Supplier<? extends WorldSavedData> factory) throws IOException {
+    final WorldSavedData data = factory.get();
+    final File file = new File(dataDir, data.getName() + ".dat");
+
+    if(!file.exists()) {
+      return null;
+    }
+
+    try(final InputStream input = Files.newInputStream(file.toPath())) {
+      data.read(CompressedStreamTools.readCompressed(input).getCompound("data"));
+    }
+
+    return data;
+  }
+
+  /**
+   * @return the world's data of the type <code>factory</code> creates, taken from the prefetch if there is one, read
+   * from disk if there isn't, or created if it doesn't exist yet
+   */
+  @SuppressWarnings("unchecked")
+  public static <T extends WorldSavedData> T get(final ServerWorld world, final Supplier<T> factory, final String name) {
+    final DimensionSavedDataManager manager = world.getSavedData();
+
+    synchronized(manager) {
+      final CompletableFuture<WorldSavedData> future;
+
+      synchronized(PENDING) {
+        final Map<String, CompletableFuture<WorldSavedData>> pending = PENDING.get(world);
+        future = pending == null ? null : pending.remove(name);
+      }
+
+      if(future != null) {
+        final WorldSavedData prefetched = future.join();
+
+        if(prefetched != null) {
+          manager.set(prefetched);
+          return (T)prefetched;
+        }
+      }
+
+      final T data = manager.get(factory, name);
+
+      if(data == null) {
+        final T newData = factory.get();
+        manager.set(newData);
+        return newData;
+      }
+
+      return data;
+    }
+  }
+}
@@ -0,0 +1,170 @@
+package lofimodding.terra;
+
+import net.minecraft.block.Block;
+import net.minecraft.block.BlockState;
+import net.minecraft.util.BitArray;
+import net.minecraft.util.palette.IPalette;
+import net.minecraft.util.palette.PalettedContainer;
+import net.minecraft.world.chunk.ChunkSection;
+import net.minecraftforge.fml.common.ObfuscationReflectionHelper;
+
+import javax.annotation.Nullable;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * Reads chunk sections straight from their packed palette indices instead of going through the world for each block.
+ * The palette and indices are private to {@link PalettedContainer}, so they are read reflectively; if that isn't
+ * possible no snapshots are taken and callers fall back to reading blocks from the world.
+ */
+final class SectionPalettes {
+  /** Sections with more bits per block than this use the global palette, which lists every block state */
+  private static final int MAX_LOCAL_BITS = 8;
+
+  @Nullable
+  private static final Field PALETTE = find("field_186022_c");
+  @Nullable
+  private static final Field STORAGE = find("field_186021_b");
+
+  private SectionPalettes() { }
+
+  @Nullable
+  private static Field find(final String name) {
+    try {
+      return ObfuscationReflectionHelper.findField(PalettedContainer.class, name);
+    } catch(final ObfuscationReflectionHelper.UnableToFindFieldException e) {
+      TerraMod.LOGGER.warn("Unable to read chunk section palettes, blocks will be read through the world", e);
+      return null;
+    }
+  }
+
+  /**
+   * @return the section's current indices and palette, or null if they can't be read
+   */
+  @Nullable
+  @SuppressWarnings("unchecked")
+  static Snapshot snapshot(final ChunkSection section) {
+    if(PALETTE == null || STORAGE == null) {
+      return null;
+    }
+
+    final PalettedContainer<BlockState> data = section.getData();
+    final IPalette<BlockState> palette;
+    final BitArray storage;
+
+    try {
+      palette = (IPalette<BlockState>)PALETTE.get(data);
+      storage = (BitArray)STORAGE.get(data);
+    } catch(final IllegalAccessException e) {
+      return null;
+    }
+
+    final long[] longs = storage.getBackingLongArray();
+    // Sections always hold 4096 blocks, so the backing array has 64 longs per bit
+    final int bits = longs.length / 64;
+
+    if(bits > MAX_LOCAL_BITS) {
+      return new Snapshot(longs, bits, null);
+    }
+
+    final BlockState[] states = new BlockState[1 << bits];
+
+    for(int id = 0; id < states.length; id++) {
+      states[id] = palette.get(id);
+    }
+
+    return new Snapshot(longs, bits, states);
+  }
+
+  /**
+   * @return every block state the section's palette holds, which may include states no longer in the section, or null
+   * if the palette can't be read or is the global palette
+   */
+  @Nullable
+  static List<BlockState> get(final ChunkSection section) {
+    final Snapshot snapshot = snapshot(section);
+
+    if(snapshot == null || snapshot.states == null) {
+      return null;
+    }
+
+    final List<BlockState> states = new ArrayList<>();
+
+    for(final BlockState state : snapshot.states) {
+      if(state != null) {
+        states.add(state);
+      }
+    }
+
+    return states;
+  }
+
+  /**
+   * A section's packed palette indices and palette.  The indices array is the section's own, so the snapshot stays
+   * accurate only for blocks that haven't been changed since it was taken; {@link ChunkContext} answers changed blocks
+   * itself and drops its snapshots before other features run.
+   */
+  static final class Snapshot {
+    private final long[] data;
+    private final int bits;
+    private final long mask;
+    /** Null for the global palette */
+    @Nullable
+    private final BlockState[] states;
+
+    private Snapshot(final long[] data, final int bits, @Nullable final BlockState[] states) {
+      this.data = data;
+      this.bits = bits;
+      this.mask = (1L << bits) - 1;
+      this.states = states;
+    }
+
+    /**
+     * Tests the palette instead of the blocks, so the answer costs one check per palette entry
+     *
+     * @return false only if no state the section can hold matches; always true for the global palette
+     */
+    boolean mayContain(final Predicate<BlockState> predicate) {
+      if(this.states == null) {
+        return true;
+      }
+
+      for(final BlockState state : this.states) {
+        if(state != null && predicate.test(state)) {
+          return true;
+        }
+      }
+
+      return false;
+    }
+
+    /**
+     * @param index <code>y &lt;&lt; 8 | z &lt;&lt; 4 | x</code> within the section
+     *
+     * @return the block at the index, or null if its palette entry is missing
+     */
+    @Nullable
+    BlockState get(final int index) {
+      // Entries may span two longs, as in BitArray
+      final int bit = index * this.bits;
+      final int word = bit >> 6;
+      final int last = (index + 1) * this.bits - 1 >> 6;
+      final int offset = bit & 63;
+
+      final int id;
+      if(word == last) {
+        id = (int)(this.data[word] >>> offset & this.mask);
+      } else {
+        id = (int)((this.data[word] >>> offset | this.data[last] << 64 - offset) & this.mask);
+      }
+
+      if(this.states == null) {
+        return Block.BLOCK_STATE_IDS.getByValue(id);
+      }
+
+      return id < this.states.length ? this.states[id] : null;
+    }
+  }
+}
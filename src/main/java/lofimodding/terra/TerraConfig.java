@@ -0,0 +1,208 @@
+package lofimodding.terra;
+
+import com.google.common.collect.ImmutableSet;
+import net.minecraft.util.ResourceLocation;
+import net.minecraftforge.common.ForgeConfigSpec;
+import net.minecraftforge.fml.config.ModConfig;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Common config.  Values are baked into plain fields when the config loads so that generation code and the offline
+ * tools can read them without a loaded config spec.
+ */
+public final class TerraConfig {
+  public static final ForgeConfigSpec SPEC;
+
+  private static final ForgeConfigSpec.BooleanValue GENERATION_ENABLED;
+  private static final ForgeConfigSpec.ConfigValue<List<? extends String>> DIMENSIONS;
+  private static final ForgeConfigSpec.BooleanValue PARALLEL_VEINS;
+  private static final ForgeConfigSpec.BooleanValue LAZY_VEINS;
+  private static final ForgeConfigSpec.IntValue MAX_VEIN_SAMPLES;
+  private static final ForgeConfigSpec.IntValue MAX_VEIN_PLACEMENTS;
+  private static final ForgeConfigSpec.IntValue MAX_CHUNK_SAMPLES;
+  private static final ForgeConfigSpec.IntValue MAX_CHUNK_PLACEMENTS;
+  private static final ForgeConfigSpec.BooleanValue RECORD_WORKLOAD;
+  private static final ForgeConfigSpec.BooleanValue SCRUB_REMOVED_ORES;
+  private static final ForgeConfigSpec.BooleanValue DEFERRED_IN_CHUNKS;
+
+  private static final ForgeConfigSpec.BooleanValue RETROGEN_ENABLED;
+  private static final ForgeConfigSpec.IntValue RETROGEN_RADIUS;
+  private static final ForgeConfigSpec.IntValue RETROGEN_BUDGET_MICROS;
+  private static final ForgeConfigSpec.IntValue RETROGEN_MAX_TICK_MILLIS;
+  private static final ForgeConfigSpec.IntValue RETROGEN_MAX_PENDING;
+  private static final ForgeConfigSpec.BooleanValue RETROGEN_STRIP_ORES;
+
+  public static boolean generationEnabled = true;
+  public static Set<ResourceLocation> dimensions = Collections.singleton(new ResourceLocation("minecraft", "overworld"));
+  public static boolean parallelVeins;
+  public static boolean lazyVeins;
+  public static int maxVeinSamples = 100000;
+  public static int maxVeinPlacements = 20000;
+  public static int maxChunkSamples = 400000;
+  public static int maxChunkPlacements = 80000;
+  public static boolean recordWorkload;
+  public static boolean scrubRemovedOres;
+  public static boolean deferredInChunks;
+
+  public static boolean retrogenEnabled;
+  public static int retrogenRadius = 256;
+  public static int retrogenBudgetMicros = 5000;
+  public static int retrogenMaxTickMillis = 45;
+  public static int retrogenMaxPending = 8;
+  public static boolean retrogenStripOres = true;
+
+  static {
+    final ForgeConfigSpec.Builder builder = new ForgeConfigSpec.Builder();
+
+    builder.push("generation");
+
+    GENERATION_ENABLED = builder
+      .comment(
+        "Generate Terra veins while chunks are decorated.",
+        "Disable while pregenerating a map that the offline pregeneration tool will populate afterwards."
+      )
+      .define("enabled", true);
+
+    DIMENSIONS = builder
+      .comment(
+        "Dimensions Terra generates veins and applies deferred blocks in.",
+        "Chunks in any other dimension skip Terra entirely."
+      )
+      .defineList("dimensions", Collections.singletonList("minecraft:overworld"), id -> id instanceof String && ResourceLocation.tryCreate((String)id) != null);
+
+    PARALLEL_VEINS = builder
+      .comment(
+        "Trace the veins starting in a chunk in parallel, on the world-gen worker pool, before writing them in order.",
+        "Generates the same world as serial generation; helps when there are more cores than chunks generating at once."
+      )
+      .define("parallelVeins", false);
+
+    LAZY_VEINS = builder
+      .comment(
+        "Record where veins start during decoration and only generate them once a player first sees a chunk they reach.",
+        "Veins use the same seeds and per-chunk budget as normal generation, but blocks placed later in decoration, such as caves from mods or structures, are no longer carved through them.",
+        "A chunk's veins wait until that chunk is loaded, and their blocks for unloaded chunks are placed when a player first watches those chunks."
+      )
+      .define("lazyVeins", false);
+
+    builder.comment(
+      "Limits that stop a misconfigured vein from stalling world generation.",
+      "Samples are the points a vein picks while it is traced, placements the distinct blocks it picks.",
+      "Veins over a limit are cut short at the same point every time, so the world stays reproducible."
+    ).push("budgets");
+
+    MAX_VEIN_SAMPLES = builder
+      .comment("Samples one vein may take")
+      .defineInRange("maxVeinSamples", 100000, 1, Integer.MAX_VALUE);
+
+    MAX_VEIN_PLACEMENTS = builder
+      .comment("Blocks one vein may place")
+      .defineInRange("maxVeinPlacements", 20000, 1, Integer.MAX_VALUE);
+
+    MAX_CHUNK_SAMPLES = builder
+      .comment("Samples the veins starting in one chunk may take; later veins are skipped once it is used up")
+      .defineInRange("maxChunkSamples", 400000, 1, Integer.MAX_VALUE);
+
+    MAX_CHUNK_PLACEMENTS = builder
+      .comment("Blocks the veins starting in one chunk may place; later veins are skipped once it is used up")
+      .defineInRange("maxChunkPlacements", 80000, 1, Integer.MAX_VALUE);
+
+    builder.pop();
+
+    RECORD_WORKLOAD = builder
+      .comment(
+        "Record every vein and deferred chunk Terra generates to logs/terra-workload-*.bin.gz while the server runs.",
+        "Recordings can be replayed offline with lofimodding.terra.offline.WorkloadReplay to benchmark and check changes."
+      )
+      .define("recordWorkload", false);
+
+    SCRUB_REMOVED_ORES = builder
+      .comment(
+        "Before Terra places its veins in a chunk, replace ores removed through the remove_ore IMC with stone (netherrack in the nether).",
+        "Catches ores placed by other mods' own ore features, which run first, while keeping Terra's veins of those ores.",
+        "Sections whose palette holds no removed ore are skipped cheaply."
+      )
+      .define("scrubRemovedOres", false);
+
+    DEFERRED_IN_CHUNKS = builder
+      .comment(
+        "Store blocks deferred to chunks that already exist on disk in those chunks' own data.",
+        "Keeps the global terra_deferred_ore data small; blocks already kept in chunks are still applied after disabling this."
+      )
+      .define("deferredInChunks", false);
+
+    builder.pop();
+
+    builder.comment(
+      "Adds Terra veins to chunks that were generated before Terra was installed.",
+      "Terra records every chunk it decorates, so a world that already had Terra before retrogen tracking existed will get a second set of veins."
+    ).push("retrogen");
+
+    RETROGEN_ENABLED = builder
+      .comment("Enable background retrogen")
+      .define("enabled", false);
+
+    RETROGEN_RADIUS = builder
+      .comment("Radius around the world spawn, in chunks, to retrogen")
+      .defineInRange("radius", 256, 0, 1875000);
+
+    RETROGEN_BUDGET_MICROS = builder
+      .comment("Time each server tick may spend on retrogen, in microseconds")
+      .defineInRange("budgetMicros", 5000, 100, 50000);
+
+    RETROGEN_MAX_TICK_MILLIS = builder
+      .comment("Retrogen pauses while the average tick time is above this, in milliseconds")
+      .defineInRange("maxTickMillis", 45, 1, 1000);
+
+    RETROGEN_MAX_PENDING = builder
+      .comment("Number of chunks that may be loading for retrogen at once")
+      .defineInRange("maxPendingChunks", 8, 1, 256);
+
+    RETROGEN_STRIP_ORES = builder
+      .comment("Replace ores removed through the remove_ore IMC with stone (netherrack in the nether)")
+      .define("stripRemovedOres", true);
+
+    builder.pop();
+
+    SPEC = builder.build();
+  }
+
+  private TerraConfig() { }
+
+  static void onLoad(final ModConfig.Loading event) {
+    if(event.getConfig().getSpec() == SPEC) {
+      bake();
+    }
+  }
+
+  static void onReload(final ModConfig.ConfigReloading event) {
+    if(event.getConfig().getSpec() == SPEC) {
+      bake();
+    }
+  }
+
+  private static void bake() {
+    generationEnabled = GENERATION_ENABLED.get();
+    dimensions = DIMENSIONS.get().stream().map(ResourceLocation::new).collect(ImmutableSet.toImmutableSet());
+    VeinRegistry.clearDimensions();
+    parallelVeins = PARALLEL_VEINS.get();
+    lazyVeins = LAZY_VEINS.get();
+    maxVeinSamples = MAX_VEIN_SAMPLES.get();
+    maxVeinPlacements = MAX_VEIN_PLACEMENTS.get();
+    maxChunkSamples = MAX_CHUNK_SAMPLES.get();
+    maxChunkPlacements = MAX_CHUNK_PLACEMENTS.get();
+    recordWorkload = RECORD_WORKLOAD.get();
+    scrubRemovedOres = SCRUB_REMOVED_ORES.get();
+    deferredInChunks = DEFERRED_IN_CHUNKS.get();
+
+    retrogenEnabled = RETROGEN_ENABLED.get();
+    retrogenRadius = RETROGEN_RADIUS.get();
+    retrogenBudgetMicros = RETROGEN_BUDGET_MICROS.get();
+    retrogenMaxTickMillis = RETROGEN_MAX_TICK_MILLIS.get();
+    retrogenMaxPending = RETROGEN_MAX_PENDING.get();
+    retrogenStripOres = RETROGEN_STRIP_ORES.get();
+  }
+}
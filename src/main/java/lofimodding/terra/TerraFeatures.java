@@ -0,0 +1,131 @@
+package lofimodding.terra;
+
+import net.minecraft.block.Block;
+import net.minecraft.util.ResourceLocation;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.math.ChunkPos;
+import net.minecraft.world.biome.Biome;
+import net.minecraft.world.gen.GenerationStage;
+import net.minecraft.world.gen.feature.ConfiguredFeature;
+import net.minecraft.world.gen.feature.DecoratedFeatureConfig;
+import net.minecraft.world.gen.feature.OreFeature;
+import net.minecraft.world.gen.feature.OreFeatureConfig;
+import net.minecraft.world.gen.placement.IPlacementConfig;
+import net.minecraft.world.gen.placement.Placement;
+import net.minecraftforge.registries.ForgeRegistries;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Changes Terra makes to biome feature lists, and the lookups that depend on them.  The game and the offline tools both
+ * go through here, so veins are seeded from the same feature index and biome in both.
+ */
+public final class TerraFeatures {
+  /** Ores removed through the <code>remove_ore</code> IMC, recorded in the config dir for the offline tools */
+  private static final String REMOVED_ORES = "removed_ores.txt";
+
+  private TerraFeatures() { }
+
+  private static ConfiguredFeature<?, ?> unwrap(ConfiguredFeature<?, ?> feature) {
+    if(feature.config instanceof DecoratedFeatureConfig) {
+      feature = ((DecoratedFeatureConfig)feature.config).feature;
+    }
+
+    return feature;
+  }
+
+  /**
+   * Strips the vanilla ore features that place any of <code>ores</code> from the biome
+   */
+  public static void removeOres(final Biome biome, final Set<Block> ores) {
+    if(ores.isEmpty()) {
+      return;
+    }
+
+    final Iterator<ConfiguredFeature<?, ?>> it = biome.getFeatures(GenerationStage.Decoration.UNDERGROUND_ORES).iterator();
+    while(it.hasNext()) {
+      final ConfiguredFeature<?, ?> feature = unwrap(it.next());
+
+      if(feature.feature instanceof OreFeature && ores.contains(((OreFeatureConfig)feature.config).state.getBlock())) {
+        it.remove();
+      }
+    }
+  }
+
+  /**
+   * Adds the biome's {@link TerraVeinBatch} after its ore features.  Every biome gets one, even without veins, so blocks
+   * deferred to its chunks are still applied.
+   */
+  public static TerraVeinBatchConfig addVeins(final Biome biome) {
+    final int featureIndex = biome.getFeatures(GenerationStage.Decoration.UNDERGROUND_ORES).size();
+    final TerraVeinBatchConfig config = new TerraVeinBatchConfig(VeinRegistry.getVeins(biome), featureIndex);
+    biome.addFeature(GenerationStage.Decoration.UNDERGROUND_ORES, TerraVeinBatch.INSTANCE.withConfiguration(config).withPlacement(Placement.NOPE.configure(IPlacementConfig.NO_PLACEMENT_CONFIG)));
+    return config;
+  }
+
+  /**
+   * @return the config of the biome's {@link TerraVeinBatch}, or null if {@link #addVeins} hasn't run for it
+   */
+  @Nullable
+  public static TerraVeinBatchConfig getVeins(final Biome biome) {
+    for(final ConfiguredFeature<?, ?> feature : biome.getFeatures(GenerationStage.Decoration.UNDERGROUND_ORES)) {
+      final ConfiguredFeature<?, ?> unwrapped = unwrap(feature);
+
+      if(unwrapped.feature instanceof TerraVeinBatch) {
+        return (TerraVeinBatchConfig)unwrapped.config;
+      }
+    }
+
+    return null;
+  }
+
+  /**
+   * @return where decoration looks up a chunk's biome
+   */
+  public static BlockPos getBiomePos(final ChunkPos pos) {
+    return new BlockPos(pos.getXStart() + 8, 8, pos.getZStart() + 8);
+  }
+
+  public static void writeRemovedOres(final Path configDir, final Set<Block> ores) {
+    try {
+      Files.createDirectories(configDir);
+      Files.write(configDir.resolve(REMOVED_ORES), ores.stream().map(ore -> ore.getRegistryName().toString()).sorted().collect(Collectors.toList()), StandardCharsets.UTF_8);
+    } catch(final IOException e) {
+      TerraMod.LOGGER.warn("Failed to record removed ores for the offline tools", e);
+    }
+  }
+
+  /**
+   * @return the ores the game last removed, skipping any that aren't registered
+   */
+  public static Set<Block> readRemovedOres(final Path configDir) throws IOException {
+    final Path file = configDir.resolve(REMOVED_ORES);
+
+    if(!Files.exists(file)) {
+      return Collections.emptySet();
+    }
+
+    final Set<Block> ores = new HashSet<>();
+
+    for(final String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+      final ResourceLocation id = ResourceLocation.tryCreate(line.trim());
+
+      if(id != null && ForgeRegistries.BLOCKS.containsKey(id)) {
+        ores.add(ForgeRegistries.BLOCKS.getValue(id));
+      } else if(!line.trim().isEmpty()) {
+        TerraMod.LOGGER.warn("Removed ore {} isn't available offline", line);
+      }
+    }
+
+    return ores;
+  }
+}
@@ -3,25 +3,20 @@ package lofimodding.terra;
 import net.minecraft.block.Block;
 import net.minecraft.util.ResourceLocation;
 import net.minecraft.world.biome.Biome;
-import net.minecraft.world.gen.GenerationStage;
-import net.minecraft.world.gen.feature.ConfiguredFeature;
-import net.minecraft.world.gen.feature.DecoratedFeatureConfig;
-import net.minecraft.world.gen.feature.Feature;
-import net.minecraft.world.gen.feature.IFeatureConfig;
-import net.minecraft.world.gen.feature.OreFeature;
-import net.minecraft.world.gen.feature.OreFeatureConfig;
-import net.minecraft.world.gen.placement.IPlacementConfig;
-import net.minecraft.world.gen.placement.Placement;
+import net.minecraftforge.common.MinecraftForge;
+import net.minecraftforge.fml.ModLoadingContext;
 import net.minecraftforge.fml.common.Mod;
+import net.minecraftforge.fml.config.ModConfig;
 import net.minecraftforge.fml.event.lifecycle.FMLLoadCompleteEvent;
 import net.minecraftforge.fml.event.lifecycle.InterModProcessEvent;
 import net.minecraftforge.fml.javafmlmod.FMLJavaModLoadingContext;
+import net.minecraftforge.fml.loading.FMLPaths;
 import net.minecraftforge.registries.ForgeRegistries;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import java.nio.file.Path;
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.Set;
 import java.util.function.Supplier;
 
@@ -31,41 +26,65 @@ public class TerraMod {
   public static final Logger LOGGER = LogManager.getLogger(MOD_ID);
 
   private final Set<Block> oresToRemove = new HashSet<>();
+  private final OreScrubber scrubber = new OreScrubber(this.oresToRemove);
 
   public TerraMod() {
+    ModLoadingContext.get().registerConfig(ModConfig.Type.COMMON, TerraConfig.SPEC);
+
     FMLJavaModLoadingContext.get().getModEventBus().addListener(this::loadComplete);
     FMLJavaModLoadingContext.get().getModEventBus().addListener(this::processIMC);
+    FMLJavaModLoadingContext.get().getModEventBus().addListener(TerraConfig::onLoad);
+    FMLJavaModLoadingContext.get().getModEventBus().addListener(TerraConfig::onReload);
+
+    TerraVeinBatch.INSTANCE.setScrubber(this.scrubber);
+
+    final Retrogen retrogen = new Retrogen(this.scrubber);
+    MinecraftForge.EVENT_BUS.addListener(retrogen::onServerTick);
+    MinecraftForge.EVENT_BUS.addListener(retrogen::onServerStopped);
+    MinecraftForge.EVENT_BUS.addListener(LazyVeins::onWatch);
+    MinecraftForge.EVENT_BUS.addListener(SavedDataIO::onWorldLoad);
+    MinecraftForge.EVENT_BUS.addListener(RetrogenStorage::onWorldLoad);
+    MinecraftForge.EVENT_BUS.addListener(SavedDataIO::onWorldUnload);
+    MinecraftForge.EVENT_BUS.addListener(SavedDataIO::onServerStopped);
+    MinecraftForge.EVENT_BUS.addListener(ChunkDeferredData::onLoad);
+    MinecraftForge.EVENT_BUS.addListener(ChunkDeferredData::onSave);
+    MinecraftForge.EVENT_BUS.addListener(WorkloadRecorder::onServerStarted);
+    MinecraftForge.EVENT_BUS.addListener(WorkloadRecorder::onServerStopping);
+  }
+
+  private static void checkBudget(final VeinDefinition vein) {
+    long worstSamples = 0;
+    int worstDepth = 0;
+
+    for(int depth = 0; depth < DepthTable.SIZE; depth++) {
+      final long samples = vein.config.worstCaseSamples(depth);
+
+      if(samples > worstSamples) {
+        worstSamples = samples;
+        worstDepth = depth;
+      }
+    }
+
+    if(worstSamples > TerraConfig.maxVeinSamples) {
+      LOGGER.warn("Vein {} can sample up to {} points at depth {}, over the budget of {}; veins past the budget will be cut short", vein.id, worstSamples, worstDepth, TerraConfig.maxVeinSamples);
+    }
   }
 
   private void loadComplete(final FMLLoadCompleteEvent event) {
+    final Path configDir = FMLPaths.CONFIGDIR.get().resolve(MOD_ID);
+    VeinLoader.load(configDir).forEach(VeinRegistry::register);
+    VeinRegistry.getAll().forEach(TerraMod::checkBudget);
+    VeinRegistry.compile(Biome.BIOMES);
+
     if(!this.oresToRemove.isEmpty()) {
       LOGGER.info("Removing vanilla ore generation for the following ores: {}", this.oresToRemove);
     }
 
-    for(final Biome biome : Biome.BIOMES) {
-      if(!this.oresToRemove.isEmpty()) {
-        final Iterator<ConfiguredFeature<?, ?>> it = biome.getFeatures(GenerationStage.Decoration.UNDERGROUND_ORES).iterator();
-        while(it.hasNext()) {
-          ConfiguredFeature<?, ?> configuredFeature = it.next();
-
-          if(configuredFeature.config instanceof DecoratedFeatureConfig) {
-            configuredFeature = ((DecoratedFeatureConfig)configuredFeature.config).feature;
-          }
-
-          final Feature<?> feature = configuredFeature.feature;
-
-          if(feature instanceof OreFeature) {
-            final OreFeatureConfig config = (OreFeatureConfig)configuredFeature.config;
-            final Block ore = config.state.getBlock();
-
-            if(this.oresToRemove.contains(ore)) {
-              it.remove();
-            }
-          }
-        }
-      }
+    TerraFeatures.writeRemovedOres(configDir, this.oresToRemove);
 
-      biome.addFeature(GenerationStage.Decoration.UNDERGROUND_ORES, DeferredGenerator.INSTANCE.withConfiguration(IFeatureConfig.NO_FEATURE_CONFIG).withPlacement(Placement.NOPE.configure(IPlacementConfig.NO_PLACEMENT_CONFIG)));
+    for(final Biome biome : Biome.BIOMES) {
+      TerraFeatures.removeOres(biome, this.oresToRemove);
+      TerraFeatures.addVeins(biome);
     }
   }
 
@@ -6,6 +6,7 @@ import lofimodding.terra.joml.Vector3f;
 import net.minecraft.block.BlockState;
 import net.minecraft.tags.BlockTags;
 import net.minecraft.util.Direction;
+import net.minecraft.util.ResourceLocation;
 import net.minecraft.util.math.BlockPos;
 import net.minecraft.util.math.ChunkPos;
 import net.minecraft.world.IWorld;
@@ -13,17 +14,26 @@ import net.minecraft.world.World;
 import net.minecraft.world.gen.ChunkGenerator;
 import net.minecraft.world.gen.GenerationSettings;
 import net.minecraft.world.gen.feature.Feature;
-import net.minecraft.world.server.ServerWorld;
 
+import javax.annotation.Nullable;
+import java.util.AbstractMap;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Function;
 
 public class TerraOreVein extends Feature<TerraOreVeinConfig> {
   private static final float PI = (float)Math.PI;
+  private static final float GOLDEN_ANGLE = PI * (3.0f - (float)Math.sqrt(5.0f));
+
+  /** Configs that went over a budget, so each is only logged once */
+  private static final Set<TerraOreVeinConfig> REPORTED = Collections.newSetFromMap(new ConcurrentHashMap<>());
 
   public static final TerraOreVein INSTANCE = new TerraOreVein(TerraOreVeinConfig::deserialize);
 
@@ -31,113 +41,209 @@ public class TerraOreVein extends Feature<TerraOreVeinConfig> {
     super(config);
   }
 
-  private final OreGenState state = new OreGenState();
-
   @Override
   public boolean place(final IWorld world, final ChunkGenerator<? extends GenerationSettings> generator, final Random rand, final BlockPos start, final TerraOreVeinConfig config) {
-    this.state.setDepth(start.getY());
+    if(!TerraConfig.generationEnabled) {
+      return false;
+    }
 
-    final int minLength = config.minLength.apply(this.state);
-    final int maxLength = config.maxLength.apply(this.state);
+    return this.generate(new LiveVeinWorld(world, ChunkContext.get(world, new ChunkPos(start))), rand, start, config);
+  }
 
-    final int length = rand.nextInt(maxLength - minLength + 1) + minLength;
+  public boolean generate(final VeinWorld world, final Random random, final BlockPos start, final TerraOreVeinConfig config) {
+    return this.generate(world, VeinRandom.forVein(random, start), start, config);
+  }
 
-    // Initial position
-    final Matrix3f rotation = new Matrix3f();
-    final Vector3f pos = new Vector3f();
-    final Vector3f root = new Vector3f(start.getX(), start.getY(), start.getZ());
+  public boolean generate(final VeinWorld world, final VeinRandom rand, final BlockPos start, final TerraOreVeinConfig config) {
+    final long startTime = WorkloadRecorder.isRecording() ? System.nanoTime() : 0L;
+    final Shape shape = this.begin(rand, start, config, world.getContext());
+
+    if(!this.probe(world, shape)) {
+      WorkloadRecorder.recordVein(shape, false, false, startTime);
+      return false;
+    }
+
+    this.trace(shape);
+    final boolean written = this.write(world, shape);
+    WorkloadRecorder.recordVein(shape, true, written, startTime);
+    return written;
+  }
+
+  /**
+   * Draws a vein's length, direction and stages.  Shapes only read the config and their own random, so they can be
+   * built on any thread.
+   */
+  public Shape begin(final VeinRandom rand, final BlockPos start, final TerraOreVeinConfig config, @Nullable final ChunkContext context) {
+    final Shape shape = new Shape(rand, start, config, context);
+    final OreGenState state = shape.state;
+
+    final int minLength = config.minLength.applyInt(state);
+    final int maxLength = config.maxLength.applyInt(state);
+
+    shape.length = rand.nextInt(maxLength - minLength + 1) + minLength;
 
     // Initial rotation
-    float xRotation = rand.nextFloat() * PI * 2;
-    float yRotation = rand.nextFloat() * PI * 2;
-    float zRotation = rand.nextFloat() * PI * 2;
-    rotation.rotateXYZ(xRotation, yRotation, zRotation);
+    shape.xRotation = rand.nextFloat() * PI * 2;
+    shape.yRotation = rand.nextFloat() * PI * 2;
+    shape.zRotation = rand.nextFloat() * PI * 2;
 
-    final BlockPos.Mutable blockPos = new BlockPos.Mutable();
+    int stageMask = 0;
 
-    final List<TerraOreVeinConfig.Stage> stages = new ArrayList<>();
+    for(int i = 0; i < config.stages.length; i++) {
+      final TerraOreVeinConfig.Stage stage = config.stages[i];
 
-    for(final TerraOreVeinConfig.Stage stage : config.stages) {
-      if(stage.stageSpawnChance.apply(this.state) >= rand.nextFloat()) {
-        stages.add(stage);
+      if(stage.stageSpawnChance.applyFloat(state) >= rand.nextFloat()) {
+        shape.stages.add(stage);
+        stageMask |= 1 << i;
       }
     }
 
-    final Map<BlockPos, List<TerraOreVeinConfig.Replacer>> oresToPlace = new HashMap<>();
-    final Map<BlockPos, BlockState> pebblesToPlace = new HashMap<>();
+    if(config.templateCache != null && config.stages.length <= VeinTemplates.MAX_STAGES) {
+      final int length = shape.length;
+      final int mask = stageMask;
+      final long key = VeinTemplates.key(start.getY(), length, mask);
+      final VeinTemplates.Template[] templates = config.templateCache.get(key, i -> this.buildTemplate(config, start.getY() & ~15 | 8, length, mask, VeinTemplates.seed(key, i)));
 
-    // 1/x chance for a vein to change direction by up to 45 degrees total (across all axes).
-    // Each block that is generated will decrease this value, making it more likely that the
-    // vein will change directions.  If it changes directions, the divisor is incremented by 30.
-    int changeDirectionDivisor = 30;
-    int segmentIndex = 0;
+      shape.template = templates[rand.nextInt(templates.length)];
+      shape.templateRotation = rand.nextInt(VeinTemplates.rotations());
+    }
 
-    for(int blockIndex = 0; blockIndex < length; blockIndex++, segmentIndex++) {
-      // Change direction?
-      if(rand.nextInt(changeDirectionDivisor) == 0) {
-        changeDirectionDivisor += 30;
+    return shape;
+  }
 
-        float rotationChangeBudget = PI / 2;
-        float rotationChange = rand.nextFloat() * rotationChangeBudget;
-        rotationChangeBudget -= rotationChange;
-        xRotation += rand.nextFloat() * rotationChange - rotationChange / 2;
-        rotationChange = rand.nextFloat() * rotationChangeBudget;
-        rotationChangeBudget -= rotationChange;
-        yRotation += rand.nextFloat() * rotationChange - rotationChange / 2;
-        rotationChange = rand.nextFloat() * rotationChangeBudget;
-        zRotation += rand.nextFloat() * rotationChange - rotationChange / 2;
+  /**
+   * @return how far from its start, in blocks, a vein starting at the given depth can place ores or pebbles
+   */
+  public static int reach(final TerraOreVeinConfig config, final int depth) {
+    final OreGenState state = new OreGenState();
+    state.setDepth(depth);
 
-        rotation.rotateXYZ(xRotation, yRotation, zRotation);
-        root.add(pos);
-        segmentIndex = 0;
+    int radius = 0;
+    for(final TerraOreVeinConfig.Stage stage : config.stages) {
+      radius = Math.max(radius, stage.maxRadius.applyInt(state));
+    }
+
+    return config.maxLength.applyInt(state) + radius + 1;
+  }
+
+  /**
+   * Traces a vein at the middle of a depth band and records it relative to its start
+   */
+  private VeinTemplates.Template buildTemplate(final TerraOreVeinConfig config, final int y, final int length, final int stageMask, final long seed) {
+    final Shape shape = new Shape(new VeinRandom(seed), new BlockPos(0, y, 0), config, null);
+    shape.length = length;
+    shape.xRotation = shape.rand.nextFloat() * PI * 2;
+    shape.yRotation = shape.rand.nextFloat() * PI * 2;
+    shape.zRotation = shape.rand.nextFloat() * PI * 2;
+
+    for(int i = 0; i < config.stages.length; i++) {
+      if((stageMask & 1 << i) != 0) {
+        shape.stages.add(config.stages[i]);
       }
+    }
 
-      // More likely to change direction the longer we go without doing so
-      changeDirectionDivisor--;
+    shape.recorder = new VeinTemplates.Builder();
+    this.trace(shape);
+    return shape.recorder.build();
+  }
 
-      final ChunkPos startingChunk = new ChunkPos(start);
+  /**
+   * Walks the vein and records every block it would place, without touching the world
+   */
+  public void trace(final Shape shape) {
+    final Cursor cursor = new Cursor(shape);
+    final int maxSamples = TerraConfig.maxVeinSamples;
+    final int maxPlacements = TerraConfig.maxVeinPlacements;
+
+    while(cursor.next()) {
+      if(cursor.isOre()) {
+        if(shape.samples >= maxSamples) {
+          reportTruncated(shape, "samples", maxSamples);
+          return;
+        }
 
-      for(final TerraOreVeinConfig.Stage stage : stages) {
-        final int minRadius = stage.minRadius.apply(this.state);
-        final int maxRadius = stage.maxRadius.apply(this.state);
-        final int blockCount = Math.round((maxRadius * maxRadius - minRadius * minRadius) * stage.blockDensity.apply(this.state));
+        if(shape.getPlacements() >= maxPlacements) {
+          reportTruncated(shape, "placements", maxPlacements);
+          return;
+        }
 
-        for(int i = 0; i < blockCount; i++) {
-          final int radius = rand.nextInt(maxRadius - minRadius + 1) + minRadius;
-          final float angle = rand.nextFloat() * PI * 2;
+        shape.samples++;
+        shape.digest(cursor);
+        this.placeBlock(shape, cursor.getPos(), cursor.getIndex());
+      } else {
+        shape.digest(cursor);
+        this.placePebble(shape, cursor.getIndex(), cursor.getPos().getX(), cursor.getPos().getY(), cursor.getPos().getZ());
+      }
+    }
+  }
 
-          pos.set(segmentIndex, (float)Math.sin(angle) * radius, (float)Math.cos(angle) * radius);
-          pos.mul(rotation);
+  private static void reportTruncated(final Shape shape, final String budget, final int limit) {
+    shape.truncated = true;
 
-          blockPos.setPos(root.x + pos.x, root.y + pos.y, root.z + pos.z);
+    if(REPORTED.add(shape.config)) {
+      final ResourceLocation id = VeinRegistry.getId(shape.config);
+      // Templates are traced at the origin, away from any real vein
+      final String where = shape.recorder != null ? "in a template" : "in chunk " + shape.startingChunk;
+      TerraMod.LOGGER.warn("Vein {} at depth {} {} ran out of {} ({}) and was cut short; later veins of this config are not reported", id, shape.start.getY(), where, budget, limit);
+    }
+  }
 
-          this.placeBlock(oresToPlace, world, startingChunk, blockPos, stage.ores);
-        }
-      }
+  /**
+   * Writes a traced vein to the world
+   *
+   * @return false if too few of the vein's ores could be placed for its pebbles to be placed
+   */
+  public boolean write(final VeinWorld world, final Shape shape) {
+    final Map<BlockPos, BlockState> pebblesToPlace = new HashMap<>();
 
-      for(final TerraOreVeinConfig.Pebble pebble : config.pebbles) {
-        if(rand.nextFloat() <= pebble.density) {
-          this.placePebble(pebblesToPlace, world, startingChunk, pebble.pebble, (int)(root.x + pos.x), (int)(root.z + pos.z));
-        }
+    for(final Map.Entry<BlockPos, BlockState> pebble : shape.pebbles) {
+      final BlockPos pos = world.findSurface(pebble.getKey().getX(), pebble.getKey().getZ());
+
+      if(world.canPlacePebble(pebble.getValue(), pos)) {
+        pebblesToPlace.put(pos, pebble.getValue());
       }
     }
 
+    final VeinIndex index = world.getVeinIndex();
+    final VeinIndex.Tracker tracker = index == null ? null : new VeinIndex.Tracker();
+
+    // Deferred ores are indexed by DeferredGenerator once they are placed
+    shape.deferredOres.forEach((pos, replacers) -> world.deferOre(new ChunkPos(pos), pos, replacers));
+    shape.deferredPebbles.forEach((pos, pebble) -> world.deferPebble(new ChunkPos(pos), pos, pebble));
+
     int placed = 0;
-    for(final Map.Entry<BlockPos, List<TerraOreVeinConfig.Replacer>> block : oresToPlace.entrySet()) {
-      final BlockState state = world.getBlockState(block.getKey());
+    for(final Map.Entry<BlockPos, List<TerraOreVeinConfig.Replacer>> block : shape.ores.entrySet()) {
+      if(!world.mayHost(block.getKey(), block.getValue())) {
+        continue;
+      }
+
+      final BlockState oldState = world.getBlockState(block.getKey());
 
       for(final TerraOreVeinConfig.Replacer replacer : block.getValue()) {
-        if(state.isReplaceableOreGen(world, block.getKey(), replacer)) {
-          this.setBlockState(world, block.getKey(), replacer.blockToPlace);
+        if(world.isReplaceable(oldState, block.getKey(), replacer)) {
+          world.setBlockState(block.getKey(), replacer.blockToPlace);
           placed++;
+
+          if(tracker != null) {
+            tracker.add(block.getKey(), replacer.blockToPlace.getBlock());
+          }
+
           break;
         }
       }
     }
 
-    if((float)placed / oresToPlace.size() >= 1.0f / 3.0f) {
+    if(index != null) {
+      final ResourceLocation id = VeinRegistry.getId(shape.config);
+
+      if(id != null) {
+        index.add(id, tracker);
+      }
+    }
+
+    if((float)placed / shape.ores.size() >= shape.config.minYield) {
       for(final Map.Entry<BlockPos, BlockState> block : pebblesToPlace.entrySet()) {
-        this.setBlockState(world, block.getKey(), block.getValue());
+        world.setBlockState(block.getKey(), block.getValue());
       }
 
       return true;
@@ -146,19 +252,84 @@ public class TerraOreVein extends Feature<TerraOreVeinConfig> {
     return false;
   }
 
-  private void placePebble(final Map<BlockPos, BlockState> blocksToPlace, final IWorld world, final ChunkPos startingChunk, final BlockState pebble, final int x, final int z) {
-    final int chunkX = x >> 4;
-    final int chunkZ = z >> 4;
+  /**
+   * Tests evenly spaced points along the vein's initial direction, which it follows until its first direction change,
+   * and predicts whether enough of the vein will be replaceable to be worth placing.  Only points in the starting
+   * chunk count, as with the yield check after placement.
+   */
+  public boolean probe(final VeinWorld world, final Shape shape) {
+    final TerraOreVeinConfig config = shape.config;
+
+    if(config.probeSamples <= 0 || shape.stages.isEmpty()) {
+      return true;
+    }
 
-    final ChunkPos chunkPos = new ChunkPos(chunkX, chunkZ);
+    final List<TerraOreVeinConfig.Stage> stages = shape.stages;
+    final ChunkPos startingChunk = shape.startingChunk;
+    final int length = shape.length;
+    final TerraOreVeinConfig.Stage firstStage = stages.get(0);
+    final int radius = (firstStage.minRadius.applyInt(shape.state) + firstStage.maxRadius.applyInt(shape.state)) / 2;
 
-    if(!chunkPos.equals(startingChunk)) {
-      final DeferredGenerationStorage deferredOres = DeferredGenerationStorage.get((ServerWorld)world.getWorld());
-      deferredOres.getPebbles(chunkPos).put(new BlockPos(x, 0, z), pebble);
-      deferredOres.markDirty();
-      return;
+    final Matrix3f rotation = new Matrix3f();
+    rotation.rotateXYZ(shape.xRotation, shape.yRotation, shape.zRotation);
+    final Vector3f root = new Vector3f(shape.start.getX(), shape.start.getY(), shape.start.getZ());
+    final Vector3f pos = new Vector3f();
+    final BlockPos.Mutable blockPos = new BlockPos.Mutable();
+
+    int probed = 0;
+    int replaceable = 0;
+
+    for(int i = 0; i < config.probeSamples; i++) {
+      if(shape.template != null) {
+        // Templates are probed at evenly spaced ores of the template itself
+        if(shape.template.ores.length == 0) {
+          break;
+        }
+
+        VeinTemplates.unpack(shape.template.ores[i * shape.template.ores.length / config.probeSamples], shape.templateRotation, shape.start, blockPos);
+      } else {
+        final float angle = i * GOLDEN_ANGLE;
+
+        pos.set((float)(i * length) / config.probeSamples, (float)Math.sin(angle) * radius, (float)Math.cos(angle) * radius);
+        pos.mul(rotation);
+
+        blockPos.setPos(root.x + pos.x, root.y + pos.y, root.z + pos.z);
+      }
+
+      if(World.isOutsideBuildHeight(blockPos) || blockPos.getX() >> 4 != startingChunk.x || blockPos.getZ() >> 4 != startingChunk.z) {
+        continue;
+      }
+
+      probed++;
+
+      BlockState state = null;
+
+      stages:
+      for(final TerraOreVeinConfig.Stage stage : stages) {
+        if(!world.mayHost(blockPos, stage.ores)) {
+          continue;
+        }
+
+        if(state == null) {
+          state = world.getBlockState(blockPos);
+        }
+
+        for(final TerraOreVeinConfig.Replacer replacer : stage.ores) {
+          if(world.isReplaceable(state, blockPos, replacer)) {
+            replaceable++;
+            break stages;
+          }
+        }
+      }
     }
 
+    return probed == 0 || (float)replaceable / probed >= config.minYield;
+  }
+
+  /**
+   * Finds where a pebble in the column would rest, skipping replaceable blocks and logs
+   */
+  static BlockPos findSurface(final VeinWorld world, final int x, final int z) {
     final BlockPos.Mutable pos = new BlockPos.Mutable(x, 128, z);
 
     for(BlockState iblockstate = world.getBlockState(pos); pos.getY() > 0 && (iblockstate.getMaterial().isReplaceable() || iblockstate.isIn(BlockTags.LOGS)); iblockstate = world.getBlockState(pos)) {
@@ -166,26 +337,343 @@ public class TerraOreVein extends Feature<TerraOreVeinConfig> {
     }
 
     pos.move(Direction.UP);
+    return pos.toImmutable();
+  }
 
-    if(pebble.isValidPosition(world, pos)) {
-      blocksToPlace.put(pos, pebble);
+  private void placePebble(final Shape shape, final int pebbleIndex, final int x, final int y, final int z) {
+    if(shape.recorder != null) {
+      shape.recorder.addPebble(x - shape.start.getX(), y - shape.start.getY(), z - shape.start.getZ(), pebbleIndex);
+      return;
     }
+
+    final BlockState pebble = shape.config.pebbles[pebbleIndex].pebble;
+    final BlockPos pos = new BlockPos(x, 0, z);
+
+    if(x >> 4 != shape.startingChunk.x || z >> 4 != shape.startingChunk.z) {
+      shape.deferredPebbles.put(pos, pebble);
+      return;
+    }
+
+    shape.pebbles.add(new AbstractMap.SimpleImmutableEntry<>(pos, pebble));
   }
 
-  private void placeBlock(final Map<BlockPos, List<TerraOreVeinConfig.Replacer>> blocksToPlace, final IWorld world, final ChunkPos startingChunk, final BlockPos pos, final List<TerraOreVeinConfig.Replacer> replacer) {
+  private void placeBlock(final Shape shape, final BlockPos pos, final int stageIndex) {
+    if(shape.recorder != null) {
+      shape.recorder.addOre(pos.getX() - shape.start.getX(), pos.getY() - shape.start.getY(), pos.getZ() - shape.start.getZ(), stageIndex);
+      return;
+    }
+
     if(World.isOutsideBuildHeight(pos)) {
       return;
     }
 
-    final ChunkPos chunkPos = new ChunkPos(pos);
+    final List<TerraOreVeinConfig.Replacer> replacer = shape.stages.get(stageIndex).ores;
 
-    if(!chunkPos.equals(startingChunk)) {
-      final DeferredGenerationStorage deferredOres = DeferredGenerationStorage.get((ServerWorld)world.getWorld());
-      deferredOres.getOres(chunkPos).put(pos.toImmutable(), replacer);
-      deferredOres.markDirty();
+    if(pos.getX() >> 4 != shape.startingChunk.x || pos.getZ() >> 4 != shape.startingChunk.z) {
+      shape.deferredOres.put(pos.toImmutable(), replacer);
       return;
     }
 
-    blocksToPlace.put(pos.toImmutable(), replacer);
+    shape.ores.put(pos.toImmutable(), replacer);
+  }
+
+  /**
+   * Generates a shape's placements one at a time, in the order {@link #trace} records them, holding only the walk's
+   * current position.  Consumers may stop at any point.  Ores may lie outside the build height and are not split by
+   * chunk; pebbles only carry their column.
+   *
+   * <pre>
+   * final TerraOreVein.Cursor cursor = TerraOreVein.INSTANCE.cursor(shape);
+   *
+   * while(cursor.next()) {
+   *   ...
+   * }
+   * </pre>
+   */
+  public Cursor cursor(final Shape shape) {
+    return new Cursor(shape);
+  }
+
+  public static final class Cursor {
+    private final Shape shape;
+    private final VeinRandom rand;
+    private final OreGenState state;
+    private final List<TerraOreVeinConfig.Stage> stages;
+    private final TerraOreVeinConfig.Pebble[] pebbles;
+
+    private final Matrix3f rotation = new Matrix3f();
+    private final Vector3f offset = new Vector3f();
+    private final Vector3f root;
+    private final BlockPos.Mutable pos = new BlockPos.Mutable();
+
+    private float xRotation;
+    private float yRotation;
+    private float zRotation;
+
+    // 1/x chance for a vein to change direction by up to 45 degrees total (across all axes).
+    // Each block that is generated will decrease this value, making it more likely that the
+    // vein will change directions.  If it changes directions, the divisor is incremented by 30.
+    private int changeDirectionDivisor = 30;
+    private int blockIndex = -1;
+    private int segmentIndex;
+
+    /** The stage after the one being sampled */
+    private int stageIndex;
+    private int minRadius;
+    private int maxRadius;
+    private int blockCount;
+    private int sample;
+    private int pebbleIndex;
+    /** Ore or pebble index into the template when stamping one */
+    private int templateIndex;
+
+    private boolean ore;
+    private int index;
+
+    private Cursor(final Shape shape) {
+      this.shape = shape;
+      this.rand = shape.rand;
+      this.state = shape.state;
+      this.stages = shape.stages;
+      this.pebbles = shape.config.pebbles;
+      this.root = new Vector3f(shape.start.getX(), shape.start.getY(), shape.start.getZ());
+
+      this.xRotation = shape.xRotation;
+      this.yRotation = shape.yRotation;
+      this.zRotation = shape.zRotation;
+      this.rotation.rotateXYZ(this.xRotation, this.yRotation, this.zRotation);
+
+      // Nothing left of the step before the first
+      this.stageIndex = this.stages.size();
+      this.pebbleIndex = this.pebbles.length;
+    }
+
+    /**
+     * @return false once the vein has nothing left to place
+     */
+    public boolean next() {
+      if(this.shape.template != null) {
+        return this.nextFromTemplate();
+      }
+
+      while(true) {
+        if(this.sample < this.blockCount) {
+          this.sample++;
+
+          final int radius = this.rand.nextInt(this.maxRadius - this.minRadius + 1) + this.minRadius;
+          final float angle = this.rand.nextFloat() * PI * 2;
+
+          this.offset.set(this.segmentIndex, (float)Math.sin(angle) * radius, (float)Math.cos(angle) * radius);
+          this.offset.mul(this.rotation);
+
+          this.pos.setPos(this.root.x + this.offset.x, this.root.y + this.offset.y, this.root.z + this.offset.z);
+          this.ore = true;
+          this.index = this.stageIndex - 1;
+          return true;
+        }
+
+        if(this.stageIndex < this.stages.size()) {
+          final TerraOreVeinConfig.Stage stage = this.stages.get(this.stageIndex++);
+          this.minRadius = stage.minRadius.applyInt(this.state);
+          this.maxRadius = stage.maxRadius.applyInt(this.state);
+          this.blockCount = Math.round((this.maxRadius * this.maxRadius - this.minRadius * this.minRadius) * stage.blockDensity.applyFloat(this.state));
+          this.sample = 0;
+          continue;
+        }
+
+        if(this.pebbleIndex < this.pebbles.length) {
+          final int pebbleIndex = this.pebbleIndex++;
+
+          if(this.rand.nextFloat() <= this.pebbles[pebbleIndex].density) {
+            // Pebbles drop from the last sampled point
+            this.pos.setPos((int)(this.root.x + this.offset.x), (int)(this.root.y + this.offset.y), (int)(this.root.z + this.offset.z));
+            this.ore = false;
+            this.index = pebbleIndex;
+            return true;
+          }
+
+          continue;
+        }
+
+        if(!this.step()) {
+          return false;
+        }
+      }
+    }
+
+    private boolean step() {
+      if(this.blockIndex >= this.shape.length) {
+        return false;
+      }
+
+      if(this.blockIndex >= 0) {
+        this.segmentIndex++;
+      }
+
+      if(++this.blockIndex >= this.shape.length) {
+        return false;
+      }
+
+      // Change direction?
+      if(this.rand.nextInt(this.changeDirectionDivisor) == 0) {
+        this.changeDirectionDivisor += 30;
+
+        float rotationChangeBudget = PI / 2;
+        float rotationChange = this.rand.nextFloat() * rotationChangeBudget;
+        rotationChangeBudget -= rotationChange;
+        this.xRotation += this.rand.nextFloat() * rotationChange - rotationChange / 2;
+        rotationChange = this.rand.nextFloat() * rotationChangeBudget;
+        rotationChangeBudget -= rotationChange;
+        this.yRotation += this.rand.nextFloat() * rotationChange - rotationChange / 2;
+        rotationChange = this.rand.nextFloat() * rotationChangeBudget;
+        this.zRotation += this.rand.nextFloat() * rotationChange - rotationChange / 2;
+
+        this.rotation.rotateXYZ(this.xRotation, this.yRotation, this.zRotation);
+        this.root.add(this.offset);
+        this.segmentIndex = 0;
+      }
+
+      // More likely to change direction the longer we go without doing so
+      this.changeDirectionDivisor--;
+
+      this.stageIndex = 0;
+      this.blockCount = 0;
+      this.sample = 0;
+      this.pebbleIndex = 0;
+      return true;
+    }
+
+    /**
+     * Places a precomputed template in the orientation chosen by {@link TerraOreVein#begin}
+     */
+    private boolean nextFromTemplate() {
+      final VeinTemplates.Template template = this.shape.template;
+      final int i = this.templateIndex++;
+
+      if(i < template.ores.length) {
+        VeinTemplates.unpack(template.ores[i], this.shape.templateRotation, this.shape.start, this.pos);
+        this.ore = true;
+        this.index = template.oreStages[i];
+        return true;
+      }
+
+      final int pebble = i - template.ores.length;
+
+      if(pebble < template.pebbles.length) {
+        VeinTemplates.unpack(template.pebbles[pebble], this.shape.templateRotation, this.shape.start, this.pos);
+        this.ore = false;
+        this.index = template.pebbleTypes[pebble];
+        return true;
+      }
+
+      this.templateIndex = i;
+      return false;
+    }
+
+    public boolean isOre() {
+      return this.ore;
+    }
+
+    /**
+     * @return the stage index into the shape's stages for ores, or the index into the config's pebbles for pebbles
+     */
+    public int getIndex() {
+      return this.index;
+    }
+
+    /**
+     * @return the placement's position, which changes as the cursor moves
+     */
+    public BlockPos getPos() {
+      return this.pos;
+    }
+  }
+
+  /**
+   * Everything a vein will place, kept apart from the world so that veins can be traced in parallel and written in
+   * order.  Blocks for other chunks are kept in the order they were generated so they reach deferred storage exactly
+   * as they would have from a serial walk.
+   */
+  public static final class Shape {
+    private final VeinRandom rand;
+    private final BlockPos start;
+    private final ChunkPos startingChunk;
+    private final TerraOreVeinConfig config;
+    private final OreGenState state = new OreGenState();
+    private final List<TerraOreVeinConfig.Stage> stages = new ArrayList<>();
+    private int length;
+    private float xRotation;
+    private float yRotation;
+    private float zRotation;
+    private VeinTemplates.Template template;
+    private int templateRotation;
+    /** Set while tracing a template */
+    private VeinTemplates.Builder recorder;
+    private int samples;
+    private boolean truncated;
+    /** Digest of every placement traced, in order */
+    private long digest;
+
+    private final Map<BlockPos, List<TerraOreVeinConfig.Replacer>> ores = new HashMap<>();
+    private final List<Map.Entry<BlockPos, BlockState>> pebbles = new ArrayList<>();
+    private final Map<BlockPos, List<TerraOreVeinConfig.Replacer>> deferredOres = new LinkedHashMap<>();
+    private final Map<BlockPos, BlockState> deferredPebbles = new LinkedHashMap<>();
+
+    /**
+     * @return how many points the vein sampled while traced
+     */
+    public int getSamples() {
+      return this.samples;
+    }
+
+    /**
+     * @return how many distinct blocks the vein picked while traced
+     */
+    public int getPlacements() {
+      return this.recorder != null ? this.recorder.size() : this.ores.size() + this.deferredOres.size();
+    }
+
+    public BlockPos getStart() {
+      return this.start;
+    }
+
+    public TerraOreVeinConfig getConfig() {
+      return this.config;
+    }
+
+    /**
+     * @return the seed of the vein's random, which with its start and config is all it takes to trace it again
+     */
+    public long getSeed() {
+      return this.rand.getSeed();
+    }
+
+    /**
+     * @return a digest of every placement traced, which only changes if the vein's shape does
+     */
+    public long getDigest() {
+      return this.digest;
+    }
+
+    private void digest(final Cursor cursor) {
+      final long placement = cursor.getPos().toLong() * 0x9e3779b97f4a7c15L + (cursor.getIndex() << 1 | (cursor.isOre() ? 1 : 0));
+      this.digest = Long.rotateLeft(this.digest, 5) ^ placement;
+    }
+
+    /**
+     * @return true if the vein went over a budget while traced
+     */
+    public boolean isTruncated() {
+      return this.truncated;
+    }
+
+    private Shape(final VeinRandom rand, final BlockPos start, final TerraOreVeinConfig config, @Nullable final ChunkContext context) {
+      this.rand = rand;
+      this.start = start.toImmutable();
+      this.startingChunk = new ChunkPos(start);
+      this.config = config;
+      this.state.setDepth(start.getY());
+      this.state.setContext(context);
+    }
   }
 }
@@ -1,19 +1,23 @@
 package lofimodding.terra;
 
+import com.google.common.collect.ImmutableMap;
 import com.mojang.datafixers.Dynamic;
 import com.mojang.datafixers.types.DynamicOps;
 import net.minecraft.block.Block;
 import net.minecraft.block.BlockState;
 import net.minecraft.block.Blocks;
 import net.minecraft.nbt.CompoundNBT;
+import net.minecraft.nbt.ListNBT;
 import net.minecraft.nbt.NBTUtil;
 import net.minecraft.tags.BlockTags;
 import net.minecraft.tags.Tag;
 import net.minecraft.util.ResourceLocation;
 import net.minecraft.world.gen.feature.IFeatureConfig;
 import net.minecraftforge.common.Tags;
+import net.minecraftforge.common.util.Constants;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.function.Consumer;
 import java.util.function.Function;
@@ -28,24 +32,175 @@ public class TerraOreVeinConfig implements IFeatureConfig {
 
   public final Pebble[] pebbles;
   public final Stage[] stages;
-  public final StateFunction<Integer> minLength;
-  public final StateFunction<Integer> maxLength;
-
-  private TerraOreVeinConfig(final Stage[] stages, final Pebble[] pebbles, final StateFunction<Integer> minLength, final StateFunction<Integer> maxLength) {
+  public final IntStateFunction minLength;
+  public final IntStateFunction maxLength;
+  /** Fraction of a vein's ores that must land on replaceable blocks for its pebbles to be placed */
+  public final float minYield;
+  /** Number of host blocks to test before rasterizing the vein, 0 disables the probe */
+  public final int probeSamples;
+  /** Number of precomputed shapes per length and stage selection, 0 traces every vein */
+  public final int templates;
+  final VeinTemplates templateCache;
+
+  private TerraOreVeinConfig(final Stage[] stages, final Pebble[] pebbles, final IntStateFunction minLength, final IntStateFunction maxLength, final float minYield, final int probeSamples, final int templates) {
     this.stages = stages;
     this.pebbles = pebbles;
     this.minLength = minLength;
     this.maxLength = maxLength;
+    this.minYield = minYield;
+    this.probeSamples = probeSamples;
+    this.templates = templates;
+    this.templateCache = templates > 0 ? new VeinTemplates(templates) : null;
   }
 
   @Override
-  public <T> Dynamic<T> serialize(final DynamicOps<T> dynamicOps) {
-    return null; //TODO
+  public <T> Dynamic<T> serialize(final DynamicOps<T> ops) {
+    return new Dynamic<>(ops, ops.createMap(ImmutableMap.<T, T>builder()
+      .put(ops.createString("stages"), ops.createList(Arrays.stream(this.stages).map(stage -> stage.serialize(ops))))
+      .put(ops.createString("pebbles"), ops.createList(Arrays.stream(this.pebbles).map(pebble -> pebble.serialize(ops))))
+      .put(ops.createString("minLength"), DepthTable.serializeInt(ops, this.minLength))
+      .put(ops.createString("maxLength"), DepthTable.serializeInt(ops, this.maxLength))
+      .put(ops.createString("minYield"), ops.createFloat(this.minYield))
+      .put(ops.createString("probeSamples"), ops.createInt(this.probeSamples))
+      .put(ops.createString("templates"), ops.createInt(this.templates))
+      .build()
+    ));
   }
 
   public static TerraOreVeinConfig deserialize(final Dynamic<?> config) {
-    //TODO
-    return new TerraOreVeinConfig(new Stage[0], new Pebble[0], i -> 0, i -> 0);
+    final TerraOreVeinConfig deserialized = new TerraOreVeinConfig(
+      config.get("stages").asList(Stage::deserialize).toArray(ConfigBuilder.ZERO_LENGTH_STAGE),
+      config.get("pebbles").asList(Pebble::deserialize).toArray(ConfigBuilder.ZERO_LENGTH_PEBBLE),
+      DepthTable.deserializeInt(config.get("minLength").orElseEmptyMap(), 3),
+      DepthTable.deserializeInt(config.get("maxLength").orElseEmptyMap(), 5),
+      config.get("minYield").asFloat(ConfigBuilder.DEFAULT_MIN_YIELD),
+      config.get("probeSamples").asInt(0),
+      config.get("templates").asInt(0)
+    );
+
+    deserialized.validate();
+    return deserialized;
+  }
+
+  /**
+   * @return the most points a vein starting at <code>depth</code> can sample, ignoring stage spawn chances
+   */
+  public long worstCaseSamples(final int depth) {
+    final OreGenState state = new OreGenState();
+    state.setDepth(depth);
+
+    long perStep = 0;
+
+    for(final Stage stage : this.stages) {
+      final int minRadius = stage.minRadius.applyInt(state);
+      final int maxRadius = stage.maxRadius.applyInt(state);
+      perStep += Math.max(0, Math.round((maxRadius * maxRadius - minRadius * minRadius) * stage.blockDensity.applyFloat(state)));
+    }
+
+    return perStep * this.maxLength.applyInt(state);
+  }
+
+  /**
+   * Checks every depth for values that would break vein generation
+   *
+   * @throws IllegalArgumentException if the config is invalid
+   */
+  public void validate() {
+    final OreGenState state = new OreGenState();
+
+    for(int depth = 0; depth < DepthTable.SIZE; depth++) {
+      state.setDepth(depth);
+
+      final int minLength = this.minLength.applyInt(state);
+      final int maxLength = this.maxLength.applyInt(state);
+
+      if(minLength < 0 || maxLength < minLength) {
+        throw new IllegalArgumentException("Invalid length " + minLength + ".." + maxLength + " at depth " + depth);
+      }
+
+      for(int i = 0; i < this.stages.length; i++) {
+        final Stage stage = this.stages[i];
+
+        final int minRadius = stage.minRadius.applyInt(state);
+        final int maxRadius = stage.maxRadius.applyInt(state);
+
+        if(minRadius < 0 || maxRadius < minRadius) {
+          throw new IllegalArgumentException("Invalid radius " + minRadius + ".." + maxRadius + " for stage " + i + " at depth " + depth);
+        }
+
+        if(stage.blockDensity.applyFloat(state) < 0.0f) {
+          throw new IllegalArgumentException("Negative block density for stage " + i + " at depth " + depth);
+        }
+      }
+    }
+
+    if(this.minYield < 0.0f || this.minYield > 1.0f) {
+      throw new IllegalArgumentException("Minimum yield must be between 0 and 1");
+    }
+
+    if(this.probeSamples < 0) {
+      throw new IllegalArgumentException("Probe samples must not be negative");
+    }
+
+    if(this.templates < 0 || this.templates > VeinTemplates.MAX_TEMPLATES) {
+      throw new IllegalArgumentException("Templates must be between 0 and " + VeinTemplates.MAX_TEMPLATES);
+    }
+
+    for(int i = 0; i < this.stages.length; i++) {
+      if(this.stages[i].ores.isEmpty()) {
+        throw new IllegalArgumentException("Stage " + i + " has no ores");
+      }
+    }
+  }
+
+  /**
+   * Writes the config with every function resolved to a depth table, see {@link #readCompiled}
+   */
+  public CompoundNBT writeCompiled(final CompoundNBT nbt) {
+    final ListNBT stages = new ListNBT();
+    for(final Stage stage : this.stages) {
+      stages.add(stage.writeCompiled(new CompoundNBT()));
+    }
+
+    final ListNBT pebbles = new ListNBT();
+    for(final Pebble pebble : this.pebbles) {
+      final CompoundNBT pebbleNbt = new CompoundNBT();
+      pebbleNbt.put("pebble", NBTUtil.writeBlockState(pebble.pebble));
+      pebbleNbt.putFloat("density", pebble.density);
+      pebbles.add(pebbleNbt);
+    }
+
+    nbt.put("stages", stages);
+    nbt.put("pebbles", pebbles);
+    DepthTable.writeInt(nbt, "minLength", this.minLength);
+    DepthTable.writeInt(nbt, "maxLength", this.maxLength);
+    nbt.putFloat("minYield", this.minYield);
+    nbt.putInt("probeSamples", this.probeSamples);
+    nbt.putInt("templates", this.templates);
+    return nbt;
+  }
+
+  /**
+   * Reads a config written by {@link #writeCompiled}.  Only its blocks are validated again, as they depend on what is
+   * registered rather than on the config.
+   *
+   * @throws IllegalArgumentException if a block the config uses is no longer registered
+   */
+  public static TerraOreVeinConfig readCompiled(final CompoundNBT nbt) {
+    final ListNBT stagesNbt = nbt.getList("stages", Constants.NBT.TAG_COMPOUND);
+    final Stage[] stages = new Stage[stagesNbt.size()];
+    for(int i = 0; i < stages.length; i++) {
+      stages[i] = Stage.readCompiled(stagesNbt.getCompound(i));
+    }
+
+    final ListNBT pebblesNbt = nbt.getList("pebbles", Constants.NBT.TAG_COMPOUND);
+    final Pebble[] pebbles = new Pebble[pebblesNbt.size()];
+    for(int i = 0; i < pebbles.length; i++) {
+      final CompoundNBT pebbleNbt = pebblesNbt.getCompound(i);
+      pebbles[i] = new Pebble(checkState(NBTUtil.readBlockState(pebbleNbt.getCompound("pebble")), pebbleNbt.getCompound("pebble")), pebbleNbt.getFloat("density"));
+    }
+
+    return new TerraOreVeinConfig(stages, pebbles, DepthTable.readInt(nbt, "minLength"), DepthTable.readInt(nbt, "maxLength"), nbt.getFloat("minYield"), nbt.getInt("probeSamples"), nbt.getInt("templates"));
   }
 
   public static abstract class Replacer implements Predicate<BlockState> {
@@ -61,6 +216,20 @@ public class TerraOreVeinConfig implements IFeatureConfig {
       throw new RuntimeException("Unknown replacer type: " + tag.getString("replacer"));
     }
 
+    public static Replacer deserialize(final Dynamic<?> replacer) {
+      final String type = replacer.get("type").asString("tag");
+
+      switch(type) {
+        case "tag":
+          return TagReplacer.deserialize(replacer);
+
+        case "state":
+          return StateReplacer.deserialize(replacer);
+      }
+
+      throw new IllegalArgumentException("Unknown replacer type: " + type);
+    }
+
     public final BlockState blockToPlace;
 
     protected Replacer(final BlockState blockToPlace) {
@@ -68,11 +237,17 @@ public class TerraOreVeinConfig implements IFeatureConfig {
     }
 
     public abstract CompoundNBT write(final CompoundNBT tag);
+
+    public abstract <T> T serialize(final DynamicOps<T> ops);
   }
 
   public static class TagReplacer extends Replacer {
     public static TagReplacer read(final CompoundNBT tag) {
-      return new TagReplacer(BlockTags.getCollection().get(new ResourceLocation(tag.getString("tagToReplace"))), NBTUtil.readBlockState(tag.getCompound("stateToPlace")));
+      return new TagReplacer(new BlockTags.Wrapper(new ResourceLocation(tag.getString("tagToReplace"))), NBTUtil.readBlockState(tag.getCompound("stateToPlace")));
+    }
+
+    public static TagReplacer deserialize(final Dynamic<?> replacer) {
+      return new TagReplacer(new BlockTags.Wrapper(new ResourceLocation(replacer.get("tag").asString("forge:stone"))), readState(replacer.get("state").orElseEmptyMap()));
     }
 
     private final Tag<Block> tag;
@@ -94,6 +269,15 @@ public class TerraOreVeinConfig implements IFeatureConfig {
       tag.put("stateToPlace", NBTUtil.writeBlockState(this.blockToPlace));
       return tag;
     }
+
+    @Override
+    public <T> T serialize(final DynamicOps<T> ops) {
+      return ops.createMap(ImmutableMap.of(
+        ops.createString("type"), ops.createString("tag"),
+        ops.createString("tag"), ops.createString(this.tag.getId().toString()),
+        ops.createString("state"), BlockState.serialize(ops, this.blockToPlace).getValue()
+      ));
+    }
   }
 
   public static class StateReplacer extends Replacer {
@@ -101,6 +285,10 @@ public class TerraOreVeinConfig implements IFeatureConfig {
       return new StateReplacer(NBTUtil.readBlockState(tag.getCompound("stateToReplace")), NBTUtil.readBlockState(tag.getCompound("stateToPlace")));
     }
 
+    public static StateReplacer deserialize(final Dynamic<?> replacer) {
+      return new StateReplacer(readState(replacer.get("replace").orElseEmptyMap()), readState(replacer.get("state").orElseEmptyMap()));
+    }
+
     private final BlockState state;
 
     public StateReplacer(final BlockState blockToReplace,  final BlockState blockToPlace) {
@@ -120,22 +308,106 @@ public class TerraOreVeinConfig implements IFeatureConfig {
       tag.put("stateToPlace", NBTUtil.writeBlockState(this.blockToPlace));
       return tag;
     }
+
+    @Override
+    public <T> T serialize(final DynamicOps<T> ops) {
+      return ops.createMap(ImmutableMap.of(
+        ops.createString("type"), ops.createString("state"),
+        ops.createString("replace"), BlockState.serialize(ops, this.state).getValue(),
+        ops.createString("state"), BlockState.serialize(ops, this.blockToPlace).getValue()
+      ));
+    }
+  }
+
+  /**
+   * The registry hands back air for blocks it doesn't know, which is also what {@link #readState} rejects
+   */
+  private static BlockState checkState(final BlockState state, final CompoundNBT nbt) {
+    if(state.isAir()) {
+      throw new IllegalArgumentException("Missing or unknown block state: " + nbt);
+    }
+
+    return state;
+  }
+
+  private static Replacer checkStates(final Replacer replacer, final CompoundNBT nbt) {
+    checkState(replacer.blockToPlace, nbt);
+
+    if(replacer instanceof StateReplacer) {
+      checkState(((StateReplacer)replacer).state, nbt);
+    }
+
+    return replacer;
+  }
+
+  private static BlockState readState(final Dynamic<?> state) {
+    final BlockState deserialized = BlockState.deserialize(state);
+
+    if(deserialized.isAir()) {
+      throw new IllegalArgumentException("Missing or unknown block state: " + state.getValue());
+    }
+
+    return deserialized;
   }
 
   public static final class Stage {
     public final List<Replacer> ores;
-    public final StateFunction<Integer> minRadius;
-    public final StateFunction<Integer> maxRadius;
-    public final StateFunction<Float> blockDensity;
-    public final StateFunction<Float> stageSpawnChance;
+    public final IntStateFunction minRadius;
+    public final IntStateFunction maxRadius;
+    public final FloatStateFunction blockDensity;
+    public final FloatStateFunction stageSpawnChance;
 
-    private Stage(final List<Replacer> ores, final StateFunction<Integer> minRadius, final StateFunction<Integer> maxRadius, final StateFunction<Float> blockDensity, final StateFunction<Float> stageSpawnChance) {
+    private Stage(final List<Replacer> ores, final IntStateFunction minRadius, final IntStateFunction maxRadius, final FloatStateFunction blockDensity, final FloatStateFunction stageSpawnChance) {
       this.ores = ores;
       this.minRadius = minRadius;
       this.maxRadius = maxRadius;
       this.blockDensity = blockDensity;
       this.stageSpawnChance = stageSpawnChance;
     }
+
+    private <T> T serialize(final DynamicOps<T> ops) {
+      return ops.createMap(ImmutableMap.of(
+        ops.createString("ores"), ops.createList(this.ores.stream().map(replacer -> replacer.serialize(ops))),
+        ops.createString("minRadius"), DepthTable.serializeInt(ops, this.minRadius),
+        ops.createString("maxRadius"), DepthTable.serializeInt(ops, this.maxRadius),
+        ops.createString("blockDensity"), DepthTable.serializeFloat(ops, this.blockDensity),
+        ops.createString("stageSpawnChance"), DepthTable.serializeFloat(ops, this.stageSpawnChance)
+      ));
+    }
+
+    private static Stage deserialize(final Dynamic<?> stage) {
+      return new Stage(
+        stage.get("ores").asList(Replacer::deserialize),
+        DepthTable.deserializeInt(stage.get("minRadius").orElseEmptyMap(), 0),
+        DepthTable.deserializeInt(stage.get("maxRadius").orElseEmptyMap(), 5),
+        DepthTable.deserializeFloat(stage.get("blockDensity").orElseEmptyMap(), 0.75f),
+        DepthTable.deserializeFloat(stage.get("stageSpawnChance").orElseEmptyMap(), 1.0f)
+      );
+    }
+
+    private CompoundNBT writeCompiled(final CompoundNBT nbt) {
+      final ListNBT ores = new ListNBT();
+      for(final Replacer replacer : this.ores) {
+        ores.add(replacer.write(new CompoundNBT()));
+      }
+
+      nbt.put("ores", ores);
+      DepthTable.writeInt(nbt, "minRadius", this.minRadius);
+      DepthTable.writeInt(nbt, "maxRadius", this.maxRadius);
+      DepthTable.writeFloat(nbt, "blockDensity", this.blockDensity);
+      DepthTable.writeFloat(nbt, "stageSpawnChance", this.stageSpawnChance);
+      return nbt;
+    }
+
+    private static Stage readCompiled(final CompoundNBT nbt) {
+      final ListNBT oresNbt = nbt.getList("ores", Constants.NBT.TAG_COMPOUND);
+      final List<Replacer> ores = new ArrayList<>();
+      for(int i = 0; i < oresNbt.size(); i++) {
+        ores.add(checkStates(Replacer.read(oresNbt.getCompound(i)), oresNbt.getCompound(i)));
+      }
+
+      return new Stage(ores, DepthTable.readInt(nbt, "minRadius"), DepthTable.readInt(nbt, "maxRadius"), DepthTable.readFloat(nbt, "blockDensity"), DepthTable.readFloat(nbt, "stageSpawnChance"));
+    }
   }
 
   public static final class Pebble {
@@ -146,13 +418,27 @@ public class TerraOreVeinConfig implements IFeatureConfig {
       this.pebble = pebble;
       this.density = density;
     }
+
+    private <T> T serialize(final DynamicOps<T> ops) {
+      return ops.createMap(ImmutableMap.of(
+        ops.createString("pebble"), BlockState.serialize(ops, this.pebble).getValue(),
+        ops.createString("density"), ops.createFloat(this.density)
+      ));
+    }
+
+    private static Pebble deserialize(final Dynamic<?> pebble) {
+      return new Pebble(readState(pebble.get("pebble").orElseEmptyMap()), pebble.get("density").asFloat(0.5f));
+    }
   }
 
   public static final class ConfigBuilder {
     private final List<Stage> stages = new ArrayList<>();
     private final List<Pebble> pebbles = new ArrayList<>();
-    private StateFunction<Integer> minLength = state -> 3;
-    private StateFunction<Integer> maxLength = state -> 5;
+    private StateFunction<Integer> minLength = (IntStateFunction)state -> 3;
+    private StateFunction<Integer> maxLength = (IntStateFunction)state -> 5;
+    private float minYield = DEFAULT_MIN_YIELD;
+    private int probeSamples;
+    private int templates;
 
     private ConfigBuilder() { }
 
@@ -171,7 +457,7 @@ public class TerraOreVeinConfig implements IFeatureConfig {
     }
 
     public ConfigBuilder minLength(final int length) {
-      return this.minLength(depth -> length);
+      return this.minLength((IntStateFunction)depth -> length);
     }
 
     public ConfigBuilder minLength(final StateFunction<Integer> length) {
@@ -180,7 +466,7 @@ public class TerraOreVeinConfig implements IFeatureConfig {
     }
 
     public ConfigBuilder maxLength(final int length) {
-      return this.maxLength(depth -> length);
+      return this.maxLength((IntStateFunction)depth -> length);
     }
 
     public ConfigBuilder maxLength(final StateFunction<Integer> length) {
@@ -188,20 +474,45 @@ public class TerraOreVeinConfig implements IFeatureConfig {
       return this;
     }
 
+    /**
+     * Enables the low-yield probe.  Before the vein is rasterized, this many deterministic points along its initial
+     * direction are tested against the host rock.  If fewer than {@link #minYield} of them are replaceable the whole
+     * vein is skipped, including its ores.  The probe consumes no randomness so veins that pass are unchanged.
+     */
+    public ConfigBuilder probe(final int samples) {
+      this.probeSamples = samples;
+      return this;
+    }
+
+    public ConfigBuilder minYield(final float yield) {
+      this.minYield = yield;
+      return this;
+    }
+
+    /**
+     * Places veins from this many precomputed shapes per length and stage selection, each turned to one of the 24
+     * axis-aligned orientations, instead of tracing every vein
+     */
+    public ConfigBuilder templates(final int templates) {
+      this.templates = templates;
+      return this;
+    }
+
+    private static final float DEFAULT_MIN_YIELD = 1.0f / 3.0f;
     private static final Stage[] ZERO_LENGTH_STAGE = new Stage[0];
     private static final Pebble[] ZERO_LENGTH_PEBBLE = new Pebble[0];
 
     private TerraOreVeinConfig build() {
-      return new TerraOreVeinConfig(this.stages.toArray(ZERO_LENGTH_STAGE), this.pebbles.toArray(ZERO_LENGTH_PEBBLE), this.minLength, this.maxLength);
+      return new TerraOreVeinConfig(this.stages.toArray(ZERO_LENGTH_STAGE), this.pebbles.toArray(ZERO_LENGTH_PEBBLE), IntStateFunction.of(this.minLength), IntStateFunction.of(this.maxLength), this.minYield, this.probeSamples, this.templates);
     }
   }
 
   public static final class StageBuilder {
     private final List<Replacer> ore = new ArrayList<>();
-    private StateFunction<Integer> minRadius = state -> 0;
-    private StateFunction<Integer> maxRadius = state -> 5;
-    private StateFunction<Float> blockDensity = state -> 0.75f;
-    private StateFunction<Float> stageSpawnChance = state -> 1.0f;
+    private StateFunction<Integer> minRadius = (IntStateFunction)state -> 0;
+    private StateFunction<Integer> maxRadius = (IntStateFunction)state -> 5;
+    private StateFunction<Float> blockDensity = (FloatStateFunction)state -> 0.75f;
+    private StateFunction<Float> stageSpawnChance = (FloatStateFunction)state -> 1.0f;
 
     private StageBuilder() { }
 
@@ -223,7 +534,7 @@ public class TerraOreVeinConfig implements IFeatureConfig {
     }
 
     public StageBuilder minRadius(final int minRadius) {
-      return this.minRadius(depth -> minRadius);
+      return this.minRadius((IntStateFunction)depth -> minRadius);
     }
 
     public StageBuilder minRadius(final StateFunction<Integer> minRadius) {
@@ -232,7 +543,7 @@ public class TerraOreVeinConfig implements IFeatureConfig {
     }
 
     public StageBuilder maxRadius(final int maxRadius) {
-      return this.maxRadius(depth -> maxRadius);
+      return this.maxRadius((IntStateFunction)depth -> maxRadius);
     }
 
     public StageBuilder maxRadius(final StateFunction<Integer> maxRadius) {
@@ -241,7 +552,7 @@ public class TerraOreVeinConfig implements IFeatureConfig {
     }
 
     public StageBuilder blockDensity(final float density) {
-      return this.blockDensity(depth -> density);
+      return this.blockDensity((FloatStateFunction)depth -> density);
     }
 
     public StageBuilder blockDensity(final StateFunction<Float> density) {
@@ -250,7 +561,7 @@ public class TerraOreVeinConfig implements IFeatureConfig {
     }
 
     public StageBuilder stageSpawnChance(final float spawnChance) {
-      return this.stageSpawnChance(depth -> spawnChance);
+      return this.stageSpawnChance((FloatStateFunction)depth -> spawnChance);
     }
 
     public StageBuilder stageSpawnChance(final StateFunction<Float> spawnChance) {
@@ -259,7 +570,7 @@ public class TerraOreVeinConfig implements IFeatureConfig {
     }
 
     private Stage build() {
-      return new Stage(this.ore, this.minRadius, this.maxRadius, this.blockDensity, this.stageSpawnChance);
+      return new Stage(this.ore, IntStateFunction.of(this.minRadius), IntStateFunction.of(this.maxRadius), FloatStateFunction.of(this.blockDensity), FloatStateFunction.of(this.stageSpawnChance));
     }
   }
 
@@ -288,4 +599,38 @@ public class TerraOreVeinConfig implements IFeatureConfig {
   public interface StateFunction<RETURN> extends Function<OreGenState, RETURN> {
 
   }
+
+  /**
+   * A {@link StateFunction} that vein generation calls without boxing.  {@link DepthTable.Ints} implements it directly.
+   */
+  @FunctionalInterface
+  public interface IntStateFunction extends StateFunction<Integer> {
+    int applyInt(final OreGenState state);
+
+    @Override
+    default Integer apply(final OreGenState state) {
+      return this.applyInt(state);
+    }
+
+    static IntStateFunction of(final StateFunction<Integer> function) {
+      return function instanceof IntStateFunction ? (IntStateFunction)function : state -> function.apply(state);
+    }
+  }
+
+  /**
+   * A {@link StateFunction} that vein generation calls without boxing.  {@link DepthTable.Floats} implements it directly.
+   */
+  @FunctionalInterface
+  public interface FloatStateFunction extends StateFunction<Float> {
+    float applyFloat(final OreGenState state);
+
+    @Override
+    default Float apply(final OreGenState state) {
+      return this.applyFloat(state);
+    }
+
+    static FloatStateFunction of(final StateFunction<Float> function) {
+      return function instanceof FloatStateFunction ? (FloatStateFunction)function : state -> function.apply(state);
+    }
+  }
 }
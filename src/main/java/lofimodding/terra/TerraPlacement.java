@@ -2,6 +2,7 @@ package lofimodding.terra;
 
 import com.mojang.datafixers.Dynamic;
 import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.math.MathHelper;
 import net.minecraft.world.IWorld;
 import net.minecraft.world.gen.ChunkGenerator;
 import net.minecraft.world.gen.GenerationSettings;
@@ -20,14 +21,46 @@ public class TerraPlacement extends Placement<TerraPlacementConfig> {
 
   @Override
   public Stream<BlockPos> getPositions(final IWorld world, final ChunkGenerator<? extends GenerationSettings> generator, final Random random, final TerraPlacementConfig config, final BlockPos pos) {
-    if(random.nextInt(config.chance) == 0) {
-      final int x = random.nextInt(16);
-      final int y = random.nextInt(config.top) + config.bottom;
-      final int z = random.nextInt(16);
+    return this.getPositions(world.getSeed(), random, config, pos);
+  }
+
+  public Stream<BlockPos> getPositions(final long worldSeed, final Random random, final TerraPlacementConfig config, final BlockPos pos) {
+    if(config.districtSize > 0) {
+      return this.getDistrictPositions(worldSeed, random, config, pos);
+    }
 
-      return Stream.of(pos.add(x, y, z));
+    if(random.nextInt(config.chance) == 0) {
+      return Stream.of(this.randomPosition(random, config, pos));
     }
 
     return Stream.empty();
   }
+
+  /**
+   * Scales the expected number of veins in the chunk by the ore field, rounding randomly so the average is kept
+   */
+  private Stream<BlockPos> getDistrictPositions(final long worldSeed, final Random random, final TerraPlacementConfig config, final BlockPos pos) {
+    final float expected = OreField.get(worldSeed, config, pos.getX() >> 4, pos.getZ() >> 4) / config.chance;
+    final int whole = MathHelper.floor(expected);
+    final int count = whole + (random.nextFloat() < expected - whole ? 1 : 0);
+
+    if(count == 0) {
+      return Stream.empty();
+    }
+
+    final Stream.Builder<BlockPos> positions = Stream.builder();
+    for(int i = 0; i < count; i++) {
+      positions.add(this.randomPosition(random, config, pos));
+    }
+
+    return positions.build();
+  }
+
+  private BlockPos randomPosition(final Random random, final TerraPlacementConfig config, final BlockPos pos) {
+    final int x = random.nextInt(16);
+    final int y = random.nextInt(config.top) + config.bottom;
+    final int z = random.nextInt(16);
+
+    return pos.add(x, y, z);
+  }
 }
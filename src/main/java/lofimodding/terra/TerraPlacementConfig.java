@@ -9,27 +9,54 @@ public class TerraPlacementConfig implements IPlacementConfig {
   public final int chance;
   public final int bottom;
   public final int top;
+  /** Width of ore-rich and ore-poor districts in chunks, or 0 for even density */
+  public final int districtSize;
+  /** How far district density strays from the average, from 0 to 1 */
+  public final float districtContrast;
+  /** Lets veins with the same placement have different districts */
+  public final int districtSeed;
 
   public TerraPlacementConfig(final int chance, final int bottom, final int top) {
+    this(chance, bottom, top, 0, 0.0f, 0);
+  }
+
+  public TerraPlacementConfig(final int chance, final int bottom, final int top, final int districtSize, final float districtContrast, final int districtSeed) {
     this.chance = chance;
     this.bottom = bottom;
     this.top = top;
+    this.districtSize = districtSize;
+    this.districtContrast = districtContrast;
+    this.districtSeed = districtSeed;
   }
 
   @Override
   public <T> Dynamic<T> serialize(final DynamicOps<T> ops) {
-    return new Dynamic<>(ops, ops.createMap(ImmutableMap.of(
-      ops.createString("change"), ops.createInt(this.chance),
-      ops.createString("bottom"), ops.createInt(this.bottom),
-      ops.createString("top"), ops.createInt(this.top)
-    )));
+    final ImmutableMap.Builder<T, T> map = ImmutableMap.<T, T>builder()
+      .put(ops.createString("chance"), ops.createInt(this.chance))
+      .put(ops.createString("bottom"), ops.createInt(this.bottom))
+      .put(ops.createString("top"), ops.createInt(this.top));
+
+    if(this.districtSize > 0) {
+      map.put(ops.createString("districts"), ops.createMap(ImmutableMap.of(
+        ops.createString("size"), ops.createInt(this.districtSize),
+        ops.createString("contrast"), ops.createFloat(this.districtContrast),
+        ops.createString("seed"), ops.createInt(this.districtSeed)
+      )));
+    }
+
+    return new Dynamic<>(ops, ops.createMap(map.build()));
   }
 
   public static TerraPlacementConfig deserialize(final Dynamic<?> config) {
+    final Dynamic<?> districts = config.get("districts").orElseEmptyMap();
+
     return new TerraPlacementConfig(
-      config.get("change").asInt(0),
+      config.get("chance").asInt(config.get("change").asInt(0)),
       config.get("bottom").asInt(0),
-      config.get("top").asInt(0)
+      config.get("top").asInt(0),
+      districts.get("size").asInt(0),
+      districts.get("contrast").asFloat(0.5f),
+      districts.get("seed").asInt(0)
     );
   }
 }
@@ -0,0 +1,230 @@
+package lofimodding.terra;
+
+import com.mojang.datafixers.Dynamic;
+import net.minecraft.util.SharedSeedRandom;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.math.ChunkPos;
+import net.minecraft.world.IWorld;
+import net.minecraft.world.gen.ChunkGenerator;
+import net.minecraft.world.gen.GenerationSettings;
+import net.minecraft.world.gen.GenerationStage;
+import net.minecraft.world.gen.feature.Feature;
+import net.minecraft.world.server.ServerWorld;
+import net.minecraftforge.common.util.Constants;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Function;
+
+/**
+ * The one Terra feature of every biome.  It scrubs removed ores, generates the biome's veins and then applies the blocks
+ * deferred to the chunk, sharing one {@link ChunkContext}, and does nothing in dimensions {@link VeinRegistry#isEnabled}
+ * rules out.
+ *
+ * Each vein is seeded exactly as it would be as a feature of its own at <code>featureIndex</code> onwards, so the world
+ * is the same whichever way veins are added.
+ *
+ * With {@link TerraConfig#parallelVeins} enabled, the veins starting in a chunk are traced by a parallel stream and
+ * then written one at a time in feature order, which gives the same result as tracing them serially.  Parallel streams
+ * run in the pool of the fork-join worker that starts them, so during world generation the traces share the server's
+ * world-gen worker pool, and only callers outside any pool use the common pool.
+ *
+ * With {@link TerraConfig#lazyVeins} enabled, veins are only recorded in {@link LazyVeinStorage} and {@link LazyVeins}
+ * generates them when a player first watches a chunk they reach.
+ */
+public class TerraVeinBatch extends Feature<TerraVeinBatchConfig> {
+  public static final TerraVeinBatch INSTANCE = new TerraVeinBatch(TerraVeinBatchConfig::deserialize);
+
+  private OreScrubber scrubber;
+
+  public TerraVeinBatch(final Function<Dynamic<?>, ? extends TerraVeinBatchConfig> config) {
+    super(config);
+  }
+
+  /**
+   * Set once while the mod is constructed, before any chunk is decorated
+   */
+  void setScrubber(final OreScrubber scrubber) {
+    this.scrubber = scrubber;
+  }
+
+  @Override
+  public boolean place(final IWorld world, final ChunkGenerator<? extends GenerationSettings> generator, final Random rand, final BlockPos start, final TerraVeinBatchConfig config) {
+    if(world.getWorld() instanceof ServerWorld) {
+      ChunkDeferredData.adopt((ServerWorld)world.getWorld(), world.getChunk(start));
+    }
+
+    if(!TerraConfig.generationEnabled || !VeinRegistry.isEnabled(world.getDimension().getType())) {
+      return false;
+    }
+
+    final ChunkPos chunkPos = new ChunkPos(start);
+    boolean placed = false;
+
+    // Scrubbing before any Terra block is placed leaves Terra's own veins of removed ores alone
+    if(TerraConfig.scrubRemovedOres && this.scrubber != null) {
+      placed = this.scrubber.scrub(world, chunkPos, Constants.BlockFlags.BLOCK_UPDATE) != 0;
+    }
+
+    if(!config.veins.isEmpty()) {
+      if(TerraConfig.lazyVeins && world.getWorld() instanceof ServerWorld) {
+        this.record(LazyVeinStorage.get((ServerWorld)world.getWorld()), world.getSeed(), start, config);
+      } else {
+        placed |= this.placeVeins(world, chunkPos, start, config);
+      }
+    }
+
+    return DeferredGenerator.place(world, chunkPos) | placed;
+  }
+
+  private boolean placeVeins(final IWorld world, final ChunkPos chunkPos, final BlockPos start, final TerraVeinBatchConfig config) {
+    final Writer writer = this.begin(world, chunkPos, start, config, TerraConfig.parallelVeins);
+    final boolean placed = writer.writeAll();
+    writer.getContext().forgetBlocks();
+    return placed;
+  }
+
+  /**
+   * Lays out the veins the batch places in a chunk, seeded exactly as {@link #place} seeds them, without writing any
+   *
+   * @param parallel whether to trace the veins up front in a parallel stream
+   */
+  Writer begin(final IWorld world, final ChunkPos chunkPos, final BlockPos start, final TerraVeinBatchConfig config, final boolean parallel) {
+    final LiveVeinWorld veinWorld = new LiveVeinWorld(world, ChunkContext.get(world, chunkPos));
+    return new Writer(veinWorld, chunkPos, layOut(world.getSeed(), start, config, veinWorld.getContext()), parallel);
+  }
+
+  /**
+   * Begins the shapes of the veins the batch places in a chunk, in feature order
+   *
+   * @param start   the chunk's corner, as passed to {@link #place}
+   * @param context the context of the chunk being decorated, or null outside of a running server
+   */
+  public static List<TerraOreVein.Shape> layOut(final long worldSeed, final BlockPos start, final TerraVeinBatchConfig config, @Nullable final ChunkContext context) {
+    final SharedSeedRandom random = new SharedSeedRandom();
+    final long decorationSeed = random.setDecorationSeed(worldSeed, start.getX(), start.getZ());
+    final List<TerraOreVein.Shape> shapes = new ArrayList<>();
+
+    // Drawing from the decoration random stays serial; everything after it only uses each vein's own random
+    for(int i = 0; i < config.veins.size(); i++) {
+      final VeinDefinition vein = config.veins.get(i);
+      random.setFeatureSeed(decorationSeed, config.featureIndex + i, GenerationStage.Decoration.UNDERGROUND_ORES.ordinal());
+
+      TerraPlacement.INSTANCE.getPositions(worldSeed, random, vein.placement, start).forEach(pos -> shapes.add(TerraOreVein.INSTANCE.begin(VeinRandom.forVein(random, pos), pos, vein.config, context)));
+    }
+
+    return shapes;
+  }
+
+  /**
+   * Traces and writes the veins starting in a chunk in order, skipping those past the chunk's sample and placement
+   * budget.  Writing can stop between any two veins and carry on later, which retrogen uses to keep to its tick budget,
+   * and {@link LazyVeins} writes through it so lazy veins are cut off at the same point.  The offline tools write
+   * through it too, so they skip the same veins the game does.
+   */
+  public static final class Writer {
+    private final VeinWorld veinWorld;
+    private final ChunkPos chunkPos;
+    private final List<TerraOreVein.Shape> shapes;
+    private final boolean parallel;
+    private int next;
+    private boolean placed;
+    private long samples;
+    private long placements;
+    private int skipped;
+
+    public Writer(final VeinWorld veinWorld, final ChunkPos chunkPos, final List<TerraOreVein.Shape> shapes, final boolean parallel) {
+      this.veinWorld = veinWorld;
+      this.chunkPos = chunkPos;
+      this.shapes = shapes;
+      this.parallel = parallel && shapes.size() > 1;
+
+      if(this.parallel) {
+        shapes.parallelStream().forEach(TerraOreVein.INSTANCE::trace);
+      }
+    }
+
+    /**
+     * @return the context of the chunk being written, or null outside of a running server
+     */
+    @Nullable
+    public ChunkContext getContext() {
+      return this.veinWorld.getContext();
+    }
+
+    public boolean hasNext() {
+      return this.next < this.shapes.size();
+    }
+
+    /**
+     * @return how many veins have been skipped so far because the chunk's budget ran out
+     */
+    public int getSkipped() {
+      return this.skipped;
+    }
+
+    /**
+     * Probes, traces and writes the next vein, or skips it if it is rejected or over the budget
+     *
+     * @return true if the vein was written
+     */
+    public boolean writeNext() {
+      final TerraOreVein.Shape shape = this.shapes.get(this.next++);
+      final long startTime = WorkloadRecorder.isRecording() ? System.nanoTime() : 0L;
+      boolean written = false;
+
+      // Probing before tracing lets a serial walk skip veins that would be rejected
+      if(!TerraOreVein.INSTANCE.probe(this.veinWorld, shape)) {
+        WorkloadRecorder.recordVein(shape, this.parallel, false, startTime);
+      } else if(this.samples >= TerraConfig.maxChunkSamples || this.placements >= TerraConfig.maxChunkPlacements) {
+        // The chunk budget only counts veins before this one, so parallel and serial tracing skip the same veins
+        this.skipped++;
+      } else {
+        if(!this.parallel) {
+          TerraOreVein.INSTANCE.trace(shape);
+        }
+
+        this.samples += shape.getSamples();
+        this.placements += shape.getPlacements();
+
+        written = TerraOreVein.INSTANCE.write(this.veinWorld, shape);
+        WorkloadRecorder.recordVein(shape, true, written, startTime);
+        this.placed |= written;
+      }
+
+      if(!this.hasNext() && this.skipped != 0) {
+        TerraMod.LOGGER.warn("Skipped {} veins in chunk {} after the chunk's budget ran out ({} samples, {} placements)", this.skipped, this.chunkPos, this.samples, this.placements);
+      }
+
+      return written;
+    }
+
+    /**
+     * @return true if any vein was written, including by earlier calls to {@link #writeNext}
+     */
+    public boolean writeAll() {
+      while(this.hasNext()) {
+        this.writeNext();
+      }
+
+      return this.placed;
+    }
+  }
+
+  /**
+   * Draws vein starts and seeds exactly as {@link #place} does, but stores them instead of generating
+   */
+  void record(final LazyVeinStorage storage, final long worldSeed, final BlockPos start, final TerraVeinBatchConfig config) {
+    final SharedSeedRandom random = new SharedSeedRandom();
+    final long decorationSeed = random.setDecorationSeed(worldSeed, start.getX(), start.getZ());
+
+    for(int i = 0; i < config.veins.size(); i++) {
+      final VeinDefinition vein = config.veins.get(i);
+      random.setFeatureSeed(decorationSeed, config.featureIndex + i, GenerationStage.Decoration.UNDERGROUND_ORES.ordinal());
+
+      TerraPlacement.INSTANCE.getPositions(worldSeed, random, vein.placement, start).forEach(pos -> storage.add(vein.id, pos, VeinRandom.seedFor(random, pos), TerraOreVein.reach(vein.config, pos.getY())));
+    }
+  }
+}
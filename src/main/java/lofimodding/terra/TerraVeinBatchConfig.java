@@ -0,0 +1,43 @@
+package lofimodding.terra;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.mojang.datafixers.Dynamic;
+import com.mojang.datafixers.types.DynamicOps;
+import net.minecraft.util.ResourceLocation;
+import net.minecraft.world.gen.feature.IFeatureConfig;
+
+import java.util.List;
+
+public class TerraVeinBatchConfig implements IFeatureConfig {
+  public final List<VeinDefinition> veins;
+  /** Where the batch sits in the biome's ore features, which the veins are seeded from */
+  public final int featureIndex;
+
+  public TerraVeinBatchConfig(final List<VeinDefinition> veins, final int featureIndex) {
+    this.veins = ImmutableList.copyOf(veins);
+    this.featureIndex = featureIndex;
+  }
+
+  @Override
+  public <T> Dynamic<T> serialize(final DynamicOps<T> ops) {
+    return new Dynamic<>(ops, ops.createMap(ImmutableMap.of(
+      ops.createString("veins"), ops.createList(this.veins.stream().map(vein -> ops.createString(vein.id.toString()))),
+      ops.createString("featureIndex"), ops.createInt(this.featureIndex)
+    )));
+  }
+
+  public static TerraVeinBatchConfig deserialize(final Dynamic<?> config) {
+    final List<VeinDefinition> veins = config.get("veins").asList(id -> {
+      final VeinDefinition vein = VeinRegistry.get(new ResourceLocation(id.asString("")));
+
+      if(vein == null) {
+        throw new IllegalArgumentException("Unknown vein " + id.asString(""));
+      }
+
+      return vein;
+    });
+
+    return new TerraVeinBatchConfig(veins, config.get("featureIndex").asInt(0));
+  }
+}
@@ -0,0 +1,88 @@
+package lofimodding.terra;
+
+import com.google.common.collect.ImmutableSet;
+import com.mojang.datafixers.Dynamic;
+import net.minecraft.nbt.CompoundNBT;
+import net.minecraft.nbt.ListNBT;
+import net.minecraft.nbt.StringNBT;
+import net.minecraft.util.ResourceLocation;
+import net.minecraft.world.biome.Biome;
+import net.minecraft.world.gen.feature.ConfiguredFeature;
+import net.minecraftforge.common.util.Constants;
+
+import java.util.Set;
+
+public class VeinDefinition {
+  public final ResourceLocation id;
+  public final TerraOreVeinConfig config;
+  public final TerraPlacementConfig placement;
+  /** Empty means every biome */
+  public final Set<ResourceLocation> biomes;
+
+  public VeinDefinition(final ResourceLocation id, final TerraOreVeinConfig config, final TerraPlacementConfig placement, final Set<ResourceLocation> biomes) {
+    this.id = id;
+    this.config = config;
+    this.placement = placement;
+    this.biomes = ImmutableSet.copyOf(biomes);
+  }
+
+  public boolean appliesTo(final Biome biome) {
+    return this.biomes.isEmpty() || this.biomes.contains(biome.getRegistryName());
+  }
+
+  public ConfiguredFeature<?, ?> createFeature() {
+    return TerraOreVein.INSTANCE.withConfiguration(this.config).withPlacement(TerraPlacement.INSTANCE.configure(this.placement));
+  }
+
+  public static VeinDefinition deserialize(final ResourceLocation id, final Dynamic<?> vein) {
+    final TerraPlacementConfig placement = TerraPlacementConfig.deserialize(vein.get("placement").orElseEmptyMap());
+
+    if(placement.chance < 1 || placement.top < 1 || placement.bottom < 0) {
+      throw new IllegalArgumentException("Invalid placement: chance and top must be positive and bottom must not be negative");
+    }
+
+    if(placement.districtSize < 0 || placement.districtContrast < 0.0f || placement.districtContrast > 1.0f) {
+      throw new IllegalArgumentException("Invalid districts: size must not be negative and contrast must be between 0 and 1");
+    }
+
+    return new VeinDefinition(id, TerraOreVeinConfig.deserialize(vein), placement, ImmutableSet.copyOf(vein.get("biomes").asList(biome -> new ResourceLocation(biome.asString("")))));
+  }
+
+  public CompoundNBT writeCompiled(final CompoundNBT nbt) {
+    final ListNBT biomes = new ListNBT();
+    for(final ResourceLocation biome : this.biomes) {
+      biomes.add(StringNBT.valueOf(biome.toString()));
+    }
+
+    final CompoundNBT placement = new CompoundNBT();
+    placement.putInt("chance", this.placement.chance);
+    placement.putInt("bottom", this.placement.bottom);
+    placement.putInt("top", this.placement.top);
+    placement.putInt("districtSize", this.placement.districtSize);
+    placement.putFloat("districtContrast", this.placement.districtContrast);
+    placement.putInt("districtSeed", this.placement.districtSeed);
+
+    nbt.putString("id", this.id.toString());
+    nbt.put("biomes", biomes);
+    nbt.put("placement", placement);
+    nbt.put("vein", this.config.writeCompiled(new CompoundNBT()));
+    return nbt;
+  }
+
+  public static VeinDefinition readCompiled(final CompoundNBT nbt) {
+    final ImmutableSet.Builder<ResourceLocation> biomes = ImmutableSet.builder();
+    final ListNBT biomesNbt = nbt.getList("biomes", Constants.NBT.TAG_STRING);
+    for(int i = 0; i < biomesNbt.size(); i++) {
+      biomes.add(new ResourceLocation(biomesNbt.getString(i)));
+    }
+
+    final CompoundNBT placement = nbt.getCompound("placement");
+
+    return new VeinDefinition(
+      new ResourceLocation(nbt.getString("id")),
+      TerraOreVeinConfig.readCompiled(nbt.getCompound("vein")),
+      new TerraPlacementConfig(placement.getInt("chance"), placement.getInt("bottom"), placement.getInt("top"), placement.getInt("districtSize"), placement.getFloat("districtContrast"), placement.getInt("districtSeed")),
+      biomes.build()
+    );
+  }
+}
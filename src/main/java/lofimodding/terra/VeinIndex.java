@@ -0,0 +1,256 @@
+package lofimodding.terra;
+
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.objects.Reference2IntMap;
+import it.unimi.dsi.fastutil.objects.Reference2IntOpenHashMap;
+import net.minecraft.block.Block;
+import net.minecraft.nbt.CompoundNBT;
+import net.minecraft.nbt.INBT;
+import net.minecraft.nbt.IntArrayNBT;
+import net.minecraft.nbt.ListNBT;
+import net.minecraft.nbt.StringNBT;
+import net.minecraft.util.ResourceLocation;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.math.ChunkPos;
+import net.minecraft.world.server.ServerWorld;
+import net.minecraft.world.storage.WorldSavedData;
+import net.minecraftforge.common.util.Constants;
+import net.minecraftforge.registries.ForgeRegistries;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Where Terra placed veins, so gameplay features can find ores without reading chunks.  Veins are added as they are
+ * written and kept under every region their bounding box overlaps.  Only blocks that were actually placed are counted:
+ * the parts of a vein deferred to other chunks are added when those chunks apply them, as entries of their own under
+ * {@link #DEFERRED}, since deferred blocks don't record which vein they came from.
+ *
+ * Saves copy the entry list and build the file on {@link SavedDataIO}'s pool, so autosaves don't hold up world-gen.
+ */
+public class VeinIndex extends WorldSavedData {
+  /** The vein of every entry added for blocks deferred to a chunk */
+  public static final ResourceLocation DEFERRED = new ResourceLocation(TerraMod.MOD_ID, "deferred");
+
+  private static final String DATA_NAME = TerraMod.MOD_ID + "_vein_index";
+  private static final int FIELDS = 9;
+
+  public static VeinIndex get(final ServerWorld world) {
+    return SavedDataIO.get(world, VeinIndex::new, DATA_NAME);
+  }
+
+  private final Long2ObjectMap<List<Entry>> regions = new Long2ObjectOpenHashMap<>();
+  /** Every entry once, in the order added */
+  private final List<Entry> entries = new ArrayList<>();
+
+  public VeinIndex() {
+    super(DATA_NAME);
+  }
+
+  public synchronized void add(final ResourceLocation vein, final Tracker tracker) {
+    if(tracker.ores.isEmpty()) {
+      return;
+    }
+
+    Block dominant = null;
+    int total = 0;
+    int most = 0;
+
+    for(final Reference2IntMap.Entry<Block> ore : tracker.ores.reference2IntEntrySet()) {
+      total += ore.getIntValue();
+
+      if(ore.getIntValue() > most) {
+        dominant = ore.getKey();
+        most = ore.getIntValue();
+      }
+    }
+
+    this.index(new Entry(vein, dominant, total, tracker.minX, tracker.minY, tracker.minZ, tracker.maxX, tracker.maxY, tracker.maxZ));
+    this.markDirty();
+  }
+
+  private void index(final Entry entry) {
+    this.entries.add(entry);
+
+    for(int x = entry.minX >> 9; x <= entry.maxX >> 9; x++) {
+      for(int z = entry.minZ >> 9; z <= entry.maxZ >> 9; z++) {
+        this.regions.computeIfAbsent(ChunkPos.asLong(x, z), key -> new ArrayList<>()).add(entry);
+      }
+    }
+  }
+
+  /**
+   * @return every vein whose dominant ore is <code>ore</code> and whose bounding box comes within <code>radius</code>
+   * blocks of <code>center</code>
+   */
+  public synchronized List<Entry> find(final Block ore, final BlockPos center, final int radius) {
+    final Set<Entry> found = Collections.newSetFromMap(new IdentityHashMap<>());
+    final List<Entry> result = new ArrayList<>();
+    final long radiusSq = (long)radius * radius;
+
+    for(int x = center.getX() - radius >> 9; x <= center.getX() + radius >> 9; x++) {
+      for(int z = center.getZ() - radius >> 9; z <= center.getZ() + radius >> 9; z++) {
+        final List<Entry> entries = this.regions.get(ChunkPos.asLong(x, z));
+
+        if(entries == null) {
+          continue;
+        }
+
+        for(final Entry entry : entries) {
+          if(entry.ore == ore && entry.distanceSq(center) <= radiusSq && found.add(entry)) {
+            result.add(entry);
+          }
+        }
+      }
+    }
+
+    return result;
+  }
+
+  @Override
+  public void save(final File file) {
+    final Entry[] snapshot;
+
+    synchronized(this) {
+      if(!this.isDirty()) {
+        return;
+      }
+
+      // Entries never change once added, so a copy of the list is a complete snapshot
+      snapshot = this.entries.toArray(new Entry[0]);
+      this.setDirty(false);
+    }
+
+    SavedDataIO.saveAsync(file, () -> write(Arrays.asList(snapshot), new CompoundNBT()));
+  }
+
+  @Override
+  public synchronized void read(final CompoundNBT nbt) {
+    this.regions.clear();
+    this.entries.clear();
+
+    final List<ResourceLocation> veins = new ArrayList<>();
+    for(final INBT id : nbt.getList("veins", Constants.NBT.TAG_STRING)) {
+      veins.add(new ResourceLocation(id.getString()));
+    }
+
+    // The registry hands back air for missing IDs, so entries of ores that are gone are dropped through a null here
+    final List<Block> ores = new ArrayList<>();
+    for(final INBT id : nbt.getList("ores", Constants.NBT.TAG_STRING)) {
+      final ResourceLocation ore = new ResourceLocation(id.getString());
+      ores.add(ForgeRegistries.BLOCKS.containsKey(ore) ? ForgeRegistries.BLOCKS.getValue(ore) : null);
+    }
+
+    final int[] data = nbt.getIntArray("entries");
+
+    for(int i = 0; i + FIELDS <= data.length; i += FIELDS) {
+      final Block ore = ores.get(data[i + 1]);
+
+      if(ore != null) {
+        this.index(new Entry(veins.get(data[i]), ore, data[i + 2], data[i + 3], data[i + 4], data[i + 5], data[i + 6], data[i + 7], data[i + 8]));
+      }
+    }
+  }
+
+  @Override
+  public synchronized CompoundNBT write(final CompoundNBT compound) {
+    return write(this.entries, compound);
+  }
+
+  private static CompoundNBT write(final Collection<Entry> entries, final CompoundNBT compound) {
+    final Map<ResourceLocation, Integer> veinIds = new HashMap<>();
+    final Map<Block, Integer> oreIds = new HashMap<>();
+    final ListNBT veins = new ListNBT();
+    final ListNBT ores = new ListNBT();
+    final int[] data = new int[entries.size() * FIELDS];
+    int i = 0;
+
+    for(final Entry entry : entries) {
+      data[i++] = veinIds.computeIfAbsent(entry.vein, id -> {
+        veins.add(StringNBT.valueOf(id.toString()));
+        return veins.size() - 1;
+      });
+      data[i++] = oreIds.computeIfAbsent(entry.ore, ore -> {
+        ores.add(StringNBT.valueOf(ore.getRegistryName().toString()));
+        return ores.size() - 1;
+      });
+      data[i++] = entry.ores;
+      data[i++] = entry.minX;
+      data[i++] = entry.minY;
+      data[i++] = entry.minZ;
+      data[i++] = entry.maxX;
+      data[i++] = entry.maxY;
+      data[i++] = entry.maxZ;
+    }
+
+    compound.put("veins", veins);
+    compound.put("ores", ores);
+    compound.put("entries", new IntArrayNBT(data));
+    return compound;
+  }
+
+  public static final class Entry {
+    public final ResourceLocation vein;
+    /** The block the vein placed most of */
+    public final Block ore;
+    /** How many ores the vein placed */
+    public final int ores;
+    public final int minX;
+    public final int minY;
+    public final int minZ;
+    public final int maxX;
+    public final int maxY;
+    public final int maxZ;
+
+    private Entry(final ResourceLocation vein, final Block ore, final int ores, final int minX, final int minY, final int minZ, final int maxX, final int maxY, final int maxZ) {
+      this.vein = vein;
+      this.ore = ore;
+      this.ores = ores;
+      this.minX = minX;
+      this.minY = minY;
+      this.minZ = minZ;
+      this.maxX = maxX;
+      this.maxY = maxY;
+      this.maxZ = maxZ;
+    }
+
+    public long distanceSq(final BlockPos pos) {
+      final long x = Math.max(0, Math.max(this.minX - pos.getX(), pos.getX() - this.maxX));
+      final long y = Math.max(0, Math.max(this.minY - pos.getY(), pos.getY() - this.maxY));
+      final long z = Math.max(0, Math.max(this.minZ - pos.getZ(), pos.getZ() - this.maxZ));
+      return x * x + y * y + z * z;
+    }
+  }
+
+  /**
+   * Collects the ores of a vein while it is written
+   */
+  public static final class Tracker {
+    private final Reference2IntMap<Block> ores = new Reference2IntOpenHashMap<>();
+    private int minX = Integer.MAX_VALUE;
+    private int minY = Integer.MAX_VALUE;
+    private int minZ = Integer.MAX_VALUE;
+    private int maxX = Integer.MIN_VALUE;
+    private int maxY = Integer.MIN_VALUE;
+    private int maxZ = Integer.MIN_VALUE;
+
+    public void add(final BlockPos pos, final Block ore) {
+      this.ores.put(ore, this.ores.getInt(ore) + 1);
+      this.minX = Math.min(this.minX, pos.getX());
+      this.minY = Math.min(this.minY, pos.getY());
+      this.minZ = Math.min(this.minZ, pos.getZ());
+      this.maxX = Math.max(this.maxX, pos.getX());
+      this.maxY = Math.max(this.maxY, pos.getY());
+      this.maxZ = Math.max(this.maxZ, pos.getZ());
+    }
+  }
+}
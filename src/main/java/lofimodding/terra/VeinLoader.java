@@ -0,0 +1,191 @@
+package lofimodding.terra;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
+import com.mojang.datafixers.Dynamic;
+import com.mojang.datafixers.types.JsonOps;
+import net.minecraft.nbt.CompoundNBT;
+import net.minecraft.nbt.CompressedStreamTools;
+import net.minecraft.nbt.ListNBT;
+import net.minecraft.util.ResourceLocation;
+import net.minecraftforge.common.util.Constants;
+import net.minecraftforge.fml.ModList;
+import net.minecraftforge.forgespi.language.IModInfo;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Loads vein definitions from <code>veins/*.json</code> in Terra's config directory.
+ *
+ * Parsed and validated veins are written to a compiled cache keyed by a hash of every vein file and of the loaded mods
+ * and their versions, so unchanged configs are read back as resolved depth tables without being parsed or validated
+ * again.  The blocks they use are still checked against the registry, as the offline tools run without a mod list.
+ */
+public final class VeinLoader {
+  /** Bumped whenever the layout written by {@link VeinDefinition#writeCompiled} changes */
+  private static final int CACHE_FORMAT = 4;
+
+  private VeinLoader() { }
+
+  public static List<VeinDefinition> load(final Path configDir) {
+    final Path veinDir = configDir.resolve("veins");
+    final Path cacheFile = configDir.resolve("veins.cache");
+
+    try {
+      Files.createDirectories(veinDir);
+    } catch(final IOException e) {
+      TerraMod.LOGGER.error("Failed to create vein config directory {}", veinDir, e);
+      return new ArrayList<>();
+    }
+
+    final List<Path> files;
+    final String hash;
+
+    try {
+      try(final Stream<Path> walk = Files.walk(veinDir)) {
+        files = walk.filter(Files::isRegularFile).filter(file -> file.toString().endsWith(".json")).sorted().collect(Collectors.toList());
+      }
+
+      hash = hash(veinDir, files);
+    } catch(final IOException e) {
+      TerraMod.LOGGER.error("Failed to read vein configs from {}", veinDir, e);
+      return new ArrayList<>();
+    }
+
+    if(Files.exists(cacheFile)) {
+      try {
+        final List<VeinDefinition> cached = readCache(cacheFile, hash);
+
+        if(cached != null) {
+          TerraMod.LOGGER.info("Loaded {} compiled veins from {}", cached.size(), cacheFile);
+          return cached;
+        }
+      } catch(final IOException | RuntimeException e) {
+        TerraMod.LOGGER.warn("Ignoring unreadable vein cache {}", cacheFile, e);
+      }
+    }
+
+    final List<VeinDefinition> veins = new ArrayList<>();
+    boolean failed = false;
+
+    for(final Path file : files) {
+      final String name = veinDir.relativize(file).toString().replace('\\', '/');
+
+      try {
+        final ResourceLocation id = new ResourceLocation(TerraMod.MOD_ID, name.substring(0, name.length() - ".json".length()));
+        final JsonElement json = new JsonParser().parse(new String(Files.readAllBytes(file), StandardCharsets.UTF_8));
+        veins.add(VeinDefinition.deserialize(id, new Dynamic<>(JsonOps.INSTANCE, json)));
+      } catch(final IOException | RuntimeException e) {
+        TerraMod.LOGGER.error("Skipping invalid vein config {}", file, e);
+        failed = true;
+      }
+    }
+
+    TerraMod.LOGGER.info("Loaded {} veins from {}", veins.size(), veinDir);
+
+    // Don't cache a partial set, the errors should be reported again on the next start
+    if(!failed) {
+      try {
+        writeCache(cacheFile, hash, veins);
+      } catch(final IOException e) {
+        TerraMod.LOGGER.warn("Failed to write vein cache {}", cacheFile, e);
+      }
+    }
+
+    return veins;
+  }
+
+  private static String hash(final Path veinDir, final List<Path> files) throws IOException {
+    final MessageDigest digest;
+
+    try {
+      digest = MessageDigest.getInstance("SHA-256");
+    } catch(final NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+
+    digest.update((byte)CACHE_FORMAT);
+
+    // Mods add and change blocks, which the cached states depend on
+    if(ModList.get() != null) {
+      for(final IModInfo mod : ModList.get().getMods().stream().sorted(Comparator.comparing(IModInfo::getModId)).collect(Collectors.toList())) {
+        digest.update(mod.getModId().getBytes(StandardCharsets.UTF_8));
+        digest.update((byte)0);
+        digest.update(mod.getVersion().toString().getBytes(StandardCharsets.UTF_8));
+        digest.update((byte)0);
+      }
+    }
+
+    digest.update((byte)0);
+
+    for(final Path file : files) {
+      digest.update(veinDir.relativize(file).toString().getBytes(StandardCharsets.UTF_8));
+      digest.update((byte)0);
+      digest.update(Files.readAllBytes(file));
+      digest.update((byte)0);
+    }
+
+    final StringBuilder hex = new StringBuilder();
+    for(final byte b : digest.digest()) {
+      hex.append(String.format("%02x", b));
+    }
+
+    return hex.toString();
+  }
+
+  @Nullable
+  private static List<VeinDefinition> readCache(final Path cacheFile, final String hash) throws IOException {
+    final CompoundNBT nbt;
+
+    try(final InputStream input = Files.newInputStream(cacheFile)) {
+      nbt = CompressedStreamTools.readCompressed(input);
+    }
+
+    if(nbt.getInt("format") != CACHE_FORMAT || !hash.equals(nbt.getString("hash"))) {
+      return null;
+    }
+
+    final List<VeinDefinition> veins = new ArrayList<>();
+    final ListNBT veinList = nbt.getList("veins", Constants.NBT.TAG_COMPOUND);
+
+    for(int i = 0; i < veinList.size(); i++) {
+      veins.add(VeinDefinition.readCompiled(veinList.getCompound(i)));
+    }
+
+    return veins;
+  }
+
+  private static void writeCache(final Path cacheFile, final String hash, final List<VeinDefinition> veins) throws IOException {
+    final ListNBT veinList = new ListNBT();
+    for(final VeinDefinition vein : veins) {
+      veinList.add(vein.writeCompiled(new CompoundNBT()));
+    }
+
+    final CompoundNBT nbt = new CompoundNBT();
+    nbt.putInt("format", CACHE_FORMAT);
+    nbt.putString("hash", hash);
+    nbt.put("veins", veinList);
+
+    final Path temp = cacheFile.resolveSibling(cacheFile.getFileName() + ".tmp");
+
+    try(final OutputStream output = Files.newOutputStream(temp)) {
+      CompressedStreamTools.writeCompressed(nbt, output);
+    }
+
+    Files.move(temp, cacheFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+}
@@ -0,0 +1,77 @@
+package lofimodding.terra;
+
+import net.minecraft.util.math.BlockPos;
+
+import java.util.Random;
+
+/**
+ * SplitMix64 generator used to shape veins.  Unlike {@link Random} it is not thread safe, so draws are plain arithmetic
+ * instead of a compare-and-swap on a shared seed.
+ */
+public final class VeinRandom {
+  private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+  private static final float FLOAT_UNIT = 1.0f / (1 << 24);
+
+  private final long seed;
+  private long state;
+
+  public VeinRandom(final long seed) {
+    this.seed = seed;
+    this.state = seed;
+  }
+
+  /**
+   * Seeds a vein from one draw of the decoration random and the vein's start, so a vein's shape only depends on where
+   * it starts and not on how much randomness other features used
+   */
+  public static VeinRandom forVein(final Random random, final BlockPos start) {
+    return new VeinRandom(seedFor(random, start));
+  }
+
+  /**
+   * @return the seed {@link #forVein} would use, drawing from <code>random</code> in the same way
+   */
+  public static long seedFor(final Random random, final BlockPos start) {
+    return mix(random.nextLong() ^ mix(start.toLong()));
+  }
+
+  private static long mix(long z) {
+    z = (z ^ z >>> 30) * 0xbf58476d1ce4e5b9L;
+    z = (z ^ z >>> 27) * 0x94d049bb133111ebL;
+    return z ^ z >>> 31;
+  }
+
+  /**
+   * @return the seed the generator was created with
+   */
+  public long getSeed() {
+    return this.seed;
+  }
+
+  public long nextLong() {
+    this.state += GOLDEN_GAMMA;
+    return mix(this.state);
+  }
+
+  /**
+   * @return a value in [0, bound) using Lemire's multiply-shift, which has negligible bias for the small bounds veins use
+   */
+  public int nextInt(final int bound) {
+    if(bound <= 0) {
+      throw new IllegalArgumentException("bound must be positive");
+    }
+
+    return (int)(((this.nextLong() >>> 32) * bound) >>> 32);
+  }
+
+  public float nextFloat() {
+    return (this.nextLong() >>> 40) * FLOAT_UNIT;
+  }
+
+  /**
+   * @return an independent generator, advancing this one
+   */
+  public VeinRandom split() {
+    return new VeinRandom(this.nextLong());
+  }
+}
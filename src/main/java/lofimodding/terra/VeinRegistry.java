@@ -0,0 +1,97 @@
+package lofimodding.terra;
+
+import com.google.common.collect.ImmutableList;
+import net.minecraft.util.ResourceLocation;
+import net.minecraft.world.biome.Biome;
+import net.minecraft.world.dimension.DimensionType;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+/**
+ * All veins that Terra adds to biomes, whether they were loaded from config files or registered by other mods.
+ * Veins must be registered before {@link net.minecraftforge.fml.event.lifecycle.FMLLoadCompleteEvent}, when
+ * {@link #compile} works out once which veins each biome gets.
+ */
+public final class VeinRegistry {
+  private static final Map<ResourceLocation, VeinDefinition> VEINS = new LinkedHashMap<>();
+  private static final Map<TerraOreVeinConfig, ResourceLocation> IDS = new IdentityHashMap<>();
+  /** Whether Terra runs in each dimension, worked out on first use from {@link TerraConfig#dimensions} */
+  private static final Map<DimensionType, Boolean> DIMENSIONS = new ConcurrentHashMap<>();
+
+  private static volatile Map<Biome, List<VeinDefinition>> byBiome = Collections.emptyMap();
+
+  private VeinRegistry() { }
+
+  public static synchronized void register(final VeinDefinition vein) {
+    if(VEINS.containsKey(vein.id)) {
+      TerraMod.LOGGER.warn("Replacing vein {}", vein.id);
+    }
+
+    VEINS.put(vein.id, vein);
+    IDS.put(vein.config, vein.id);
+  }
+
+  @Nullable
+  public static synchronized VeinDefinition get(final ResourceLocation id) {
+    return VEINS.get(id);
+  }
+
+  /**
+   * @return the ID of the registered vein with this config
+   */
+  @Nullable
+  public static synchronized ResourceLocation getId(final TerraOreVeinConfig config) {
+    return IDS.get(config);
+  }
+
+  public static synchronized Collection<VeinDefinition> getAll() {
+    return Collections.unmodifiableList(new ArrayList<>(VEINS.values()));
+  }
+
+  /**
+   * Works out which veins each biome gets, in registration order
+   */
+  public static synchronized void compile(final Iterable<Biome> biomes) {
+    final Map<Biome, List<VeinDefinition>> byBiome = new IdentityHashMap<>();
+
+    for(final Biome biome : biomes) {
+      final List<VeinDefinition> veins = VEINS.values().stream().filter(vein -> vein.appliesTo(biome)).collect(Collectors.toList());
+
+      if(!veins.isEmpty()) {
+        byBiome.put(biome, ImmutableList.copyOf(veins));
+      }
+    }
+
+    VeinRegistry.byBiome = byBiome;
+  }
+
+  /**
+   * @return the veins compiled for a biome, empty if it has none
+   */
+  public static List<VeinDefinition> getVeins(final Biome biome) {
+    return byBiome.getOrDefault(biome, Collections.emptyList());
+  }
+
+  /**
+   * @return false if Terra should leave chunks in this dimension alone
+   */
+  public static boolean isEnabled(final DimensionType type) {
+    return DIMENSIONS.computeIfAbsent(type, key -> TerraConfig.dimensions.contains(DimensionType.getKey(key)));
+  }
+
+  /**
+   * Forgets which dimensions are enabled after the config changes
+   */
+  static void clearDimensions() {
+    DIMENSIONS.clear();
+  }
+}
@@ -0,0 +1,218 @@
+package lofimodding.terra;
+
+import it.unimi.dsi.fastutil.ints.Int2ByteLinkedOpenHashMap;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.bytes.ByteArrayList;
+import net.minecraft.util.math.BlockPos;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.function.IntFunction;
+
+/**
+ * Precomputed vein shapes for one config, keyed by depth band, length and stage selection.  Shapes are stored as block
+ * offsets from the vein's start packed ten bits per axis, and are built from a seed derived from their key so every
+ * server builds the same set no matter which veins ask for them first.
+ *
+ * Lengths and stage selections can make far more keys than are worth keeping, so the cache holds at most
+ * {@link #MAX_ENTRIES} ores and pebbles across its templates, about five bytes each, and drops the least recently used
+ * keys past that.  A dropped key is rebuilt from the same seeds when it is next used, so eviction only costs time.
+ */
+final class VeinTemplates {
+  static final int MAX_TEMPLATES = 64;
+  /** Stage selections are keyed as a bitmask */
+  static final int MAX_STAGES = 32;
+  /** Ores and pebbles kept across all of one config's templates, about 10 MB */
+  static final int MAX_ENTRIES = 1 << 21;
+
+  private static final int BITS = 10;
+  private static final int MASK = (1 << BITS) - 1;
+  private static final int RANGE = 1 << BITS - 1;
+
+  /** The 24 rotations of a cube as row-major 3x3 matrices */
+  private static final int[][] ROTATIONS = new int[24][];
+
+  static {
+    final int[][] permutations = {{0, 1, 2}, {1, 2, 0}, {2, 0, 1}, {0, 2, 1}, {2, 1, 0}, {1, 0, 2}};
+    int count = 0;
+
+    for(int p = 0; p < permutations.length; p++) {
+      for(int signs = 0; signs < 8; signs++) {
+        // Odd permutations need an odd number of flipped axes to keep the determinant positive
+        if((Integer.bitCount(signs) & 1) != (p < 3 ? 0 : 1)) {
+          continue;
+        }
+
+        final int[] matrix = new int[9];
+        for(int row = 0; row < 3; row++) {
+          matrix[row * 3 + permutations[p][row]] = (signs & 1 << row) != 0 ? -1 : 1;
+        }
+
+        ROTATIONS[count++] = matrix;
+      }
+    }
+  }
+
+  private final int count;
+  private final int maxEntries;
+  /** In access order; guarded by itself */
+  private final LinkedHashMap<Long, Template[]> templates = new LinkedHashMap<>(16, 0.75f, true);
+  private long entries;
+
+  VeinTemplates(final int count) {
+    this(count, MAX_ENTRIES);
+  }
+
+  VeinTemplates(final int count, final int maxEntries) {
+    this.count = count;
+    this.maxEntries = maxEntries;
+  }
+
+  static int rotations() {
+    return ROTATIONS.length;
+  }
+
+  static long key(final int depth, final int length, final int stageMask) {
+    return (long)stageMask << 32 | (long)(length & 0xffffff) << 8 | depth >> 4;
+  }
+
+  static long seed(final long key, final int index) {
+    return key * 0x9e3779b97f4a7c15L + index;
+  }
+
+  /**
+   * Builds outside the lock, so parallel traces can build different keys at once.  Two traces asking for the same
+   * missing key may both build it, which gives the same templates.
+   *
+   * @param factory builds the template at the given index
+   */
+  Template[] get(final long key, final IntFunction<Template> factory) {
+    synchronized(this.templates) {
+      final Template[] cached = this.templates.get(key);
+
+      if(cached != null) {
+        return cached;
+      }
+    }
+
+    final Template[] built = new Template[this.count];
+    long size = 0;
+
+    for(int i = 0; i < built.length; i++) {
+      built[i] = factory.apply(i);
+      size += built[i].size();
+    }
+
+    synchronized(this.templates) {
+      final Template[] cached = this.templates.putIfAbsent(key, built);
+
+      if(cached != null) {
+        return cached;
+      }
+
+      this.entries += size;
+
+      // The newest key is kept even if it alone is over the limit
+      final Iterator<Template[]> eldest = this.templates.values().iterator();
+      while(this.entries > this.maxEntries && this.templates.size() > 1) {
+        this.entries -= size(eldest.next());
+        eldest.remove();
+      }
+    }
+
+    return built;
+  }
+
+  /**
+   * @return how many keys are cached
+   */
+  int keys() {
+    synchronized(this.templates) {
+      return this.templates.size();
+    }
+  }
+
+  private static long size(final Template[] templates) {
+    long size = 0;
+
+    for(final Template template : templates) {
+      size += template.size();
+    }
+
+    return size;
+  }
+
+  private static int pack(final int x, final int y, final int z) {
+    return (x & MASK) << BITS * 2 | (y & MASK) << BITS | z & MASK;
+  }
+
+  /**
+   * Rotates a packed offset and adds it to <code>origin</code>
+   */
+  static void unpack(final int packed, final int rotation, final BlockPos origin, final BlockPos.Mutable out) {
+    final int x = packed << 32 - BITS * 3 >> 32 - BITS;
+    final int y = packed << 32 - BITS * 2 >> 32 - BITS;
+    final int z = packed << 32 - BITS >> 32 - BITS;
+    final int[] m = ROTATIONS[rotation];
+
+    out.setPos(
+      origin.getX() + m[0] * x + m[1] * y + m[2] * z,
+      origin.getY() + m[3] * x + m[4] * y + m[5] * z,
+      origin.getZ() + m[6] * x + m[7] * y + m[8] * z
+    );
+  }
+
+  static final class Template {
+    final int[] ores;
+    /** Index into the vein's selected stages */
+    final byte[] oreStages;
+    final int[] pebbles;
+    /** Index into the config's pebbles */
+    final byte[] pebbleTypes;
+
+    private Template(final int[] ores, final byte[] oreStages, final int[] pebbles, final byte[] pebbleTypes) {
+      this.ores = ores;
+      this.oreStages = oreStages;
+      this.pebbles = pebbles;
+      this.pebbleTypes = pebbleTypes;
+    }
+
+    int size() {
+      return this.ores.length + this.pebbles.length;
+    }
+  }
+
+  /**
+   * Collects a traced vein.  Later stages overwrite earlier ones at the same offset, as they do when tracing.
+   */
+  static final class Builder {
+    private final Int2ByteLinkedOpenHashMap ores = new Int2ByteLinkedOpenHashMap();
+    private final IntArrayList pebbles = new IntArrayList();
+    private final ByteArrayList pebbleTypes = new ByteArrayList();
+
+    private static boolean inRange(final int x, final int y, final int z) {
+      return x >= -RANGE && x < RANGE && y >= -RANGE && y < RANGE && z >= -RANGE && z < RANGE;
+    }
+
+    void addOre(final int x, final int y, final int z, final int stage) {
+      if(inRange(x, y, z)) {
+        this.ores.put(pack(x, y, z), (byte)stage);
+      }
+    }
+
+    void addPebble(final int x, final int y, final int z, final int type) {
+      if(inRange(x, y, z)) {
+        this.pebbles.add(pack(x, y, z));
+        this.pebbleTypes.add((byte)type);
+      }
+    }
+
+    int size() {
+      return this.ores.size();
+    }
+
+    Template build() {
+      return new Template(this.ores.keySet().toIntArray(), this.ores.values().toByteArray(), this.pebbles.toIntArray(), this.pebbleTypes.toByteArray());
+    }
+  }
+}
@@ -0,0 +1,65 @@
+package lofimodding.terra;
+
+import net.minecraft.block.BlockState;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.math.ChunkPos;
+
+import javax.annotation.Nullable;
+import java.util.List;
+
+/**
+ * The world access that vein generation needs, so that veins can be generated outside of a running server
+ */
+public interface VeinWorld {
+  BlockState getBlockState(final BlockPos pos);
+
+  void setBlockState(final BlockPos pos, final BlockState state);
+
+  boolean isReplaceable(final BlockState state, final BlockPos pos, final TerraOreVeinConfig.Replacer replacer);
+
+  boolean canPlacePebble(final BlockState pebble, final BlockPos pos);
+
+  /**
+   * Records an ore for a chunk other than the one being decorated, or places it straight away if that chunk can be
+   * written to
+   */
+  void deferOre(final ChunkPos chunkPos, final BlockPos pos, final List<TerraOreVeinConfig.Replacer> replacers);
+
+  /**
+   * Records a pebble for a chunk other than the one being decorated.  Only the X and Z of the position are used.
+   */
+  void deferPebble(final ChunkPos chunkPos, final BlockPos pos, final BlockState pebble);
+
+  /**
+   * Lets callers skip whole sections without reading their blocks
+   *
+   * @return false only if no block in the section holding <code>pos</code> can be replaced by any of
+   * <code>replacers</code>
+   */
+  default boolean mayHost(final BlockPos pos, final List<TerraOreVeinConfig.Replacer> replacers) {
+    return true;
+  }
+
+  /**
+   * @return where a pebble in the column would rest
+   */
+  default BlockPos findSurface(final int x, final int z) {
+    return TerraOreVein.findSurface(this, x, z);
+  }
+
+  /**
+   * @return where to record the veins written to this world, or null if they aren't recorded
+   */
+  @Nullable
+  default VeinIndex getVeinIndex() {
+    return null;
+  }
+
+  /**
+   * @return the context of the chunk being decorated, or null outside of a running server
+   */
+  @Nullable
+  default ChunkContext getContext() {
+    return null;
+  }
+}
@@ -0,0 +1,199 @@
+package lofimodding.terra;
+
+import net.minecraft.block.BlockState;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.math.ChunkPos;
+import net.minecraftforge.fml.event.server.FMLServerStartedEvent;
+import net.minecraftforge.fml.event.server.FMLServerStoppingEvent;
+import net.minecraftforge.fml.loading.FMLPaths;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Records every vein Terra generates and every chunk's deferred work to a compact binary file, so that a slice of real
+ * server load can be replayed offline by {@link lofimodding.terra.offline.WorkloadReplay}.
+ *
+ * <p>The file is gzipped and starts with {@link #MAGIC} and {@link #VERSION}, followed by records that each start with
+ * a tag byte:</p>
+ * <ul>
+ *   <li>{@link #TAG_ID}: a short index and the UTF vein ID it stands for in later records</li>
+ *   <li>{@link #TAG_VEIN}: the vein's seed, packed start, ID index, {@link #TRACED} and {@link #WRITTEN} flags, trace
+ *   digest and nanoseconds taken</li>
+ *   <li>{@link #TAG_DEFERRED}: the packed chunk, ore count and packed ore positions, pebble count and packed pebble
+ *   positions, {@link #digestDeferred digest} of the entries and nanoseconds taken</li>
+ * </ul>
+ */
+public final class WorkloadRecorder {
+  public static final int MAGIC = 0x5457524b;
+  public static final int VERSION = 2;
+
+  public static final byte TAG_ID = 0;
+  public static final byte TAG_VEIN = 1;
+  public static final byte TAG_DEFERRED = 2;
+
+  public static final byte TRACED = 1;
+  public static final byte WRITTEN = 2;
+
+  private static volatile boolean recording;
+  private static DataOutputStream output;
+  private static final Map<TerraOreVeinConfig, Integer> IDS = new IdentityHashMap<>();
+
+  private WorkloadRecorder() { }
+
+  public static boolean isRecording() {
+    return recording;
+  }
+
+  static synchronized void onServerStarted(final FMLServerStartedEvent event) {
+    if(!TerraConfig.recordWorkload) {
+      return;
+    }
+
+    final Path file = FMLPaths.GAMEDIR.get().resolve("logs").resolve("terra-workload-" + new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date()) + ".bin.gz");
+
+    try {
+      Files.createDirectories(file.getParent());
+      output = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(Files.newOutputStream(file))));
+      output.writeInt(MAGIC);
+      output.writeInt(VERSION);
+
+      IDS.clear();
+      for(final VeinDefinition vein : VeinRegistry.getAll()) {
+        IDS.put(vein.config, IDS.size());
+        output.writeByte(TAG_ID);
+        output.writeShort(IDS.size() - 1);
+        output.writeUTF(vein.id.toString());
+      }
+
+      recording = true;
+      TerraMod.LOGGER.info("Recording Terra workload to {}", file);
+    } catch(final IOException e) {
+      TerraMod.LOGGER.error("Failed to start recording Terra workload", e);
+      close();
+    }
+  }
+
+  static synchronized void onServerStopping(final FMLServerStoppingEvent event) {
+    close();
+  }
+
+  private static void close() {
+    recording = false;
+
+    if(output != null) {
+      try {
+        output.close();
+      } catch(final IOException e) {
+        TerraMod.LOGGER.error("Failed to finish recording Terra workload", e);
+      }
+
+      output = null;
+    }
+  }
+
+  /**
+   * @param traced whether the shape was traced, which makes its digest meaningful
+   * @param startTime {@link System#nanoTime} when work on the vein started
+   */
+  public static void recordVein(final TerraOreVein.Shape shape, final boolean traced, final boolean written, final long startTime) {
+    if(!recording) {
+      return;
+    }
+
+    final long nanos = System.nanoTime() - startTime;
+
+    synchronized(WorkloadRecorder.class) {
+      if(output == null) {
+        return;
+      }
+
+      try {
+        output.writeByte(TAG_VEIN);
+        output.writeLong(shape.getSeed());
+        output.writeLong(shape.getStart().toLong());
+        output.writeShort(IDS.getOrDefault(shape.getConfig(), -1));
+        output.writeByte((traced ? TRACED : 0) | (written ? WRITTEN : 0));
+        output.writeLong(traced ? shape.getDigest() : 0L);
+        output.writeInt((int)Math.min(nanos, Integer.MAX_VALUE));
+      } catch(final IOException e) {
+        TerraMod.LOGGER.error("Failed to record Terra workload, recording stopped", e);
+        close();
+      }
+    }
+  }
+
+  public static void recordDeferred(final ChunkPos chunkPos, final Map<BlockPos, List<TerraOreVeinConfig.Replacer>> ores, final Map<BlockPos, BlockState> pebbles, final long startTime) {
+    if(!recording) {
+      return;
+    }
+
+    final long nanos = System.nanoTime() - startTime;
+    final long digest = digestDeferred(ores, pebbles);
+
+    synchronized(WorkloadRecorder.class) {
+      if(output == null) {
+        return;
+      }
+
+      try {
+        output.writeByte(TAG_DEFERRED);
+        output.writeLong(chunkPos.asLong());
+        output.writeInt(ores.size());
+        for(final BlockPos pos : ores.keySet()) {
+          output.writeLong(pos.toLong());
+        }
+
+        output.writeInt(pebbles.size());
+        for(final BlockPos pos : pebbles.keySet()) {
+          output.writeLong(pos.toLong());
+        }
+
+        output.writeLong(digest);
+        output.writeInt((int)Math.min(nanos, Integer.MAX_VALUE));
+      } catch(final IOException e) {
+        TerraMod.LOGGER.error("Failed to record Terra workload, recording stopped", e);
+        close();
+      }
+    }
+  }
+
+  /**
+   * States are hashed by name rather than ID, since IDs differ between a modded server and an offline replay
+   *
+   * @return a digest of deferred entries' positions and the states they place that doesn't depend on their order
+   */
+  public static long digestDeferred(final Map<BlockPos, List<TerraOreVeinConfig.Replacer>> ores, final Map<BlockPos, BlockState> pebbles) {
+    long digest = 0;
+
+    for(final Map.Entry<BlockPos, List<TerraOreVeinConfig.Replacer>> ore : ores.entrySet()) {
+      long states = 0;
+      for(final TerraOreVeinConfig.Replacer replacer : ore.getValue()) {
+        states = states * 31 + replacer.blockToPlace.toString().hashCode();
+      }
+
+      digest += mix(mix(ore.getKey().toLong()) ^ states);
+    }
+
+    for(final Map.Entry<BlockPos, BlockState> pebble : pebbles.entrySet()) {
+      digest += mix(mix(~pebble.getKey().toLong()) ^ pebble.getValue().toString().hashCode());
+    }
+
+    return digest;
+  }
+
+  private static long mix(long z) {
+    z = (z ^ z >>> 33) * 0xff51afd7ed558ccdL;
+    z = (z ^ z >>> 33) * 0xc4ceb9fe1a85ec53L;
+    return z ^ z >>> 33;
+  }
+}
@@ -0,0 +1,341 @@
+package lofimodding.terra.offline;
+
+import it.unimi.dsi.fastutil.objects.Object2IntMap;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+import lofimodding.terra.TerraFeatures;
+import net.minecraft.block.Block;
+import net.minecraft.block.BlockState;
+import net.minecraft.block.Blocks;
+import net.minecraft.nbt.CompoundNBT;
+import net.minecraft.nbt.ListNBT;
+import net.minecraft.nbt.NBTUtil;
+import net.minecraft.util.ResourceLocation;
+import net.minecraft.util.math.ChunkPos;
+import net.minecraft.util.math.MathHelper;
+import net.minecraft.util.registry.Registry;
+import net.minecraft.world.biome.Biome;
+import net.minecraft.world.biome.BiomeManager;
+import net.minecraft.world.biome.IBiomeMagnifier;
+import net.minecraftforge.common.util.Constants;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Block access to a chunk's saved NBT.  Sections are decoded when first touched and re-encoded by {@link #save}.
+ */
+public class ChunkData {
+  private static final BlockState AIR = Blocks.AIR.getDefaultState();
+
+  public final ChunkPos pos;
+  private final CompoundNBT level;
+  private final Section[] sections = new Section[16];
+  private boolean modified;
+  private boolean heightmapsChanged;
+  private boolean lightChanged;
+
+  public ChunkData(final ChunkPos pos, final CompoundNBT root) {
+    this.pos = pos;
+    this.level = root.getCompound("Level");
+  }
+
+  public String getStatus() {
+    return this.level.getString("Status");
+  }
+
+  /**
+   * Looks the biome up through a {@link BiomeManager}, exactly as decoration does
+   *
+   * @param hashedSeed the world's seed, hashed as for its biome manager
+   * @param magnifier  the dimension's biome magnifier
+   *
+   * @return the biome the chunk is decorated with, or null if the chunk has no biomes
+   */
+  @Nullable
+  public Biome getBiome(final long hashedSeed, final IBiomeMagnifier magnifier) {
+    final int[] biomes = this.level.getIntArray("Biomes");
+
+    if(biomes.length != 1024) {
+      return null;
+    }
+
+    // Lookups near the chunk's centre only reach its own noise cells; clamping keeps any others inside the chunk
+    final BiomeManager manager = new BiomeManager((x, y, z) -> {
+      final int localX = MathHelper.clamp(x - (this.pos.x << 2), 0, 3);
+      final int localY = MathHelper.clamp(y, 0, 63);
+      final int localZ = MathHelper.clamp(z - (this.pos.z << 2), 0, 3);
+      return Registry.BIOME.getByValue(biomes[localY << 4 | localZ << 2 | localX]);
+    }, hashedSeed, magnifier);
+
+    return manager.getBiome(TerraFeatures.getBiomePos(this.pos));
+  }
+
+  public boolean isModified() {
+    return this.modified;
+  }
+
+  public BlockState getBlockState(final int x, final int y, final int z) {
+    if(y < 0 || y >= 256) {
+      return AIR;
+    }
+
+    final Section section = this.getSection(y >> 4, false);
+    return section == null ? AIR : section.get(x & 15, y & 15, z & 15);
+  }
+
+  public void setBlockState(final int x, final int y, final int z, final BlockState state, final boolean surface) {
+    if(y < 0 || y >= 256) {
+      return;
+    }
+
+    final Section section = this.getSection(y >> 4, true);
+    section.set(x & 15, y & 15, z & 15, state);
+    this.modified = true;
+    this.heightmapsChanged |= surface;
+    this.lightChanged |= surface || state.getLightValue() != 0;
+  }
+
+  /**
+   * Replaces every block of <code>blocks</code> in the chunk, as {@link lofimodding.terra.OreScrubber} does in game.
+   * Sections whose palette holds none of them are skipped without decoding their blocks.
+   *
+   * @return the number of blocks replaced
+   */
+  public int replaceAll(final Set<Block> blocks, final BlockState replacement) {
+    if(blocks.isEmpty()) {
+      return 0;
+    }
+
+    final ListNBT sectionList = this.level.getList("Sections", Constants.NBT.TAG_COMPOUND);
+    int replaced = 0;
+
+    for(int i = 0; i < sectionList.size(); i++) {
+      final CompoundNBT sectionNbt = sectionList.getCompound(i);
+      final int y = sectionNbt.getByte("Y");
+
+      if(y < 0 || y >= this.sections.length) {
+        continue;
+      }
+
+      if(this.sections[y] == null && !mayContain(sectionNbt.getList("Palette", Constants.NBT.TAG_COMPOUND), blocks)) {
+        continue;
+      }
+
+      final Section section = this.getSection(y, false);
+      replaced += section.replaceAll(blocks, replacement);
+    }
+
+    if(replaced != 0) {
+      this.modified = true;
+      this.lightChanged |= replacement.getLightValue() != 0;
+    }
+
+    return replaced;
+  }
+
+  private static boolean mayContain(final ListNBT palette, final Set<Block> blocks) {
+    for(int i = 0; i < palette.size(); i++) {
+      final Block block = Registry.BLOCK.getOrDefault(new ResourceLocation(palette.getCompound(i).getString("Name")));
+
+      if(blocks.contains(block)) {
+        return true;
+      }
+    }
+
+    return false;
+  }
+
+  @Nullable
+  private Section getSection(final int y, final boolean create) {
+    if(this.sections[y] != null) {
+      return this.sections[y];
+    }
+
+    final ListNBT sectionList = this.level.getList("Sections", Constants.NBT.TAG_COMPOUND);
+
+    for(int i = 0; i < sectionList.size(); i++) {
+      final CompoundNBT sectionNbt = sectionList.getCompound(i);
+
+      if(sectionNbt.getByte("Y") == y) {
+        this.sections[y] = new Section(sectionNbt);
+        return this.sections[y];
+      }
+    }
+
+    if(!create) {
+      return null;
+    }
+
+    final CompoundNBT sectionNbt = new CompoundNBT();
+    sectionNbt.putByte("Y", (byte)y);
+    sectionList.add(sectionNbt);
+    this.level.put("Sections", sectionList);
+
+    this.sections[y] = new Section(sectionNbt);
+    return this.sections[y];
+  }
+
+  /**
+   * Writes modified sections back to the chunk NBT.  Heightmaps and light are dropped where they may have changed so
+   * the game recomputes them when the chunk loads.
+   */
+  public void save() {
+    for(final Section section : this.sections) {
+      if(section != null && section.dirty) {
+        section.save();
+      }
+    }
+
+    if(this.heightmapsChanged) {
+      this.level.remove("Heightmaps");
+    }
+
+    if(this.lightChanged) {
+      this.level.putBoolean("isLightOn", false);
+    }
+  }
+
+  private static final class Section {
+    private final CompoundNBT nbt;
+    private final List<BlockState> palette = new ArrayList<>();
+    private final Object2IntMap<BlockState> ids = new Object2IntOpenHashMap<>();
+    private final int[] blocks = new int[4096];
+    private boolean dirty;
+
+    private Section(final CompoundNBT nbt) {
+      this.nbt = nbt;
+      this.ids.defaultReturnValue(-1);
+
+      final ListNBT paletteList = nbt.getList("Palette", Constants.NBT.TAG_COMPOUND);
+
+      if(paletteList.isEmpty()) {
+        this.idFor(AIR);
+        return;
+      }
+
+      for(int i = 0; i < paletteList.size(); i++) {
+        final BlockState state = NBTUtil.readBlockState(paletteList.getCompound(i));
+        this.palette.add(state);
+
+        if(!this.ids.containsKey(state)) {
+          this.ids.put(state, i);
+        }
+      }
+
+      unpack(nbt.getLongArray("BlockStates"), bitsFor(this.palette.size()), this.blocks);
+    }
+
+    private static int index(final int x, final int y, final int z) {
+      return y << 8 | z << 4 | x;
+    }
+
+    private BlockState get(final int x, final int y, final int z) {
+      return this.palette.get(this.blocks[index(x, y, z)]);
+    }
+
+    private void set(final int x, final int y, final int z, final BlockState state) {
+      this.blocks[index(x, y, z)] = this.idFor(state);
+      this.dirty = true;
+    }
+
+    private int replaceAll(final Set<Block> blocks, final BlockState replacement) {
+      int replaced = 0;
+      int replacementId = -1;
+
+      for(int i = 0; i < this.blocks.length; i++) {
+        if(blocks.contains(this.palette.get(this.blocks[i]).getBlock())) {
+          if(replacementId == -1) {
+            replacementId = this.idFor(replacement);
+          }
+
+          this.blocks[i] = replacementId;
+          replaced++;
+        }
+      }
+
+      this.dirty |= replaced != 0;
+      return replaced;
+    }
+
+    private int idFor(final BlockState state) {
+      int id = this.ids.getInt(state);
+
+      if(id == -1) {
+        id = this.palette.size();
+        this.palette.add(state);
+        this.ids.put(state, id);
+      }
+
+      return id;
+    }
+
+    /**
+     * Re-encodes the section with a palette of only the states still in use
+     */
+    private void save() {
+      final int[] remap = new int[this.palette.size()];
+      Arrays.fill(remap, -1);
+
+      final ListNBT paletteList = new ListNBT();
+      final int[] compact = new int[this.blocks.length];
+
+      for(int i = 0; i < this.blocks.length; i++) {
+        final int id = this.blocks[i];
+
+        if(remap[id] == -1) {
+          remap[id] = paletteList.size();
+          paletteList.add(NBTUtil.writeBlockState(this.palette.get(id)));
+        }
+
+        compact[i] = remap[id];
+      }
+
+      this.nbt.put("Palette", paletteList);
+      this.nbt.putLongArray("BlockStates", pack(compact, bitsFor(paletteList.size())));
+      this.dirty = false;
+    }
+
+    private static int bitsFor(final int paletteSize) {
+      return Math.max(4, MathHelper.log2DeBruijn(paletteSize));
+    }
+
+    private static void unpack(final long[] data, final int bits, final int[] out) {
+      final long mask = (1L << bits) - 1;
+
+      for(int i = 0; i < out.length; i++) {
+        final int bit = i * bits;
+        final int word = bit >> 6;
+        final int offset = bit & 63;
+
+        long value = data[word] >>> offset;
+
+        if(offset + bits > 64) {
+          value |= data[word + 1] << 64 - offset;
+        }
+
+        out[i] = (int)(value & mask);
+      }
+    }
+
+    private static long[] pack(final int[] values, final int bits) {
+      final long[] data = new long[(values.length * bits + 63) >> 6];
+
+      for(int i = 0; i < values.length; i++) {
+        final int bit = i * bits;
+        final int word = bit >> 6;
+        final int offset = bit & 63;
+
+        data[word] |= (long)values[i] << offset;
+
+        if(offset + bits > 64) {
+          data[word + 1] |= (long)values[i] >>> 64 - offset;
+        }
+      }
+
+      return data;
+    }
+  }
+}
@@ -0,0 +1,45 @@
+package lofimodding.terra.offline;
+
+import lofimodding.terra.TerraMod;
+import net.minecraft.block.Block;
+import net.minecraft.resources.ResourcePackType;
+import net.minecraft.resources.SimpleReloadableResourceManager;
+import net.minecraft.resources.VanillaPack;
+import net.minecraft.tags.BlockTags;
+import net.minecraft.tags.Tag;
+import net.minecraft.tags.TagCollection;
+import net.minecraft.util.ResourceLocation;
+import net.minecraft.util.Util;
+import net.minecraft.util.registry.Bootstrap;
+import net.minecraft.util.registry.Registry;
+
+import java.util.Map;
+
+/**
+ * Brings up the vanilla registries and block tags without starting a server.  Blocks added by other mods are not
+ * registered, so veins that place or replace modded blocks cannot be generated offline.
+ */
+public final class OfflineBootstrap {
+  private static boolean done;
+
+  private OfflineBootstrap() { }
+
+  public static synchronized void run() {
+    if(done) {
+      return;
+    }
+
+    Bootstrap.register();
+
+    final SimpleReloadableResourceManager resources = new SimpleReloadableResourceManager(ResourcePackType.SERVER_DATA, Thread.currentThread());
+    resources.addResourcePack(new VanillaPack("minecraft", "forge"));
+
+    final TagCollection<Block> blockTags = new TagCollection<>(Registry.BLOCK::getValue, "tags/blocks", true, "block");
+    final Map<ResourceLocation, Tag.Builder<Block>> builders = blockTags.reload(resources, Util.getServerExecutor()).join();
+    blockTags.registerAll(builders);
+    BlockTags.setCollection(blockTags);
+
+    TerraMod.LOGGER.info("Loaded {} block tags", blockTags.getTagMap().size());
+    done = true;
+  }
+}
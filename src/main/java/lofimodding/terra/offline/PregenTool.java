@@ -0,0 +1,448 @@
+package lofimodding.terra.offline;
+
+import lofimodding.terra.DeferredGenerationStorage;
+import lofimodding.terra.RegionFiles;
+import lofimodding.terra.RetrogenStorage;
+import lofimodding.terra.TerraFeatures;
+import lofimodding.terra.TerraMod;
+import lofimodding.terra.TerraVeinBatch;
+import lofimodding.terra.TerraVeinBatchConfig;
+import lofimodding.terra.VeinLoader;
+import lofimodding.terra.VeinRegistry;
+import net.minecraft.block.Block;
+import net.minecraft.block.BlockState;
+import net.minecraft.block.Blocks;
+import net.minecraft.nbt.CompoundNBT;
+import net.minecraft.nbt.CompressedStreamTools;
+import net.minecraft.util.ResourceLocation;
+import net.minecraft.util.SharedConstants;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.math.ChunkPos;
+import net.minecraft.world.biome.Biome;
+import net.minecraft.world.biome.IBiomeMagnifier;
+import net.minecraft.world.chunk.ChunkStatus;
+import net.minecraft.world.dimension.DimensionType;
+import net.minecraft.world.storage.WorldInfo;
+import net.minecraft.world.storage.WorldSavedData;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Generates Terra veins into the region files of a stopped world, one region per task, so that a pregenerated map can
+ * be populated on every core instead of through the server thread.
+ *
+ * <pre>
+ * PregenTool &lt;world dir&gt; &lt;min chunk x&gt; &lt;min chunk z&gt; &lt;max chunk x&gt; &lt;max chunk z&gt; [--dimension minecraft:overworld] [--config config/terra] [--threads n] [--scrub true]
+ * </pre>
+ *
+ * Veins are written through {@link TerraVeinBatch.Writer}, so each chunk's veins stop where the game's would once the
+ * chunk's budget runs out.  Budgets use their defaults.  <code>--scrub true</code> replaces removed ores before each
+ * chunk's veins are placed, as <code>generation.scrubRemovedOres</code> does in game.
+ *
+ * Only chunks that have finished generating and that Terra has not decorated yet are touched.  Worlds that Terra
+ * decorated before it recorded decorated chunks are refused, as {@link RetrogenStorage} describes.  Blocks spilling into
+ * chunks that are not generated yet are left in the world's deferred storage for the game to apply.
+ *
+ * Each region file is committed together with the chunks it marks done and the deferred storage, through a journal
+ * that the next run rolls forward, so a crash part-way never leaves decorated chunks that aren't marked done.  A
+ * region that fails is logged and skipped, and its chunks are picked up again by the next run.
+ */
+public final class PregenTool {
+  private PregenTool() { }
+
+  public static void main(final String[] args) throws Exception {
+    if(args.length < 5) {
+      System.err.println("Usage: PregenTool <world dir> <min chunk x> <min chunk z> <max chunk x> <max chunk z> [--dimension minecraft:overworld] [--config config/terra] [--threads n] [--scrub true]");
+      System.exit(1);
+    }
+
+    final File worldDir = new File(args[0]);
+    final ChunkPos min = new ChunkPos(Integer.parseInt(args[1]), Integer.parseInt(args[2]));
+    final ChunkPos max = new ChunkPos(Integer.parseInt(args[3]), Integer.parseInt(args[4]));
+
+    String dimension = "minecraft:overworld";
+    Path configDir = Paths.get("config", TerraMod.MOD_ID);
+    int threads = Runtime.getRuntime().availableProcessors();
+    boolean scrub = false;
+
+    for(int i = 5; i < args.length - 1; i += 2) {
+      switch(args[i]) {
+        case "--dimension":
+          dimension = args[i + 1];
+          break;
+
+        case "--config":
+          configDir = Paths.get(args[i + 1]);
+          break;
+
+        case "--threads":
+          threads = Integer.parseInt(args[i + 1]);
+          break;
+
+        case "--scrub":
+          scrub = Boolean.parseBoolean(args[i + 1]);
+          break;
+
+        default:
+          throw new IllegalArgumentException("Unknown option " + args[i]);
+      }
+    }
+
+    OfflineBootstrap.run();
+
+    final DimensionType type = DimensionType.byName(new ResourceLocation(dimension));
+
+    if(type == null) {
+      throw new IllegalArgumentException("Unknown dimension " + dimension);
+    }
+
+    VeinLoader.load(configDir).forEach(VeinRegistry::register);
+    VeinRegistry.compile(Biome.BIOMES);
+
+    // Lay the biomes out as the game does, so features sit at the same indices and veins are seeded the same way
+    final Set<Block> removedOres = TerraFeatures.readRemovedOres(configDir);
+
+    for(final Biome biome : Biome.BIOMES) {
+      TerraFeatures.removeOres(biome, removedOres);
+      TerraFeatures.addVeins(biome);
+    }
+
+    final BlockState host = type == DimensionType.THE_NETHER ? Blocks.NETHERRACK.getDefaultState() : Blocks.STONE.getDefaultState();
+    final Run run = new Run(type.getDirectory(worldDir), readSeed(worldDir), type.getMagnifier(), min, max, scrub ? removedOres : Collections.emptySet(), host);
+    run.generate(threads);
+  }
+
+  private static long readSeed(final File worldDir) throws IOException {
+    try(final InputStream input = Files.newInputStream(new File(worldDir, "level.dat").toPath())) {
+      return CompressedStreamTools.readCompressed(input).getCompound("Data").getLong("RandomSeed");
+    }
+  }
+
+  private static void readData(final File dataDir, final WorldSavedData data) throws IOException {
+    final File file = new File(dataDir, data.getName() + ".dat");
+
+    if(file.exists()) {
+      try(final InputStream input = Files.newInputStream(file.toPath())) {
+        data.read(CompressedStreamTools.readCompressed(input).getCompound("data"));
+      }
+    }
+  }
+
+  /**
+   * @return the written file, to be moved over the data's own file
+   */
+  private static File writeDataTemp(final File dataDir, final WorldSavedData data) throws IOException {
+    final CompoundNBT root = new CompoundNBT();
+    root.put("data", data.write(new CompoundNBT()));
+    root.putInt("DataVersion", SharedConstants.getVersion().getWorldVersion());
+
+    Files.createDirectories(dataDir.toPath());
+    final File temp = new File(dataDir, data.getName() + ".dat.tmp");
+
+    try(final OutputStream output = Files.newOutputStream(temp.toPath())) {
+      CompressedStreamTools.writeCompressed(root, output);
+    }
+
+    return temp;
+  }
+
+  private static File dataFile(final File dataDir, final WorldSavedData data) {
+    return new File(dataDir, data.getName() + ".dat");
+  }
+
+  /**
+   * Moves each written file over its target.  The moves are listed in a journal first, so that a run that stops
+   * part-way through them is completed by {@link #recover}.
+   *
+   * @param moves pairs of written file and target
+   */
+  private static void commit(final File journal, final File... moves) throws IOException {
+    final List<String> lines = new ArrayList<>();
+    for(int i = 0; i < moves.length; i += 2) {
+      lines.add(moves[i].getAbsolutePath() + '\t' + moves[i + 1].getAbsolutePath());
+    }
+
+    final File journalTemp = new File(journal.getPath() + ".tmp");
+    Files.write(journalTemp.toPath(), lines, StandardCharsets.UTF_8);
+    Files.move(journalTemp.toPath(), journal.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+    for(int i = 0; i < moves.length; i += 2) {
+      Files.move(moves[i].toPath(), moves[i + 1].toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    Files.delete(journal.toPath());
+  }
+
+  /**
+   * Finishes the moves of a commit that was interrupted
+   */
+  private static void recover(final File journal) throws IOException {
+    if(!journal.exists()) {
+      return;
+    }
+
+    TerraMod.LOGGER.warn("Completing a commit interrupted during the last run");
+
+    for(final String line : Files.readAllLines(journal.toPath(), StandardCharsets.UTF_8)) {
+      final String[] paths = line.split("\t");
+      final File from = new File(paths[0]);
+
+      if(from.exists()) {
+        Files.move(from.toPath(), new File(paths[1]).toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      }
+    }
+
+    Files.delete(journal.toPath());
+  }
+
+  private static final class Run {
+    private final File regionDir;
+    private final File dataDir;
+    private final File journal;
+    private final long seed;
+    private final long hashedSeed;
+    private final IBiomeMagnifier magnifier;
+    private final ChunkPos min;
+    private final ChunkPos max;
+    /** Ores to replace with <code>host</code> before each chunk's veins */
+    private final Set<Block> scrub;
+    private final BlockState host;
+    private final RetrogenStorage done = new RetrogenStorage();
+    private final DeferredGenerationStorage deferred = new DeferredGenerationStorage();
+    private final Set<ChunkPos> spilled = ConcurrentHashMap.newKeySet();
+    /** Deferred entries applied to chunks whose region isn't on disk yet, which saves of the storage must still hold */
+    private final Map<ChunkPos, DeferredGenerationStorage.Deferred> inFlight = new ConcurrentHashMap<>();
+    private final AtomicInteger decorated = new AtomicInteger();
+
+    private Run(final File dimensionDir, final long seed, final IBiomeMagnifier magnifier, final ChunkPos min, final ChunkPos max, final Set<Block> scrub, final BlockState host) {
+      this.regionDir = new File(dimensionDir, "region");
+      this.dataDir = new File(dimensionDir, "data");
+      this.journal = new File(this.dataDir, "terra_pregen.journal");
+      this.seed = seed;
+      this.hashedSeed = WorldInfo.byHashing(seed);
+      this.magnifier = magnifier;
+      this.min = min;
+      this.max = max;
+      this.scrub = scrub;
+      this.host = host;
+    }
+
+    private void generate(final int threads) throws Exception {
+      recover(this.journal);
+      readData(this.dataDir, this.done);
+      readData(this.dataDir, this.deferred);
+
+      // Decorated chunks wouldn't be told apart from the rest, and would get a second set of veins
+      if(this.done.isPreTracking() || RetrogenStorage.isUntracked(this.dataDir)) {
+        throw new IllegalStateException("Terra decorated this world before it recorded decorated chunks");
+      }
+
+      final List<ChunkPos> regions = RegionFiles.listRegions(this.regionDir);
+      regions.removeIf(region -> (region.x << 5) + RegionFiles.CHUNKS <= this.min.x || region.x << 5 > this.max.x || (region.z << 5) + RegionFiles.CHUNKS <= this.min.z || region.z << 5 > this.max.z);
+
+      TerraMod.LOGGER.info("Generating {} veins into {} regions on {} threads", VeinRegistry.getAll().size(), regions.size(), threads);
+
+      final ForkJoinPool pool = new ForkJoinPool(threads);
+
+      try {
+        pool.submit(() -> regions.parallelStream().forEach(region -> this.runRegion(region, this::generateRegion))).get();
+      } finally {
+        pool.shutdown();
+      }
+
+      this.applySpills();
+
+      TerraMod.LOGGER.info("Decorated {} chunks", this.decorated.get());
+    }
+
+    /**
+     * Runs work on one region, putting the deferred entries it took back into the storage if it fails
+     */
+    private void runRegion(final ChunkPos region, final RegionWork work) {
+      try {
+        work.run(region);
+      } catch(final IOException | RuntimeException e) {
+        TerraMod.LOGGER.error("Failed to generate region {} {}, it will be retried on the next run", region.x, region.z, e);
+
+        for(final ChunkPos pos : new ArrayList<>(this.inFlight.keySet())) {
+          if(inRegion(pos, region)) {
+            this.deferred.merge(pos, this.inFlight.remove(pos));
+          }
+        }
+      }
+    }
+
+    private static boolean inRegion(final ChunkPos pos, final ChunkPos region) {
+      return pos.x >> 5 == region.x && pos.z >> 5 == region.z;
+    }
+
+    private boolean inBounds(final ChunkPos pos) {
+      return pos.x >= this.min.x && pos.x <= this.max.x && pos.z >= this.min.z && pos.z <= this.max.z;
+    }
+
+    private void generateRegion(final ChunkPos region) throws IOException {
+      final File file = RegionFiles.getFile(this.regionDir, region.x, region.z);
+      final int[] timestamps = new int[RegionFiles.CHUNKS * RegionFiles.CHUNKS];
+      final CompoundNBT[] nbt = RegionIO.read(file, timestamps);
+      final ChunkData[] chunks = new ChunkData[nbt.length];
+      final BitSet decorated = new BitSet(nbt.length);
+      final BitSet pending = new BitSet(nbt.length);
+
+      for(int i = 0; i < nbt.length; i++) {
+        if(nbt[i] == null) {
+          continue;
+        }
+
+        final ChunkPos pos = new ChunkPos((region.x << 5) + i % RegionFiles.CHUNKS, (region.z << 5) + i / RegionFiles.CHUNKS);
+        chunks[i] = new ChunkData(pos, nbt[i]);
+
+        if(this.done.isDone(pos)) {
+          decorated.set(i);
+        } else if(this.inBounds(pos) && ChunkStatus.byName(chunks[i].getStatus()) == ChunkStatus.FULL && chunks[i].getBiome(this.hashedSeed, this.magnifier) != null) {
+          pending.set(i);
+        }
+      }
+
+      if(pending.isEmpty()) {
+        return;
+      }
+
+      final List<ChunkPos> finished = new ArrayList<>();
+      final TileWorld world = new TileWorld(region, chunks, decorated, pending, this.deferred, this.spilled, this.inFlight);
+
+      for(int i = pending.nextSetBit(0); i >= 0; i = pending.nextSetBit(i + 1)) {
+        this.decorate(world, chunks[i]);
+        world.finishChunk(chunks[i].pos);
+        finished.add(chunks[i].pos);
+      }
+
+      this.save(region, file, nbt, chunks, timestamps, finished);
+      this.decorated.addAndGet(finished.size());
+    }
+
+    /**
+     * Scrubs the chunk and places the veins of the batch installed in its biome as the game's {@link TerraVeinBatch}
+     * would, seeded the same way and under the same chunk budget
+     */
+    private void decorate(final TileWorld world, final ChunkData chunk) {
+      chunk.replaceAll(this.scrub, this.host);
+
+      final TerraVeinBatchConfig config = TerraFeatures.getVeins(chunk.getBiome(this.hashedSeed, this.magnifier));
+
+      if(config == null) {
+        return;
+      }
+
+      final BlockPos start = new BlockPos(chunk.pos.getXStart(), 0, chunk.pos.getZStart());
+      new TerraVeinBatch.Writer(world, chunk.pos, TerraVeinBatch.layOut(this.seed, start, config, null), false).writeAll();
+    }
+
+    /**
+     * Commits a region file together with the chunks it finished and the deferred storage as it stands, so the three
+     * always agree on disk
+     */
+    private void save(final ChunkPos region, final File file, final CompoundNBT[] nbt, final ChunkData[] chunks, final int[] timestamps, final List<ChunkPos> finished) throws IOException {
+      final int now = (int)(System.currentTimeMillis() / 1000L);
+
+      for(int i = 0; i < chunks.length; i++) {
+        if(chunks[i] != null && chunks[i].isModified()) {
+          chunks[i].save();
+          timestamps[i] = now;
+        }
+      }
+
+      final File regionTemp = RegionIO.writeTemp(file, nbt, timestamps);
+
+      synchronized(this) {
+        // Copies, so nothing is marked done or dropped in memory unless the commit succeeds
+        final RetrogenStorage done = new RetrogenStorage();
+        done.read(this.done.write(new CompoundNBT()));
+        finished.forEach(done::markDone);
+
+        // Entries other regions have applied but not committed yet stay in the saved storage
+        final DeferredGenerationStorage deferred = new DeferredGenerationStorage();
+        deferred.read(this.deferred.write(new CompoundNBT()));
+        this.inFlight.forEach((pos, entry) -> {
+          if(!inRegion(pos, region)) {
+            deferred.merge(pos, entry);
+          }
+        });
+
+        commit(this.journal,
+          regionTemp, file,
+          writeDataTemp(this.dataDir, done), dataFile(this.dataDir, done),
+          writeDataTemp(this.dataDir, deferred), dataFile(this.dataDir, deferred)
+        );
+
+        finished.forEach(this.done::markDone);
+        this.inFlight.keySet().removeIf(pos -> inRegion(pos, region));
+      }
+    }
+
+    /**
+     * Applies blocks that spilled across region borders into chunks that are decorated by now
+     */
+    private void applySpills() {
+      final Map<ChunkPos, List<ChunkPos>> byRegion = new HashMap<>();
+
+      for(final ChunkPos pos : this.spilled) {
+        if(this.done.isDone(pos)) {
+          byRegion.computeIfAbsent(new ChunkPos(pos.x >> 5, pos.z >> 5), key -> new ArrayList<>()).add(pos);
+        }
+      }
+
+      byRegion.forEach((region, positions) -> this.runRegion(region, key -> this.applySpillsTo(region, positions)));
+    }
+
+    private void applySpillsTo(final ChunkPos region, final List<ChunkPos> positions) throws IOException {
+      final File file = RegionFiles.getFile(this.regionDir, region.x, region.z);
+      final int[] timestamps = new int[RegionFiles.CHUNKS * RegionFiles.CHUNKS];
+      final CompoundNBT[] nbt = RegionIO.read(file, timestamps);
+      final ChunkData[] chunks = new ChunkData[nbt.length];
+      final BitSet decorated = new BitSet(nbt.length);
+
+      for(int i = 0; i < nbt.length; i++) {
+        if(nbt[i] != null) {
+          chunks[i] = new ChunkData(new ChunkPos((region.x << 5) + i % RegionFiles.CHUNKS, (region.z << 5) + i / RegionFiles.CHUNKS), nbt[i]);
+
+          if(this.done.isDone(chunks[i].pos)) {
+            decorated.set(i);
+          }
+        }
+      }
+
+      final TileWorld world = new TileWorld(region, chunks, decorated, new BitSet(), this.deferred, this.spilled, this.inFlight);
+
+      for(final ChunkPos pos : positions) {
+        if(chunks[RegionFiles.index(pos.x, pos.z)] != null) {
+          world.finishChunk(pos);
+        }
+      }
+
+      this.save(region, file, nbt, chunks, timestamps, Collections.emptyList());
+    }
+  }
+
+  @FunctionalInterface
+  private interface RegionWork {
+    void run(ChunkPos region) throws IOException;
+  }
+}
@@ -0,0 +1,156 @@
+package lofimodding.terra.offline;
+
+import lofimodding.terra.RegionFiles;
+import net.minecraft.nbt.CompoundNBT;
+import net.minecraft.nbt.CompressedStreamTools;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Reads and rewrites whole anvil region files
+ */
+public final class RegionIO {
+  private static final int SECTOR = 4096;
+  private static final int GZIP = 1;
+  private static final int ZLIB = 2;
+  private static final int UNCOMPRESSED = 3;
+  private static final int EXTERNAL = 128;
+
+  private RegionIO() { }
+
+  /**
+   * @return the chunks in the region indexed by {@link RegionFiles#index}, with null for missing chunks
+   */
+  public static CompoundNBT[] read(final File regionFile, final int[] timestamps) throws IOException {
+    final CompoundNBT[] chunks = new CompoundNBT[RegionFiles.CHUNKS * RegionFiles.CHUNKS];
+
+    if(!regionFile.exists()) {
+      return chunks;
+    }
+
+    final ByteBuffer data = ByteBuffer.wrap(Files.readAllBytes(regionFile.toPath()));
+
+    for(int i = 0; i < chunks.length; i++) {
+      final int location = data.getInt(i * 4);
+      timestamps[i] = data.getInt(SECTOR + i * 4);
+
+      if(location == 0) {
+        continue;
+      }
+
+      final int offset = (location >>> 8) * SECTOR;
+      final int length = data.getInt(offset);
+      final int type = data.get(offset + 4) & 0xff;
+
+      final InputStream raw;
+
+      if((type & EXTERNAL) != 0) {
+        raw = new BufferedInputStream(Files.newInputStream(getExternalFile(regionFile, i).toPath()));
+      } else {
+        raw = new ByteArrayInputStream(data.array(), offset + 5, length - 1);
+      }
+
+      try(final DataInputStream input = new DataInputStream(decompress(raw, type & ~EXTERNAL))) {
+        chunks[i] = CompressedStreamTools.read(input);
+      }
+    }
+
+    return chunks;
+  }
+
+  private static InputStream decompress(final InputStream input, final int type) throws IOException {
+    switch(type) {
+      case GZIP:
+        return new GZIPInputStream(input);
+
+      case ZLIB:
+        return new InflaterInputStream(input);
+
+      case UNCOMPRESSED:
+        return input;
+    }
+
+    throw new IOException("Unknown chunk compression " + type);
+  }
+
+  /**
+   * Writes a fresh region file next to the old one and swaps it in
+   */
+  public static void write(final File regionFile, final CompoundNBT[] chunks, final int[] timestamps) throws IOException {
+    final File temp = writeTemp(regionFile, chunks, timestamps);
+    Files.move(temp.toPath(), regionFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  /**
+   * Writes a fresh region file next to the old one without swapping it in
+   *
+   * @return the new file, to be moved over <code>regionFile</code>
+   */
+  public static File writeTemp(final File regionFile, final CompoundNBT[] chunks, final int[] timestamps) throws IOException {
+    final ByteArrayOutputStream body = new ByteArrayOutputStream();
+    final ByteBuffer header = ByteBuffer.allocate(SECTOR * 2);
+    int sector = 2;
+
+    for(int i = 0; i < chunks.length; i++) {
+      if(chunks[i] == null) {
+        continue;
+      }
+
+      final ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+      try(final DataOutputStream output = new DataOutputStream(new DeflaterOutputStream(compressed))) {
+        CompressedStreamTools.write(chunks[i], output);
+      }
+
+      final DataOutputStream chunkOutput = new DataOutputStream(body);
+      final int start = body.size();
+
+      // Chunks over 1MiB go in their own file, as the game does
+      if(compressed.size() + 5 > 255 * SECTOR) {
+        Files.write(getExternalFile(regionFile, i).toPath(), compressed.toByteArray());
+        chunkOutput.writeInt(1);
+        chunkOutput.writeByte(ZLIB | EXTERNAL);
+      } else {
+        chunkOutput.writeInt(compressed.size() + 1);
+        chunkOutput.writeByte(ZLIB);
+        compressed.writeTo(chunkOutput);
+      }
+
+      final int sectors = (body.size() - start + SECTOR - 1) / SECTOR;
+      body.write(new byte[sectors * SECTOR - (body.size() - start)]);
+
+      header.putInt(i * 4, sector << 8 | sectors);
+      header.putInt(SECTOR + i * 4, timestamps[i]);
+      sector += sectors;
+    }
+
+    final File temp = new File(regionFile.getPath() + ".tmp");
+
+    try(final OutputStream output = Files.newOutputStream(temp.toPath())) {
+      output.write(header.array());
+      body.writeTo(output);
+    }
+
+    return temp;
+  }
+
+  private static File getExternalFile(final File regionFile, final int index) {
+    final String[] parts = regionFile.getName().split("\\.");
+    final int x = Integer.parseInt(parts[1]) * RegionFiles.CHUNKS + index % RegionFiles.CHUNKS;
+    final int z = Integer.parseInt(parts[2]) * RegionFiles.CHUNKS + index / RegionFiles.CHUNKS;
+    return new File(regionFile.getParentFile(), "c." + x + '.' + z + ".mcc");
+  }
+}
@@ -0,0 +1,167 @@
+package lofimodding.terra.offline;
+
+import lofimodding.terra.DeferredGenerationStorage;
+import lofimodding.terra.DeferredGenerator;
+import lofimodding.terra.RegionFiles;
+import lofimodding.terra.TerraOreVeinConfig;
+import lofimodding.terra.VeinWorld;
+import net.minecraft.block.Block;
+import net.minecraft.block.BlockState;
+import net.minecraft.block.Blocks;
+import net.minecraft.fluid.IFluidState;
+import net.minecraft.tileentity.TileEntity;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.math.ChunkPos;
+import net.minecraft.world.IBlockReader;
+
+import javax.annotation.Nullable;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Generates into the chunks of one region file.
+ *
+ * Blocks spilling into a chunk of the same region that is still to be decorated are held until that chunk is
+ * decorated, and blocks spilling into a chunk that is already decorated are written straight away.  Everything else
+ * goes to the world's {@link DeferredGenerationStorage}, which is shared between tiles.  Entries the tile takes from
+ * that storage are handed to <code>taken</code> until the tile's region is on disk.
+ */
+public class TileWorld implements VeinWorld, IBlockReader {
+  private final ChunkPos region;
+  private final ChunkData[] chunks;
+  private final BitSet decorated;
+  private final BitSet pending;
+  private final DeferredGenerationStorage local = new DeferredGenerationStorage();
+  private final DeferredGenerationStorage global;
+  private final Set<ChunkPos> spilled;
+  private final Map<ChunkPos, DeferredGenerationStorage.Deferred> taken;
+
+  /**
+   * @param decorated chunks of the region that were decorated before this run
+   * @param pending   chunks of the region that this run will decorate
+   * @param spilled   receives every chunk that blocks were deferred to in the global storage
+   * @param taken     receives the entries applied from the global storage, by chunk
+   */
+  public TileWorld(final ChunkPos region, final ChunkData[] chunks, final BitSet decorated, final BitSet pending, final DeferredGenerationStorage global, final Set<ChunkPos> spilled, final Map<ChunkPos, DeferredGenerationStorage.Deferred> taken) {
+    this.region = region;
+    this.chunks = chunks;
+    this.decorated = decorated;
+    this.pending = pending;
+    this.global = global;
+    this.spilled = spilled;
+    this.taken = taken;
+  }
+
+  private boolean contains(final int chunkX, final int chunkZ) {
+    return chunkX >> 5 == this.region.x && chunkZ >> 5 == this.region.z;
+  }
+
+  @Nullable
+  private ChunkData getChunk(final int chunkX, final int chunkZ) {
+    return this.contains(chunkX, chunkZ) ? this.chunks[RegionFiles.index(chunkX, chunkZ)] : null;
+  }
+
+  /**
+   * Applies blocks deferred to a chunk that has just been decorated, both from this tile and from earlier play, and
+   * writes later spills into it directly
+   */
+  public void finishChunk(final ChunkPos pos) {
+    final int index = RegionFiles.index(pos.x, pos.z);
+    this.pending.clear(index);
+    this.decorated.set(index);
+
+    if(this.local.has(pos)) {
+      DeferredGenerator.apply(this, this.local.getOres(pos), this.local.getPebbles(pos));
+      this.local.remove(pos);
+    }
+
+    final DeferredGenerationStorage.Deferred deferred = this.global.take(pos);
+
+    if(deferred != null) {
+      this.taken.put(pos, deferred);
+      DeferredGenerator.apply(this, deferred.ores, deferred.pebbles);
+    }
+  }
+
+  @Override
+  public BlockState getBlockState(final BlockPos pos) {
+    final ChunkData chunk = this.getChunk(pos.getX() >> 4, pos.getZ() >> 4);
+    return chunk == null ? Blocks.AIR.getDefaultState() : chunk.getBlockState(pos.getX(), pos.getY(), pos.getZ());
+  }
+
+  @Override
+  public IFluidState getFluidState(final BlockPos pos) {
+    return this.getBlockState(pos).getFluidState();
+  }
+
+  @Nullable
+  @Override
+  public TileEntity getTileEntity(final BlockPos pos) {
+    return null;
+  }
+
+  @Override
+  public void setBlockState(final BlockPos pos, final BlockState state) {
+    final ChunkData chunk = this.getChunk(pos.getX() >> 4, pos.getZ() >> 4);
+
+    if(chunk != null) {
+      // Ores only replace solid blocks, so anything else is a pebble on the surface
+      chunk.setBlockState(pos.getX(), pos.getY(), pos.getZ(), state, !state.isSolid());
+    }
+  }
+
+  @Override
+  public boolean isReplaceable(final BlockState state, final BlockPos pos, final TerraOreVeinConfig.Replacer replacer) {
+    return replacer.test(state);
+  }
+
+  @Override
+  public boolean canPlacePebble(final BlockState pebble, final BlockPos pos) {
+    return this.getBlockState(pos).getMaterial().isReplaceable() && Block.hasSolidSideOnTop(this, pos.down());
+  }
+
+  @Override
+  public void deferOre(final ChunkPos chunkPos, final BlockPos pos, final List<TerraOreVeinConfig.Replacer> replacers) {
+    if(this.contains(chunkPos.x, chunkPos.z)) {
+      final int index = RegionFiles.index(chunkPos.x, chunkPos.z);
+
+      if(this.decorated.get(index)) {
+        DeferredGenerator.apply(this, Collections.singletonMap(pos, replacers), Collections.emptyMap());
+        return;
+      }
+
+      if(this.pending.get(index)) {
+        this.local.getOres(chunkPos).put(pos, replacers);
+        return;
+      }
+    }
+
+    this.global.addOre(chunkPos, pos, replacers);
+
+    this.spilled.add(chunkPos);
+  }
+
+  @Override
+  public void deferPebble(final ChunkPos chunkPos, final BlockPos pos, final BlockState pebble) {
+    if(this.contains(chunkPos.x, chunkPos.z)) {
+      final int index = RegionFiles.index(chunkPos.x, chunkPos.z);
+
+      if(this.decorated.get(index)) {
+        DeferredGenerator.apply(this, Collections.emptyMap(), Collections.singletonMap(pos, pebble));
+        return;
+      }
+
+      if(this.pending.get(index)) {
+        this.local.getPebbles(chunkPos).put(pos, pebble);
+        return;
+      }
+    }
+
+    this.global.addPebble(chunkPos, pos, pebble);
+
+    this.spilled.add(chunkPos);
+  }
+}
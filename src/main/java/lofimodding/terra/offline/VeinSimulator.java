@@ -0,0 +1,273 @@
+package lofimodding.terra.offline;
+
+import lofimodding.terra.TerraMod;
+import lofimodding.terra.TerraOreVein;
+import lofimodding.terra.TerraOreVeinConfig;
+import lofimodding.terra.TerraPlacement;
+import lofimodding.terra.TerraVeinBatch;
+import lofimodding.terra.VeinDefinition;
+import lofimodding.terra.VeinLoader;
+import lofimodding.terra.VeinRandom;
+import lofimodding.terra.VeinWorld;
+import net.minecraft.block.BlockState;
+import net.minecraft.block.Blocks;
+import net.minecraft.util.SharedSeedRandom;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.math.ChunkPos;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/**
+ * Runs each configured vein over many synthetic chunks of an all-stone world and reports where its ores end up, how
+ * large its veins are, and how much it leans on deferred storage.
+ *
+ * <pre>
+ * VeinSimulator [--config config/terra] [--chunks 1000000] [--seed 0] [--threads n]
+ * </pre>
+ *
+ * Each chunk's veins are written through {@link TerraVeinBatch.Writer}, so veins past the chunk's budget are skipped as
+ * they are in game.  Budgets use their defaults.
+ */
+public final class VeinSimulator {
+  /** Stone below, air from here up */
+  private static final int SURFACE = 64;
+  private static final int SIZE_BUCKET = 16;
+
+  private VeinSimulator() { }
+
+  public static void main(final String[] args) throws Exception {
+    Path configDir = Paths.get("config", TerraMod.MOD_ID);
+    int chunks = 1_000_000;
+    long seed = 0;
+    int threads = Runtime.getRuntime().availableProcessors();
+
+    for(int i = 0; i < args.length - 1; i += 2) {
+      switch(args[i]) {
+        case "--config":
+          configDir = Paths.get(args[i + 1]);
+          break;
+
+        case "--chunks":
+          chunks = Integer.parseInt(args[i + 1]);
+          break;
+
+        case "--seed":
+          seed = Long.parseLong(args[i + 1]);
+          break;
+
+        case "--threads":
+          threads = Integer.parseInt(args[i + 1]);
+          break;
+
+        default:
+          throw new IllegalArgumentException("Unknown option " + args[i]);
+      }
+    }
+
+    OfflineBootstrap.run();
+
+    final List<VeinDefinition> veins = VeinLoader.load(configDir);
+    final ForkJoinPool pool = new ForkJoinPool(threads);
+
+    try {
+      for(final VeinDefinition vein : veins) {
+        final int slices = threads * 4;
+        final int total = chunks;
+        final long worldSeed = seed;
+
+        final Stats stats = pool.submit(() -> IntStream.range(0, slices).parallel()
+          .mapToObj(slice -> simulate(vein, worldSeed, total * (long)slice / slices, total * (long)(slice + 1) / slices))
+          .reduce(new Stats(), Stats::merge)
+        ).get();
+
+        stats.print(vein, total);
+      }
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  /**
+   * Decorates chunks <code>from</code> (inclusive) to <code>to</code> (exclusive) along a line of synthetic chunks
+   */
+  private static Stats simulate(final VeinDefinition vein, final long seed, final long from, final long to) {
+    final Stats stats = new Stats();
+    final SimWorld world = new SimWorld(stats);
+    final SharedSeedRandom random = new SharedSeedRandom();
+
+    for(long i = from; i < to; i++) {
+      final int chunkX = (int)(i % 30000);
+      final int chunkZ = (int)(i / 30000);
+      final BlockPos start = new BlockPos(chunkX << 4, 0, chunkZ << 4);
+
+      random.setDecorationSeed(seed, start.getX(), start.getZ());
+
+      final List<TerraOreVein.Shape> shapes = new ArrayList<>();
+      TerraPlacement.INSTANCE.getPositions(seed, random, vein.placement, start).forEach(pos -> shapes.add(TerraOreVein.INSTANCE.begin(VeinRandom.forVein(random, pos), pos, vein.config, null)));
+
+      // The chunk's budget applies across its veins as it does in game
+      final TerraVeinBatch.Writer writer = new TerraVeinBatch.Writer(world, new ChunkPos(start), shapes, false);
+
+      while(writer.hasNext()) {
+        final int skipped = writer.getSkipped();
+        world.begin();
+        final boolean written = writer.writeNext();
+        world.finish(written, writer.getSkipped() != skipped);
+      }
+    }
+
+    return stats;
+  }
+
+  private static final class SimWorld implements VeinWorld {
+    private static final BlockState STONE = Blocks.STONE.getDefaultState();
+    private static final BlockState AIR = Blocks.AIR.getDefaultState();
+
+    private final Stats stats;
+    private final Set<BlockPos> deferredOres = new HashSet<>();
+    private final Set<BlockPos> deferredPebbles = new HashSet<>();
+    private final Set<ChunkPos> spillChunks = new HashSet<>();
+    private int placedOres;
+
+    private SimWorld(final Stats stats) {
+      this.stats = stats;
+    }
+
+    private void begin() {
+      this.placedOres = 0;
+      this.deferredOres.clear();
+      this.deferredPebbles.clear();
+      this.spillChunks.clear();
+    }
+
+    /**
+     * Deferred blocks are recorded whether or not the vein went on to pass its yield check, as they are in game
+     *
+     * @param skipped whether the vein was skipped because the chunk's budget ran out
+     */
+    private void finish(final boolean generated, final boolean skipped) {
+      final Stats stats = this.stats;
+      stats.veins++;
+
+      if(skipped) {
+        stats.skipped++;
+      } else if(!generated) {
+        stats.rejected++;
+      }
+
+      // Every deferred ore lands in stone once its chunk is decorated
+      for(final BlockPos pos : this.deferredOres) {
+        stats.oresByY[pos.getY()]++;
+      }
+
+      final int size = this.placedOres + this.deferredOres.size();
+      stats.ores += size;
+      stats.spilledOres += this.deferredOres.size();
+      stats.deferredEntries += this.deferredOres.size() + this.deferredPebbles.size();
+      stats.spillChunks += this.spillChunks.size();
+      stats.sizes.merge(size / SIZE_BUCKET * SIZE_BUCKET, 1L, Long::sum);
+    }
+
+    @Override
+    public BlockState getBlockState(final BlockPos pos) {
+      return pos.getY() < SURFACE ? STONE : AIR;
+    }
+
+    @Override
+    public void setBlockState(final BlockPos pos, final BlockState state) {
+      if(pos.getY() < SURFACE) {
+        this.stats.oresByY[pos.getY()]++;
+        this.placedOres++;
+      } else {
+        this.stats.pebbles++;
+      }
+    }
+
+    @Override
+    public boolean isReplaceable(final BlockState state, final BlockPos pos, final TerraOreVeinConfig.Replacer replacer) {
+      return replacer.test(state);
+    }
+
+    @Override
+    public boolean canPlacePebble(final BlockState pebble, final BlockPos pos) {
+      return pos.getY() == SURFACE;
+    }
+
+    @Override
+    public void deferOre(final ChunkPos chunkPos, final BlockPos pos, final List<TerraOreVeinConfig.Replacer> replacers) {
+      if(pos.getY() < SURFACE && this.deferredOres.add(pos.toImmutable())) {
+        this.spillChunks.add(chunkPos);
+      }
+    }
+
+    @Override
+    public void deferPebble(final ChunkPos chunkPos, final BlockPos pos, final BlockState pebble) {
+      if(this.deferredPebbles.add(pos.toImmutable())) {
+        this.spillChunks.add(chunkPos);
+      }
+    }
+  }
+
+  private static final class Stats {
+    private final long[] oresByY = new long[256];
+    private final Map<Integer, Long> sizes = new TreeMap<>();
+    private long veins;
+    private long rejected;
+    private long skipped;
+    private long ores;
+    private long spilledOres;
+    private long pebbles;
+    private long deferredEntries;
+    private long spillChunks;
+
+    private Stats merge(final Stats other) {
+      final Stats merged = new Stats();
+
+      for(final Stats stats : new Stats[] {this, other}) {
+        for(int y = 0; y < merged.oresByY.length; y++) {
+          merged.oresByY[y] += stats.oresByY[y];
+        }
+
+        stats.sizes.forEach((size, count) -> merged.sizes.merge(size, count, Long::sum));
+        merged.veins += stats.veins;
+        merged.rejected += stats.rejected;
+        merged.skipped += stats.skipped;
+        merged.ores += stats.ores;
+        merged.spilledOres += stats.spilledOres;
+        merged.pebbles += stats.pebbles;
+        merged.deferredEntries += stats.deferredEntries;
+        merged.spillChunks += stats.spillChunks;
+      }
+
+      return merged;
+    }
+
+    private void print(final VeinDefinition vein, final int chunks) {
+      System.out.printf("== %s over %d chunks ==%n", vein.id, chunks);
+      System.out.printf("veins: %d (%.4f per chunk), failed yield: %d, over chunk budget: %d%n", this.veins, (double)this.veins / chunks, this.rejected, this.skipped);
+      System.out.printf("ores: %d (%.2f per chunk), pebbles: %d%n", this.ores, (double)this.ores / chunks, this.pebbles);
+      System.out.printf("spilled into other chunks: %.2f%% of ores, %.2f chunks per vein%n", this.ores == 0 ? 0.0 : 100.0 * this.spilledOres / this.ores, this.veins == 0 ? 0.0 : (double)this.spillChunks / this.veins);
+      System.out.printf("deferred entries: %.2f per chunk%n", (double)this.deferredEntries / chunks);
+
+      System.out.println("ores by y:");
+      for(int y = 0; y < this.oresByY.length; y++) {
+        if(this.oresByY[y] != 0) {
+          System.out.printf("  %3d %10d %8.4f%n", y, this.oresByY[y], (double)this.oresByY[y] / chunks);
+        }
+      }
+
+      System.out.println("vein sizes:");
+      this.sizes.forEach((size, count) -> System.out.printf("  %5d-%-5d %10d%n", size, size + SIZE_BUCKET - 1, count));
+      System.out.println();
+    }
+  }
+}
@@ -0,0 +1,399 @@
+package lofimodding.terra.offline;
+
+import lofimodding.terra.DeferredGenerator;
+import lofimodding.terra.TerraMod;
+import lofimodding.terra.TerraOreVein;
+import lofimodding.terra.TerraOreVeinConfig;
+import lofimodding.terra.VeinDefinition;
+import lofimodding.terra.VeinLoader;
+import lofimodding.terra.VeinRandom;
+import lofimodding.terra.VeinWorld;
+import lofimodding.terra.WorkloadRecorder;
+import net.minecraft.block.BlockState;
+import net.minecraft.block.Blocks;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.math.ChunkPos;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Replays a recording made with <code>generation.recordWorkload</code> against an in-memory world of stone below
+ * Y 64, then reports throughput and latency percentiles.  Every traced vein is checked against its recorded digest,
+ * and every deferred chunk against the positions and states the server deferred to it, so a change that alters vein
+ * shapes or what they defer fails the replay.  The in-memory world defers every spill, including those the server
+ * wrote straight into unlit neighbours, so only the entries the server recorded are compared.
+ *
+ * <pre>
+ * WorkloadReplay &lt;recording&gt; [--config config/terra] [--warmup 1] [--iterations 3]
+ * </pre>
+ *
+ * Budgets use their defaults, so recordings made with other budgets may report mismatches for truncated veins.
+ */
+public final class WorkloadReplay {
+  private static final int SURFACE = 64;
+
+  private WorkloadReplay() { }
+
+  public static void main(final String[] args) throws Exception {
+    if(args.length < 1) {
+      System.err.println("Usage: WorkloadReplay <recording> [--config config/terra] [--warmup 1] [--iterations 3]");
+      System.exit(1);
+    }
+
+    final Path recording = Paths.get(args[0]);
+    Path configDir = Paths.get("config", TerraMod.MOD_ID);
+    int warmup = 1;
+    int iterations = 3;
+
+    for(int i = 1; i < args.length - 1; i += 2) {
+      switch(args[i]) {
+        case "--config":
+          configDir = Paths.get(args[i + 1]);
+          break;
+
+        case "--warmup":
+          warmup = Integer.parseInt(args[i + 1]);
+          break;
+
+        case "--iterations":
+          iterations = Integer.parseInt(args[i + 1]);
+          break;
+
+        default:
+          throw new IllegalArgumentException("Unknown option " + args[i]);
+      }
+    }
+
+    OfflineBootstrap.run();
+
+    final Map<String, TerraOreVeinConfig> configs = new HashMap<>();
+    for(final VeinDefinition vein : VeinLoader.load(configDir)) {
+      configs.put(vein.id.toString(), vein.config);
+    }
+
+    final Workload workload = Workload.read(recording, configs);
+    System.out.printf("%d veins and %d deferred chunks recorded, %d veins skipped for missing configs%n", workload.veins.size(), workload.deferred.size(), workload.missing);
+
+    for(int i = 0; i < warmup; i++) {
+      replay(workload);
+    }
+
+    for(int i = 0; i < iterations; i++) {
+      final Result result = replay(workload);
+      System.out.printf("== iteration %d ==%n", i + 1);
+      result.print();
+
+      if(result.veinMismatches != 0 || result.deferredMismatches != 0) {
+        System.exit(2);
+      }
+    }
+
+    System.out.println("== recorded ==");
+    printPercentiles("vein", workload.veins.stream().mapToLong(vein -> vein.nanos).toArray());
+    printPercentiles("deferred", workload.deferred.stream().mapToLong(deferred -> deferred.nanos).toArray());
+  }
+
+  private static Result replay(final Workload workload) {
+    final MemoryWorld world = new MemoryWorld();
+    final Result result = new Result(workload.veins.size(), workload.deferred.size());
+    final long start = System.nanoTime();
+
+    for(final Record record : workload.records) {
+      final long recordStart = System.nanoTime();
+
+      if(record instanceof VeinRecord) {
+        final VeinRecord vein = (VeinRecord)record;
+        final TerraOreVein.Shape shape = TerraOreVein.INSTANCE.begin(new VeinRandom(vein.seed), vein.start, vein.config, null);
+
+        // Follow what the server did rather than what the in-memory world would decide
+        TerraOreVein.INSTANCE.probe(world, shape);
+
+        if((vein.flags & WorkloadRecorder.TRACED) != 0) {
+          TerraOreVein.INSTANCE.trace(shape);
+
+          if(shape.getDigest() != vein.digest) {
+            result.veinMismatches++;
+          }
+        }
+
+        if((vein.flags & WorkloadRecorder.WRITTEN) != 0) {
+          TerraOreVein.INSTANCE.write(world, shape);
+        }
+
+        result.veinNanos[result.veinCount++] = System.nanoTime() - recordStart;
+      } else {
+        final DeferredRecord deferred = (DeferredRecord)record;
+        final Map<BlockPos, List<TerraOreVeinConfig.Replacer>> ores = world.deferredOres.getOrDefault(deferred.chunk, new LinkedHashMap<>());
+        final Map<BlockPos, BlockState> pebbles = world.deferredPebbles.getOrDefault(deferred.chunk, new LinkedHashMap<>());
+        world.deferredOres.remove(deferred.chunk);
+        world.deferredPebbles.remove(deferred.chunk);
+
+        DeferredGenerator.apply(world, ores, pebbles);
+        result.deferredNanos[result.deferredCount++] = System.nanoTime() - recordStart;
+
+        // Entries the server didn't record are left out rather than failing; a recorded entry that is missing here
+        // changes the digest
+        final Map<BlockPos, List<TerraOreVeinConfig.Replacer>> recordedOres = new LinkedHashMap<>();
+        for(final long pos : deferred.ores) {
+          final List<TerraOreVeinConfig.Replacer> replacers = ores.get(BlockPos.fromLong(pos));
+
+          if(replacers != null) {
+            recordedOres.put(BlockPos.fromLong(pos), replacers);
+          }
+        }
+
+        final Map<BlockPos, BlockState> recordedPebbles = new LinkedHashMap<>();
+        for(final long pos : deferred.pebbles) {
+          final BlockState pebble = pebbles.get(BlockPos.fromLong(pos));
+
+          if(pebble != null) {
+            recordedPebbles.put(BlockPos.fromLong(pos), pebble);
+          }
+        }
+
+        if(WorkloadRecorder.digestDeferred(recordedOres, recordedPebbles) != deferred.digest) {
+          result.deferredMismatches++;
+        }
+      }
+    }
+
+    result.totalNanos = System.nanoTime() - start;
+    return result;
+  }
+
+  private static void printPercentiles(final String name, final long[] nanos) {
+    if(nanos.length == 0) {
+      System.out.printf("%s: none%n", name);
+      return;
+    }
+
+    Arrays.sort(nanos);
+    System.out.printf(
+      "%s latency (us): p50 %.1f, p90 %.1f, p99 %.1f, max %.1f%n", name,
+      nanos[(int)(nanos.length * 0.50)] / 1000.0,
+      nanos[(int)(nanos.length * 0.90)] / 1000.0,
+      nanos[Math.min(nanos.length - 1, (int)(nanos.length * 0.99))] / 1000.0,
+      nanos[nanos.length - 1] / 1000.0
+    );
+  }
+
+  private static final class Result {
+    private final long[] veinNanos;
+    private final long[] deferredNanos;
+    private int veinCount;
+    private int deferredCount;
+    private int veinMismatches;
+    private int deferredMismatches;
+    private long totalNanos;
+
+    private Result(final int veins, final int deferred) {
+      this.veinNanos = new long[veins];
+      this.deferredNanos = new long[deferred];
+    }
+
+    private void print() {
+      final double seconds = this.totalNanos / 1.0e9;
+      System.out.printf("%.3f s, %.0f veins/s, %.0f deferred chunks/s%n", seconds, this.veinCount / seconds, this.deferredCount / seconds);
+      printPercentiles("vein", this.veinNanos);
+      printPercentiles("deferred", this.deferredNanos);
+      System.out.printf("vein digest mismatches: %d, deferred digest mismatches: %d%n", this.veinMismatches, this.deferredMismatches);
+    }
+  }
+
+  private abstract static class Record {
+    private final long nanos;
+
+    private Record(final long nanos) {
+      this.nanos = nanos;
+    }
+  }
+
+  private static final class VeinRecord extends Record {
+    private final long seed;
+    private final BlockPos start;
+    private final TerraOreVeinConfig config;
+    private final int flags;
+    private final long digest;
+
+    private VeinRecord(final long seed, final BlockPos start, final TerraOreVeinConfig config, final int flags, final long digest, final long nanos) {
+      super(nanos);
+      this.seed = seed;
+      this.start = start;
+      this.config = config;
+      this.flags = flags;
+      this.digest = digest;
+    }
+  }
+
+  private static final class DeferredRecord extends Record {
+    private final ChunkPos chunk;
+    /** Packed positions of the entries the server deferred */
+    private final long[] ores;
+    private final long[] pebbles;
+    private final long digest;
+
+    private DeferredRecord(final ChunkPos chunk, final long[] ores, final long[] pebbles, final long digest, final long nanos) {
+      super(nanos);
+      this.chunk = chunk;
+      this.ores = ores;
+      this.pebbles = pebbles;
+      this.digest = digest;
+    }
+  }
+
+  private static final class Workload {
+    private final List<Record> records = new ArrayList<>();
+    private final List<VeinRecord> veins = new ArrayList<>();
+    private final List<DeferredRecord> deferred = new ArrayList<>();
+    private int missing;
+
+    private static Workload read(final Path file, final Map<String, TerraOreVeinConfig> configs) throws IOException {
+      final Workload workload = new Workload();
+      final Map<Integer, TerraOreVeinConfig> ids = new HashMap<>();
+
+      try(final DataInputStream input = new DataInputStream(new BufferedInputStream(new GZIPInputStream(Files.newInputStream(file))))) {
+        if(input.readInt() != WorkloadRecorder.MAGIC) {
+          throw new IOException(file + " is not a Terra workload recording");
+        }
+
+        final int version = input.readInt();
+        if(version != WorkloadRecorder.VERSION) {
+          throw new IOException("Unsupported recording version " + version);
+        }
+
+        while(true) {
+          final int tag;
+
+          try {
+            tag = input.readByte();
+          } catch(final EOFException e) {
+            break;
+          }
+
+          switch(tag) {
+            case WorkloadRecorder.TAG_ID: {
+              final int index = input.readShort();
+              final String id = input.readUTF();
+              final TerraOreVeinConfig config = configs.get(id);
+
+              if(config == null) {
+                System.err.println("No config for recorded vein " + id + ", its veins will be skipped");
+              } else {
+                ids.put(index, config);
+              }
+
+              break;
+            }
+
+            case WorkloadRecorder.TAG_VEIN: {
+              final long seed = input.readLong();
+              final BlockPos start = BlockPos.fromLong(input.readLong());
+              final TerraOreVeinConfig config = ids.get((int)input.readShort());
+              final int flags = input.readByte();
+              final long digest = input.readLong();
+              final int nanos = input.readInt();
+
+              if(config == null) {
+                workload.missing++;
+              } else {
+                final VeinRecord vein = new VeinRecord(seed, start, config, flags, digest, nanos);
+                workload.records.add(vein);
+                workload.veins.add(vein);
+              }
+
+              break;
+            }
+
+            case WorkloadRecorder.TAG_DEFERRED: {
+              final ChunkPos chunk = new ChunkPos(input.readLong());
+              final long[] ores = readPositions(input);
+              final long[] pebbles = readPositions(input);
+              final long digest = input.readLong();
+              final int nanos = input.readInt();
+
+              final DeferredRecord deferred = new DeferredRecord(chunk, ores, pebbles, digest, nanos);
+              workload.records.add(deferred);
+              workload.deferred.add(deferred);
+              break;
+            }
+
+            default:
+              throw new IOException("Unknown record tag " + tag);
+          }
+        }
+      } catch(final EOFException e) {
+        // A server that crashed leaves a truncated last record
+      }
+
+      return workload;
+    }
+
+    private static long[] readPositions(final DataInputStream input) throws IOException {
+      final long[] positions = new long[input.readInt()];
+
+      for(int i = 0; i < positions.length; i++) {
+        positions[i] = input.readLong();
+      }
+
+      return positions;
+    }
+  }
+
+  private static final class MemoryWorld implements VeinWorld {
+    private static final BlockState STONE = Blocks.STONE.getDefaultState();
+    private static final BlockState AIR = Blocks.AIR.getDefaultState();
+
+    private final Map<BlockPos, BlockState> blocks = new HashMap<>();
+    private final Map<ChunkPos, Map<BlockPos, List<TerraOreVeinConfig.Replacer>>> deferredOres = new HashMap<>();
+    private final Map<ChunkPos, Map<BlockPos, BlockState>> deferredPebbles = new HashMap<>();
+
+    @Override
+    public BlockState getBlockState(final BlockPos pos) {
+      final BlockState state = this.blocks.get(pos);
+
+      if(state != null) {
+        return state;
+      }
+
+      return pos.getY() < SURFACE ? STONE : AIR;
+    }
+
+    @Override
+    public void setBlockState(final BlockPos pos, final BlockState state) {
+      this.blocks.put(pos.toImmutable(), state);
+    }
+
+    @Override
+    public boolean isReplaceable(final BlockState state, final BlockPos pos, final TerraOreVeinConfig.Replacer replacer) {
+      return replacer.test(state);
+    }
+
+    @Override
+    public boolean canPlacePebble(final BlockState pebble, final BlockPos pos) {
+      return pos.getY() == SURFACE;
+    }
+
+    @Override
+    public void deferOre(final ChunkPos chunkPos, final BlockPos pos, final List<TerraOreVeinConfig.Replacer> replacers) {
+      this.deferredOres.computeIfAbsent(chunkPos, key -> new LinkedHashMap<>()).put(pos.toImmutable(), replacers);
+    }
+
+    @Override
+    public void deferPebble(final ChunkPos chunkPos, final BlockPos pos, final BlockState pebble) {
+      this.deferredPebbles.computeIfAbsent(chunkPos, key -> new LinkedHashMap<>()).put(pos.toImmutable(), pebble);
+    }
+  }
+}
@@ -0,0 +1,98 @@
+package lofimodding.terra;
+
+import com.google.gson.JsonElement;
+import com.mojang.datafixers.Dynamic;
+import com.mojang.datafixers.types.JsonOps;
+import net.minecraft.nbt.CompoundNBT;
+import net.minecraft.nbt.INBT;
+import net.minecraft.nbt.NBTDynamicOps;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DepthTableTest {
+  private static void assertSameInts(final DepthTable.Ints expected, final DepthTable.Ints actual) {
+    for(int depth = 0; depth < DepthTable.SIZE; depth++) {
+      assertEquals(expected.get(depth), actual.get(depth), "depth " + depth);
+    }
+  }
+
+  private static void assertSameFloats(final DepthTable.Floats expected, final DepthTable.Floats actual, final float tolerance) {
+    for(int depth = 0; depth < DepthTable.SIZE; depth++) {
+      final float value = expected.get(depth);
+      assertEquals(value, actual.get(depth), tolerance * Math.max(1.0f, Math.abs(value)), "depth " + depth);
+    }
+  }
+
+  @Test
+  void indexIsClamped() {
+    final DepthTable.Ints table = DepthTable.bakeInt(state -> state.getDepth());
+
+    assertEquals(0, table.get(-10));
+    assertEquals(255, table.get(255));
+    assertEquals(255, table.get(1000));
+  }
+
+  @Test
+  void wrongSizesAreRejected() {
+    assertThrows(IllegalArgumentException.class, () -> DepthTable.ofInts(new int[10]));
+    assertThrows(IllegalArgumentException.class, () -> DepthTable.ofFloats(new float[DepthTable.SIZE + 1]));
+
+    final CompoundNBT nbt = new CompoundNBT();
+    nbt.putIntArray("short", new int[3]);
+    assertThrows(IllegalArgumentException.class, () -> DepthTable.readInt(nbt, "short"));
+    assertThrows(IllegalArgumentException.class, () -> DepthTable.readFloat(nbt, "missing"));
+  }
+
+  @Test
+  void nbtRoundTripIsExact() {
+    final DepthTable.Ints ints = DepthTable.bakeInt(state -> state.getDepth() * 37 % 11 - 5);
+    final DepthTable.Floats floats = DepthTable.bakeFloat(state -> (float)Math.sin(state.getDepth() * 0.1) / 3.0f);
+
+    final CompoundNBT nbt = new CompoundNBT();
+    DepthTable.writeInt(nbt, "ints", ints);
+    DepthTable.writeFloat(nbt, "floats", floats);
+
+    assertSameInts(ints, DepthTable.readInt(nbt, "ints"));
+
+    final DepthTable.Floats read = DepthTable.readFloat(nbt, "floats");
+    for(int depth = 0; depth < DepthTable.SIZE; depth++) {
+      assertEquals(Float.floatToRawIntBits(floats.get(depth)), Float.floatToRawIntBits(read.get(depth)), "depth " + depth);
+    }
+  }
+
+  @Test
+  void intCurvesRoundTrip() {
+    final DepthTable.Ints table = DepthTable.bakeInt(state -> state.getDepth() < 40 ? 2 : state.getDepth() < 120 ? state.getDepth() / 8 : 15);
+
+    final INBT nbt = DepthTable.serializeInt(NBTDynamicOps.INSTANCE, table);
+    assertSameInts(table, DepthTable.deserializeInt(new Dynamic<>(NBTDynamicOps.INSTANCE, nbt), 0));
+
+    final JsonElement json = DepthTable.serializeInt(JsonOps.INSTANCE, table);
+    assertSameInts(table, DepthTable.deserializeInt(new Dynamic<>(JsonOps.INSTANCE, json), 0));
+  }
+
+  @Test
+  void floatCurvesRoundTrip() {
+    final DepthTable.Floats table = DepthTable.bakeFloat(state -> state.getDepth() < 64 ? state.getDepth() / 64.0f : 1.0f - (state.getDepth() - 64) / 384.0f);
+
+    final INBT nbt = DepthTable.serializeFloat(NBTDynamicOps.INSTANCE, table);
+    assertSameFloats(table, DepthTable.deserializeFloat(new Dynamic<>(NBTDynamicOps.INSTANCE, nbt), 0.0f), 1.0e-5f);
+  }
+
+  @Test
+  void linearCurvesSimplify() {
+    final DepthTable.Ints constant = DepthTable.bakeInt(state -> 7);
+    final INBT constantNbt = DepthTable.serializeInt(NBTDynamicOps.INSTANCE, constant);
+    assertEquals(7, new Dynamic<>(NBTDynamicOps.INSTANCE, constantNbt).asInt(0));
+
+    // A ramp that flattens out needs only its two ends
+    final DepthTable.Floats ramp = DepthTable.bakeFloat(state -> Math.min(state.getDepth(), 100) * 0.5f);
+    final JsonElement rampJson = DepthTable.serializeFloat(JsonOps.INSTANCE, ramp);
+    assertTrue(rampJson.isJsonArray(), rampJson::toString);
+    assertEquals(2, rampJson.getAsJsonArray().size(), rampJson::toString);
+    assertSameFloats(ramp, DepthTable.deserializeFloat(new Dynamic<>(JsonOps.INSTANCE, rampJson), 0.0f), 1.0e-6f);
+  }
+}
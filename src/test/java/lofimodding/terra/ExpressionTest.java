@@ -0,0 +1,130 @@
+package lofimodding.terra;
+
+import com.mojang.datafixers.Dynamic;
+import net.minecraft.nbt.NBTDynamicOps;
+import net.minecraft.nbt.StringNBT;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ExpressionTest {
+  private static float eval(final String source, final int depth) {
+    return Expression.compileFloat(source).get(depth);
+  }
+
+  @Test
+  void precedence() {
+    assertEquals(7.0f, eval("1 + 2 * 3", 0));
+    assertEquals(9.0f, eval("(1 + 2) * 3", 0));
+    assertEquals(1.0f, eval("7 % 3", 0));
+    assertEquals(2.5f, eval("5 / 2", 0));
+  }
+
+  @Test
+  void powerIsRightAssociativeAndBindsTighterThanMinus() {
+    assertEquals(512.0f, eval("2 ^ 3 ^ 2", 0));
+    assertEquals(-4.0f, eval("-2 ^ 2", 0));
+    assertEquals(0.25f, eval("2 ^ -2", 0));
+  }
+
+  @Test
+  void depth() {
+    final DepthTable.Floats table = Expression.compileFloat("depth / 2 + 1");
+
+    for(int depth = 0; depth < DepthTable.SIZE; depth++) {
+      assertEquals(depth / 2.0f + 1.0f, table.get(depth));
+    }
+  }
+
+  @Test
+  void functions() {
+    assertEquals(2.0f, eval("min(4, 2, 3)", 0));
+    assertEquals(4.0f, eval("max(4, 2, 3)", 0));
+    assertEquals(6.0f, eval("clamp(9, 2, 6)", 0));
+    assertEquals(5.0f, eval("lerp(2, 8, 0.5)", 0));
+    assertEquals(0.5f, eval("smoothstep(0, 10, 5)", 0));
+    assertEquals(3.0f, eval("abs(-3)", 0));
+    assertEquals(1.0f, eval("floor(1.7)", 0));
+    assertEquals(2.0f, eval("ceil(1.2)", 0));
+    assertEquals(2.0f, eval("round(1.5)", 0));
+    assertEquals(3.0f, eval("sqrt(9)", 0));
+    assertEquals(4.0f, eval("MAX(1, 4)", 0));
+  }
+
+  @Test
+  void curveIsPiecewiseLinearAndClamped() {
+    final DepthTable.Floats table = Expression.compileFloat("curve(depth, 16, 0, 32, 8, 64, 4)");
+
+    assertEquals(0.0f, table.get(0));
+    assertEquals(0.0f, table.get(16));
+    assertEquals(4.0f, table.get(24));
+    assertEquals(8.0f, table.get(32));
+    assertEquals(6.0f, table.get(48));
+    assertEquals(4.0f, table.get(64));
+    assertEquals(4.0f, table.get(255));
+  }
+
+  @Test
+  void foldedConstantsMatchUnfolded() {
+    final DepthTable.Floats folded = Expression.compileFloat("depth * (2 + 3) - max(1, 4) + lerp(0, 10, 0.5) ^ 2");
+
+    for(int depth = 0; depth < DepthTable.SIZE; depth++) {
+      assertEquals(depth * 5.0f - 4.0f + 25.0f, folded.get(depth));
+    }
+  }
+
+  @Test
+  void constantExpressionIsFlat() {
+    final DepthTable.Ints table = Expression.compileInt("clamp(lerp(2, 8, 64 / 64), 2, 6)");
+
+    for(int depth = 0; depth < DepthTable.SIZE; depth++) {
+      assertEquals(6, table.get(depth));
+    }
+  }
+
+  @Test
+  void intsRoundAndClamp() {
+    assertEquals(3, Expression.compileInt("2.5").get(0));
+    assertEquals(Integer.MAX_VALUE, Expression.compileInt("10 ^ 12").get(0));
+    assertEquals(Integer.MIN_VALUE, Expression.compileInt("-(10 ^ 12)").get(0));
+  }
+
+  @Test
+  void floatsClamp() {
+    assertEquals(Float.MAX_VALUE, Expression.compileFloat("10 ^ 300").get(0));
+  }
+
+  @Test
+  void nonFiniteValuesAreRejected() {
+    assertThrows(IllegalArgumentException.class, () -> Expression.compileFloat("1 / 0"));
+    assertThrows(IllegalArgumentException.class, () -> Expression.compileFloat("sqrt(-1)"));
+    assertThrows(IllegalArgumentException.class, () -> Expression.compileInt("10 ^ 400"));
+
+    // Only one depth needs to be bad
+    final IllegalArgumentException e = assertThrows(IllegalArgumentException.class, () -> Expression.compileFloat("1 / (depth - 100)"));
+    assertTrue(e.getMessage().contains("depth 100"), e.getMessage());
+  }
+
+  @Test
+  void malformedExpressionsAreRejected() {
+    assertThrows(IllegalArgumentException.class, () -> Expression.compileFloat(""));
+    assertThrows(IllegalArgumentException.class, () -> Expression.compileFloat("1 +"));
+    assertThrows(IllegalArgumentException.class, () -> Expression.compileFloat("(1 + 2"));
+    assertThrows(IllegalArgumentException.class, () -> Expression.compileFloat("1 2"));
+    assertThrows(IllegalArgumentException.class, () -> Expression.compileFloat("1..2"));
+    assertThrows(IllegalArgumentException.class, () -> Expression.compileFloat("height"));
+    assertThrows(IllegalArgumentException.class, () -> Expression.compileFloat("foo(1)"));
+    assertThrows(IllegalArgumentException.class, () -> Expression.compileFloat("clamp(1, 2)"));
+    assertThrows(IllegalArgumentException.class, () -> Expression.compileFloat("curve(depth, 0, 1, 2)"));
+  }
+
+  @Test
+  void stringsAreExpressions() {
+    final DepthTable.Ints table = DepthTable.deserializeInt(new Dynamic<>(NBTDynamicOps.INSTANCE, StringNBT.valueOf("depth / 16")), 0);
+
+    assertEquals(0, table.get(7));
+    assertEquals(4, table.get(64));
+  }
+}
@@ -0,0 +1,103 @@
+package lofimodding.terra;
+
+import net.minecraft.util.math.BlockPos;
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class VeinRandomTest {
+  @Test
+  void matchesReferenceSplitMix64() {
+    final VeinRandom rand = new VeinRandom(0L);
+
+    assertEquals(0xe220a8397b1dcdafL, rand.nextLong());
+    assertEquals(0x6e789e6aa1b965f4L, rand.nextLong());
+    assertEquals(0x06c45d188009454fL, rand.nextLong());
+  }
+
+  @Test
+  void sameSeedSameSequence() {
+    final VeinRandom a = new VeinRandom(1234L);
+    final VeinRandom b = new VeinRandom(1234L);
+
+    for(int i = 0; i < 1000; i++) {
+      assertEquals(a.nextLong(), b.nextLong());
+    }
+  }
+
+  @Test
+  void nextIntStaysInBounds() {
+    final VeinRandom rand = new VeinRandom(42L);
+
+    for(final int bound : new int[] {1, 2, 3, 7, 24, 64, 1000, Integer.MAX_VALUE}) {
+      for(int i = 0; i < 1000; i++) {
+        final int value = rand.nextInt(bound);
+        assertTrue(value >= 0 && value < bound, () -> value + " outside [0, " + bound + ')');
+      }
+    }
+  }
+
+  @Test
+  void nextIntCoversSmallBounds() {
+    final VeinRandom rand = new VeinRandom(42L);
+    final int[] counts = new int[24];
+
+    for(int i = 0; i < 24000; i++) {
+      counts[rand.nextInt(counts.length)]++;
+    }
+
+    for(int i = 0; i < counts.length; i++) {
+      assertTrue(counts[i] > 800 && counts[i] < 1200, "rotation " + i + " drawn " + counts[i] + " times");
+    }
+  }
+
+  @Test
+  void nextIntRejectsNonPositiveBounds() {
+    final VeinRandom rand = new VeinRandom(0L);
+
+    assertThrows(IllegalArgumentException.class, () -> rand.nextInt(0));
+    assertThrows(IllegalArgumentException.class, () -> rand.nextInt(-1));
+  }
+
+  @Test
+  void nextFloatStaysInUnitInterval() {
+    final VeinRandom rand = new VeinRandom(7L);
+
+    for(int i = 0; i < 10000; i++) {
+      final float value = rand.nextFloat();
+      assertTrue(value >= 0.0f && value < 1.0f, () -> value + " outside [0, 1)");
+    }
+  }
+
+  @Test
+  void splitIsIndependentAndAdvancesParent() {
+    final VeinRandom parent = new VeinRandom(99L);
+    final VeinRandom copy = new VeinRandom(99L);
+
+    final VeinRandom child = parent.split();
+    copy.nextLong();
+
+    assertEquals(copy.nextLong(), parent.nextLong());
+    assertNotEquals(parent.getSeed(), child.getSeed());
+  }
+
+  @Test
+  void forVeinDependsOnStartAndOneDraw() {
+    final BlockPos start = new BlockPos(100, 40, -200);
+
+    final Random random = new Random(5L);
+    final long seed = VeinRandom.seedFor(random, start);
+    final long next = random.nextLong();
+
+    final Random again = new Random(5L);
+    assertEquals(seed, VeinRandom.forVein(again, start).getSeed());
+    assertEquals(next, again.nextLong());
+
+    assertNotEquals(seed, VeinRandom.seedFor(new Random(5L), start.up()));
+  }
+}
@@ -0,0 +1,136 @@
+package lofimodding.terra;
+
+import net.minecraft.util.math.BlockPos;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.IntFunction;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class VeinTemplatesTest {
+  private static int pack(final int x, final int y, final int z) {
+    return (x & 0x3ff) << 20 | (y & 0x3ff) << 10 | z & 0x3ff;
+  }
+
+  /**
+   * @return the rotation as a row-major matrix, read back by rotating the unit vectors
+   */
+  private static int[] matrix(final int rotation) {
+    final BlockPos.Mutable column = new BlockPos.Mutable();
+    final int[] m = new int[9];
+    final int[] units = {pack(1, 0, 0), pack(0, 1, 0), pack(0, 0, 1)};
+
+    for(int col = 0; col < 3; col++) {
+      VeinTemplates.unpack(units[col], rotation, BlockPos.ZERO, column);
+      m[col] = column.getX();
+      m[3 + col] = column.getY();
+      m[6 + col] = column.getZ();
+    }
+
+    return m;
+  }
+
+  @Test
+  void twentyFourDistinctProperRotations() {
+    assertEquals(24, VeinTemplates.rotations());
+
+    final Set<List<Integer>> seen = new HashSet<>();
+
+    for(int rotation = 0; rotation < VeinTemplates.rotations(); rotation++) {
+      final int[] m = matrix(rotation);
+
+      final int determinant =
+        m[0] * (m[4] * m[8] - m[5] * m[7]) -
+        m[1] * (m[3] * m[8] - m[5] * m[6]) +
+        m[2] * (m[3] * m[7] - m[4] * m[6]);
+
+      assertEquals(1, determinant, "rotation " + rotation + ": " + Arrays.toString(m));
+
+      // Signed permutation matrix: exactly one non-zero of magnitude one in each row
+      for(int row = 0; row < 3; row++) {
+        assertEquals(1, Math.abs(m[row * 3]) + Math.abs(m[row * 3 + 1]) + Math.abs(m[row * 3 + 2]), "rotation " + rotation + ": " + Arrays.toString(m));
+      }
+
+      final List<Integer> key = Arrays.asList(m[0], m[1], m[2], m[3], m[4], m[5], m[6], m[7], m[8]);
+      assertTrue(seen.add(key), "duplicate rotation " + rotation + ": " + Arrays.toString(m));
+    }
+  }
+
+  private static VeinTemplates.Template template(final int ores) {
+    final VeinTemplates.Builder builder = new VeinTemplates.Builder();
+
+    for(int i = 0; i < ores; i++) {
+      builder.addOre(i, 0, 0, 0);
+    }
+
+    return builder.build();
+  }
+
+  @Test
+  void cacheEvictsLeastRecentlyUsedKeys() {
+    // Two templates of ten ores per key, so three keys fit
+    final VeinTemplates cache = new VeinTemplates(2, 60);
+    final int[] built = new int[1];
+    final IntFunction<VeinTemplates.Template> factory = i -> {
+      built[0]++;
+      return template(10);
+    };
+
+    final VeinTemplates.Template[] first = cache.get(1, factory);
+    cache.get(2, factory);
+    cache.get(3, factory);
+    assertEquals(6, built[0]);
+    assertEquals(3, cache.keys());
+
+    // Using the first key keeps it over the second when the fourth is added
+    assertSame(first, cache.get(1, factory));
+    cache.get(4, factory);
+    assertEquals(8, built[0]);
+    assertEquals(3, cache.keys());
+
+    assertSame(first, cache.get(1, factory));
+    assertEquals(8, built[0]);
+
+    cache.get(2, factory);
+    assertEquals(10, built[0]);
+  }
+
+  @Test
+  void cacheKeepsOneKeyOverTheLimit() {
+    final VeinTemplates cache = new VeinTemplates(1, 5);
+    final VeinTemplates.Template[] templates = cache.get(1, i -> template(10));
+
+    assertEquals(1, cache.keys());
+    assertSame(templates, cache.get(1, i -> template(10)));
+  }
+
+  @Test
+  void unpackSignExtendsAndOffsetsFromOrigin() {
+    final BlockPos origin = new BlockPos(1000, 64, -1000);
+    final BlockPos.Mutable out = new BlockPos.Mutable();
+    final int[][] offsets = {{0, 0, 0}, {-1, 2, -3}, {511, -512, 0}, {-512, 511, -1}};
+
+    for(final int[] offset : offsets) {
+      for(int rotation = 0; rotation < VeinTemplates.rotations(); rotation++) {
+        final int[] m = matrix(rotation);
+        VeinTemplates.unpack(pack(offset[0], offset[1], offset[2]), rotation, origin, out);
+
+        assertEquals(origin.getX() + m[0] * offset[0] + m[1] * offset[1] + m[2] * offset[2], out.getX());
+        assertEquals(origin.getY() + m[3] * offset[0] + m[4] * offset[1] + m[5] * offset[2], out.getY());
+        assertEquals(origin.getZ() + m[6] * offset[0] + m[7] * offset[1] + m[8] * offset[2], out.getZ());
+
+        // Rotations keep distances
+        final int dx = out.getX() - origin.getX();
+        final int dy = out.getY() - origin.getY();
+        final int dz = out.getZ() - origin.getZ();
+        assertEquals(offset[0] * offset[0] + offset[1] * offset[1] + offset[2] * offset[2], dx * dx + dy * dy + dz * dz);
+      }
+    }
+  }
+}
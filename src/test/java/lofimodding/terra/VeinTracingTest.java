@@ -0,0 +1,101 @@
+package lofimodding.terra;
+
+import lofimodding.terra.offline.OfflineBootstrap;
+import net.minecraft.block.Blocks;
+import net.minecraft.util.math.BlockPos;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+/**
+ * Veins must trace to the same blocks whether {@link TerraVeinBatch} traces them one by one or in a parallel stream
+ */
+class VeinTracingTest {
+  private static final int VEINS = 256;
+
+  @BeforeAll
+  static void bootstrap() {
+    OfflineBootstrap.run();
+  }
+
+  private static TerraOreVeinConfig config(final int templates) {
+    return TerraOreVeinConfig.create(vein -> vein
+      .minLength(8)
+      .maxLength(40)
+      .templates(templates)
+      .addStage(stage -> stage
+        .ore(Blocks.STONE.getDefaultState(), Blocks.IRON_ORE.getDefaultState())
+        .minRadius(1)
+        .maxRadius(3)
+        .blockDensity(0.6f)
+        .stageSpawnChance(1.0f)
+      )
+      .addStage(stage -> stage
+        .ore(Blocks.STONE.getDefaultState(), Blocks.GOLD_ORE.getDefaultState())
+        .minRadius(0)
+        .maxRadius(2)
+        .blockDensity(0.3f)
+        .stageSpawnChance(0.5f)
+      )
+    );
+  }
+
+  private static List<TerraOreVein.Shape> begin(final TerraOreVeinConfig config) {
+    final List<TerraOreVein.Shape> shapes = new ArrayList<>();
+
+    for(int i = 0; i < VEINS; i++) {
+      // Spread the starts over several chunks and depths so veins spill into their neighbours
+      final BlockPos start = new BlockPos(i * 7 % 48 - 16, 8 + i * 13 % 96, i * 11 % 48 - 16);
+      shapes.add(TerraOreVein.INSTANCE.begin(new VeinRandom(i * 0x632be59bd9b4e019L), start, config, null));
+    }
+
+    return shapes;
+  }
+
+  /**
+   * Takes two copies of a config so the parallel pass builds its own templates concurrently instead of reusing the
+   * serial pass's
+   */
+  private static void assertSameTraces(final TerraOreVeinConfig serialConfig, final TerraOreVeinConfig parallelConfig) {
+    final List<TerraOreVein.Shape> serial = begin(serialConfig);
+    serial.forEach(TerraOreVein.INSTANCE::trace);
+
+    final List<TerraOreVein.Shape> parallel = begin(parallelConfig);
+    parallel.parallelStream().forEach(TerraOreVein.INSTANCE::trace);
+
+    for(int i = 0; i < VEINS; i++) {
+      assertNotEquals(0, serial.get(i).getSamples(), "vein " + i + " traced nothing");
+      assertEquals(serial.get(i).getDigest(), parallel.get(i).getDigest(), "vein " + i);
+      assertEquals(serial.get(i).getSamples(), parallel.get(i).getSamples(), "vein " + i);
+      assertEquals(serial.get(i).getPlacements(), parallel.get(i).getPlacements(), "vein " + i);
+    }
+  }
+
+  @Test
+  void parallelTracingMatchesSerial() {
+    assertSameTraces(config(0), config(0));
+  }
+
+  @Test
+  void parallelTemplatesMatchSerial() {
+    assertSameTraces(config(8), config(8));
+  }
+
+  @Test
+  void tracingIsRepeatable() {
+    final TerraOreVeinConfig config = config(0);
+    final List<TerraOreVein.Shape> first = begin(config);
+    final List<TerraOreVein.Shape> second = begin(config);
+
+    for(int i = 0; i < VEINS; i++) {
+      TerraOreVein.INSTANCE.trace(first.get(i));
+      TerraOreVein.INSTANCE.trace(second.get(i));
+      assertEquals(first.get(i).getDigest(), second.get(i).getDigest(), "vein " + i);
+    }
+  }
+}
@@ -0,0 +1,167 @@
+package lofimodding.terra.offline;
+
+import net.minecraft.block.Block;
+import net.minecraft.block.BlockState;
+import net.minecraft.block.Blocks;
+import net.minecraft.nbt.CompoundNBT;
+import net.minecraft.nbt.ListNBT;
+import net.minecraft.nbt.NBTUtil;
+import net.minecraft.util.BitArray;
+import net.minecraft.util.math.ChunkPos;
+import net.minecraft.util.registry.Registry;
+import net.minecraftforge.common.util.Constants;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ChunkDataTest {
+  private static final ChunkPos POS = new ChunkPos(3, -7);
+
+  @BeforeAll
+  static void bootstrap() {
+    OfflineBootstrap.run();
+  }
+
+  private static List<BlockState> states(final int count) {
+    final List<BlockState> states = new ArrayList<>();
+
+    for(final Block block : Registry.BLOCK) {
+      if(block != Blocks.AIR && states.size() < count) {
+        states.add(block.getDefaultState());
+      }
+    }
+
+    return states;
+  }
+
+  private static CompoundNBT emptyChunk() {
+    final CompoundNBT level = new CompoundNBT();
+    level.putString("Status", "full");
+
+    final CompoundNBT root = new CompoundNBT();
+    root.put("Level", level);
+    return root;
+  }
+
+  private static CompoundNBT section(final CompoundNBT root, final int y) {
+    final ListNBT sections = root.getCompound("Level").getList("Sections", Constants.NBT.TAG_COMPOUND);
+
+    for(int i = 0; i < sections.size(); i++) {
+      if(sections.getCompound(i).getByte("Y") == y) {
+        return sections.getCompound(i);
+      }
+    }
+
+    throw new AssertionError("No section " + y);
+  }
+
+  /**
+   * Fills section 2 with <code>count</code> states, saves, and checks the result reads back through both a fresh
+   * {@link ChunkData} and vanilla's own {@link BitArray}
+   */
+  private static void assertRoundTrip(final int count, final int bits) {
+    final List<BlockState> states = states(count);
+    final CompoundNBT root = emptyChunk();
+    final ChunkData chunk = new ChunkData(POS, root);
+
+    for(int i = 0; i < 4096; i++) {
+      chunk.setBlockState(i & 15, 32 + (i >> 8), i >> 4 & 15, states.get(i * 31 % count), false);
+    }
+
+    assertTrue(chunk.isModified());
+    chunk.save();
+
+    final ChunkData read = new ChunkData(POS, root);
+    for(int i = 0; i < 4096; i++) {
+      assertEquals(states.get(i * 31 % count), read.getBlockState(i & 15, 32 + (i >> 8), i >> 4 & 15), "block " + i);
+    }
+
+    final CompoundNBT section = section(root, 2);
+    final ListNBT palette = section.getList("Palette", Constants.NBT.TAG_COMPOUND);
+    final long[] data = section.getLongArray("BlockStates");
+    assertEquals(count, palette.size());
+    assertEquals((4096 * bits + 63) / 64, data.length);
+
+    final BitArray vanilla = new BitArray(bits, 4096, data);
+    for(int i = 0; i < 4096; i++) {
+      assertEquals(states.get(i * 31 % count), NBTUtil.readBlockState(palette.getCompound(vanilla.getAt(i))), "block " + i);
+    }
+  }
+
+  @Test
+  void smallPalettesUseFourBits() {
+    assertRoundTrip(3, 4);
+    assertRoundTrip(16, 4);
+  }
+
+  @Test
+  void palettesSpanningLongsRoundTrip() {
+    assertRoundTrip(17, 5);
+    assertRoundTrip(32, 5);
+    assertRoundTrip(33, 6);
+    assertRoundTrip(200, 8);
+  }
+
+  @Test
+  void unusedStatesAreDroppedFromThePalette() {
+    final List<BlockState> states = states(40);
+    final CompoundNBT root = emptyChunk();
+    final ChunkData chunk = new ChunkData(POS, root);
+
+    for(int i = 0; i < states.size(); i++) {
+      chunk.setBlockState(i & 15, 70, i >> 4, states.get(i), false);
+    }
+
+    // Overwrite all but the first two
+    for(int i = 2; i < states.size(); i++) {
+      chunk.setBlockState(i & 15, 70, i >> 4, states.get(0), false);
+    }
+
+    chunk.save();
+
+    // Air, which fills the rest of the section, and the two survivors
+    assertEquals(3, section(root, 4).getList("Palette", Constants.NBT.TAG_COMPOUND).size());
+    assertEquals(states.get(1), new ChunkData(POS, root).getBlockState(1, 70, 0));
+  }
+
+  @Test
+  void untouchedChunksAreUnchanged() {
+    final CompoundNBT root = emptyChunk();
+    final ChunkData chunk = new ChunkData(POS, root);
+
+    assertEquals("full", chunk.getStatus());
+    assertEquals(Blocks.AIR.getDefaultState(), chunk.getBlockState(0, 0, 0));
+    assertEquals(Blocks.AIR.getDefaultState(), chunk.getBlockState(0, -1, 0));
+    assertEquals(Blocks.AIR.getDefaultState(), chunk.getBlockState(0, 256, 0));
+
+    chunk.save();
+    assertFalse(chunk.isModified());
+    assertFalse(root.getCompound("Level").contains("Sections"));
+  }
+
+  @Test
+  void surfaceChangesDropHeightmapsAndLight() {
+    final CompoundNBT root = emptyChunk();
+    root.getCompound("Level").put("Heightmaps", new CompoundNBT());
+    root.getCompound("Level").putBoolean("isLightOn", true);
+
+    final ChunkData chunk = new ChunkData(POS, root);
+    chunk.setBlockState(0, 100, 0, Blocks.STONE.getDefaultState(), false);
+    chunk.save();
+
+    assertTrue(root.getCompound("Level").contains("Heightmaps"));
+    assertTrue(root.getCompound("Level").getBoolean("isLightOn"));
+
+    chunk.setBlockState(0, 101, 0, Blocks.STONE.getDefaultState(), true);
+    chunk.save();
+
+    assertFalse(root.getCompound("Level").contains("Heightmaps"));
+    assertFalse(root.getCompound("Level").getBoolean("isLightOn"));
+  }
+}